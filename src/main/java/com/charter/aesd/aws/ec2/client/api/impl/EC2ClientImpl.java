@@ -29,6 +29,8 @@ import com.charter.aesd.aws.ec2.client.api.EC2Client;
 import com.charter.aesd.aws.ec2.command.EC2Command;
 import com.charter.aesd.aws.ec2.securitygroup.SecurityGroupQuery;
 import com.charter.aesd.aws.enums.AWSAuthType;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
 import com.charter.aesd.aws.s3client.S3Client;
 
 import java.lang.invoke.MethodHandles;
@@ -52,6 +54,8 @@ public class EC2ClientImpl implements EC2Client {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles
         .lookup().getClass());
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance()
+        .forService("EC2");
     private final AmazonEC2Client awsEC2Client;
 
     private EC2ClientImpl(final AmazonEC2Client client) {
@@ -62,12 +66,16 @@ public class EC2ClientImpl implements EC2Client {
     /**
      * Private method to invoke {@code Hystrix} command for each AWS EC2 APIO
      * 
+     * @param operation the AWS operation, names the metrics of the call
      * @param function
      * @return
      */
-    private <T> Observable<T> invokeHystrixCommand(Supplier<T> function) {
+    private <T> Observable<T> invokeHystrixCommand(String operation,
+                                                   Supplier<T> function) {
 
-        EC2Command<T> command = new EC2Command<T>(function);
+        EC2Command<T> command =
+            new EC2Command<T>(() -> METRICS.time(operation, null,
+                function::get));
         try {
             return command.observe().subscribeOn(Schedulers.io());
         } catch (Exception e) {
@@ -88,7 +96,7 @@ public class EC2ClientImpl implements EC2Client {
                         : new DescribeSecurityGroupsRequest());
                 return securityGroupsResult.getSecurityGroups();
             };
-        return invokeHystrixCommand(function).flatMap(
+        return invokeHystrixCommand("describeSecurityGroups", function).flatMap(
             lst -> Observable.from(lst));
     }
 
@@ -109,7 +117,7 @@ public class EC2ClientImpl implements EC2Client {
                     request.withGroupName(groupName).withVpcId(vpcId);
                 return awsEC2Client.createSecurityGroup(request);
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("createSecurityGroup", function);
     }
 
     @Override
@@ -122,7 +130,7 @@ public class EC2ClientImpl implements EC2Client {
                         .withGroupId(groupId));
                 return null;
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("deleteSecurityGroup", function);
     }
 
     /**
@@ -170,7 +178,7 @@ public class EC2ClientImpl implements EC2Client {
                     groupId).withIpPermissions(permission));
                 return null;
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("authorizeSecurityGroupEgress", function);
     }
 
     @Override
@@ -195,7 +203,7 @@ public class EC2ClientImpl implements EC2Client {
                     groupId).withIpPermissions(permission));
                 return null;
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("authorizeSecurityGroupIngress", function);
     }
 
     @Override
@@ -220,7 +228,7 @@ public class EC2ClientImpl implements EC2Client {
                     groupId).withIpPermissions(permission));
                 return null;
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("revokeSecurityGroupIngress", function);
     }
 
     @Override
@@ -244,7 +252,7 @@ public class EC2ClientImpl implements EC2Client {
                     groupId).withIpPermissions(permission));
                 return null;
             };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("revokeSecurityGroupEgress", function);
     }
 
     @Override
@@ -257,7 +265,7 @@ public class EC2ClientImpl implements EC2Client {
                 request.withVpcIds(vpcs.get());
             return awsEC2Client.describeVpcs(request);
         };
-        return invokeHystrixCommand(function);
+        return invokeHystrixCommand("describeVpcs", function);
     }
 
     /**
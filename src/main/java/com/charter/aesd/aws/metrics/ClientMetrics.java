@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p/>
+ * The {@link OperationMetrics} of one client type (SQS, SNS, S3, EC2),
+ * obtained from {@link MetricsRegistry#forService(String)}. Clients wrap each
+ * AWS call:
+ *
+ * <pre>
+ * SendMessageResult result = METRICS.time("sendMessage", queueName,
+ *     () -> getClient().sendMessage(request));
+ * </pre>
+ *
+ * When {@code aws.lib.metrics.enabled} is false the call runs unmeasured.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class ClientMetrics {
+
+    /**
+     * An AWS call, {@code E} lets checked exceptions through {@link #time}
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+
+        T call() throws E;
+    }
+
+    private static final String NO_RESOURCE = "";
+
+    private final String service;
+    private final ConcurrentMap<String, ConcurrentMap<String, OperationMetrics>> operations =
+        new ConcurrentHashMap<String, ConcurrentMap<String, OperationMetrics>>();
+
+    ClientMetrics(final String service) {
+
+        this.service = service;
+    }
+
+    public String getService() {
+
+        return service;
+    }
+
+    /**
+     * @return {@code boolean} the value of {@code aws.lib.metrics.enabled}
+     */
+    public boolean isEnabled() {
+
+        return MetricsRegistry.isEnabled();
+    }
+
+    /**
+     * @param operation {@code String} the AWS operation
+     * @param resource {@code String} the Queue/Topic/bucket name, may be null
+     *
+     * @return {@link OperationMetrics} created on first use
+     */
+    public OperationMetrics get(final String operation, final String resource) {
+
+        ConcurrentMap<String, OperationMetrics> resources = operations.get(operation);
+        if (resources == null) {
+            resources = operations.computeIfAbsent(operation,
+                key -> new ConcurrentHashMap<String, OperationMetrics>());
+        }
+
+        String key = (resource == null) ? NO_RESOURCE : resource;
+        OperationMetrics metrics = resources.get(key);
+        if (metrics == null) {
+            metrics = resources.computeIfAbsent(key, k -> new OperationMetrics(service, operation, resource));
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Runs and times an AWS call, counting it as an error if it throws.
+     *
+     * @param operation {@code String} the AWS operation
+     * @param resource {@code String} the Queue/Topic/bucket name, may be null
+     * @param call {@link Call} the AWS call
+     *
+     * @return {@code T} the result of the call
+     *
+     * @throws E the exception thrown by the call
+     */
+    public <T, E extends Exception> T time(final String operation, final String resource,
+                                           final Call<T, E> call) throws E {
+
+        if (!isEnabled()) {
+            return call.call();
+        }
+
+        OperationMetrics metrics = get(operation, resource);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            metrics.record(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * @param operation {@code String} the AWS operation
+     * @param resource {@code String} the Queue/Topic/bucket name, may be null
+     * @param count {@code long} bytes sent or received
+     */
+    public void addBytes(final String operation, final String resource, final long count) {
+
+        if (isEnabled()) {
+            get(operation, resource).addBytes(count);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a downloaded stream as they are consumed.
+     *
+     * @param operation {@code String} the AWS operation
+     * @param resource {@code String} the bucket name
+     * @param in {@link InputStream} the content stream
+     *
+     * @return {@link InputStream} the metered stream, or {@code in} itself
+     *         when metrics are disabled
+     */
+    public InputStream meter(final String operation, final String resource, final InputStream in) {
+
+        if (!isEnabled() || (in == null)) {
+            return in;
+        }
+
+        return new MeteredInputStream(in, get(operation, resource));
+    }
+
+    /**
+     * @param content {@code CharSequence} a message body
+     *
+     * @return {@code long} its UTF-8 encoded length, computed without
+     *         encoding it
+     */
+    public static long utf8Length(final CharSequence content) {
+
+        if (content == null) {
+            return 0;
+        }
+
+        long length = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // the surrogate pair is one 4 byte code point
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    List<MetricsSnapshot> snapshots(final boolean reset) {
+
+        List<MetricsSnapshot> snapshots = new ArrayList<MetricsSnapshot>();
+        for (ConcurrentMap<String, OperationMetrics> resources : operations.values()) {
+            for (OperationMetrics metrics : resources.values()) {
+                MetricsSnapshot snapshot = metrics.snapshot(reset);
+                if ((snapshot.getCount() > 0) || (snapshot.getAllocatedBytes() > 0)) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+
+        return snapshots;
+    }
+} // ClientMetrics
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p/>
+ * Lock-free latency histogram with log-linear buckets, in the spirit of
+ * HdrHistogram: every power of two range is split in 32 linear sub-buckets,
+ * so any recorded value is reported within ~3% of its real value. Recording
+ * is one {@code AtomicLongArray} increment plus two striped adders, and never
+ * blocks or allocates.
+ * <p/>
+ * Values are nanoseconds, anything above 2^40 ns (~18 minutes) is counted in
+ * the last bucket.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos {@code long} the latency to record, negative values are
+     *        recorded as 0
+     */
+    public void record(final long nanos) {
+
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_VALUE)));
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @param reset {@code boolean} true to clear the recorded values, each
+     *        value is then part of exactly one snapshot even while recording
+     *        continues
+     *
+     * @return {@link Snapshot} the values recorded so far
+     */
+    public Snapshot snapshot(final boolean reset) {
+
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+        }
+
+        return new Snapshot(copy, reset ? total.sumThenReset() : total.sum(),
+            reset ? max.getThenReset() : max.get());
+    }
+
+    static int indexOf(final long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long lowerBoundOf(final int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index / SUB_BUCKET_COUNT) - 1;
+        return ((long) SUB_BUCKET_COUNT + (index % SUB_BUCKET_COUNT)) << shift;
+    }
+
+    /**
+     * Immutable copy of the histogram
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(final long[] counts, final long total, final long max) {
+
+            long sum = 0;
+            for (long bucket : counts) {
+                sum += bucket;
+            }
+
+            this.counts = counts;
+            this.count = sum;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @return {@code long} the number of recorded values
+         */
+        public long getCount() {
+
+            return count;
+        }
+
+        /**
+         * @return {@code long} the largest recorded value
+         */
+        public long getMax() {
+
+            return max;
+        }
+
+        /**
+         * @return {@code double} the mean of the recorded values, 0 when empty
+         */
+        public double getMean() {
+
+            return (count == 0) ? 0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile {@code double} between 0 and 100
+         *
+         * @return {@code long} the upper bound of the bucket holding the
+         *         value at the percentile, never more than {@link #getMax()}
+         */
+        public long getValueAtPercentile(final double percentile) {
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil((Math.min(percentile, 100.0) / 100.0) * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(lowerBoundOf(i + 1) - 1, max);
+                }
+            }
+
+            return max;
+        }
+    }
+} // LatencyHistogram
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * {@link MetricsSink} writing one INFO line per operation/resource.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class LoggingMetricsSink implements MetricsSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggingMetricsSink.class);
+
+    @Override
+    public void report(final List<MetricsSnapshot> snapshots) {
+
+        if (!LOGGER.isInfoEnabled()) {
+            return;
+        }
+
+        for (MetricsSnapshot snapshot : snapshots) {
+            LOGGER.info(snapshot.toString());
+        }
+    }
+} // LoggingMetricsSink
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p/>
+ * Adds the bytes read from the wrapped stream to an {@link OperationMetrics}.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private final OperationMetrics metrics;
+
+    MeteredInputStream(final InputStream in, final OperationMetrics metrics) {
+
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        int b = super.read();
+        if (b >= 0) {
+            metrics.addBytes(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            metrics.addBytes(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+
+        long count = super.skip(n);
+        metrics.addBytes(count);
+        return count;
+    }
+} // MeteredInputStream
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Process wide registry of the client metrics. Every registered
+ * {@link MetricsSink} receives the metrics recorded during the last interval
+ * from a daemon thread. Configured through Archaius:
+ *
+ * <pre>
+ * aws.lib.metrics.enabled                  record metrics, default true
+ * aws.lib.metrics.reportIntervalSeconds    default 60
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class MetricsRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final DynamicBooleanProperty ENABLED =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.lib.metrics.enabled", true);
+    private static final DynamicIntProperty REPORT_INTERVAL_SECONDS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.lib.metrics.reportIntervalSeconds", 60);
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<String, ClientMetrics> services = new ConcurrentHashMap<String, ClientMetrics>();
+    private final List<MetricsSink> sinks = new CopyOnWriteArrayList<MetricsSink>();
+    private ScheduledExecutorService reporter;
+
+    /**
+     * @return {@link MetricsRegistry} the shared registry
+     */
+    public static MetricsRegistry getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * @return {@code boolean} the value of {@code aws.lib.metrics.enabled}
+     */
+    public static boolean isEnabled() {
+
+        return ENABLED.get();
+    }
+
+    /**
+     * @param service {@code String} the client type, e.g. {@code SQS}
+     *
+     * @return {@link ClientMetrics} the metrics of the client type
+     */
+    public ClientMetrics forService(final String service) {
+
+        return services.computeIfAbsent(service, ClientMetrics::new);
+    }
+
+    /**
+     * Registers a sink, the reporting thread is started with the first one.
+     *
+     * @param sink {@link MetricsSink}
+     */
+    public synchronized void addSink(final MetricsSink sink) {
+
+        sinks.add(Preconditions.checkNotNull(sink, "sink cannot be null"));
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("aws-lib-metrics").setDaemon(true).build());
+            scheduleReport();
+        }
+    }
+
+    /**
+     * @param sink {@link MetricsSink} a sink passed to {@link #addSink}
+     */
+    public void removeSink(final MetricsSink sink) {
+
+        sinks.remove(sink);
+    }
+
+    /**
+     * @param reset {@code boolean} true to start a new interval
+     *
+     * @return {@code List<MetricsSnapshot>} the metrics of every
+     *         operation/resource called since the last reset
+     */
+    public List<MetricsSnapshot> getSnapshots(final boolean reset) {
+
+        List<MetricsSnapshot> snapshots = new ArrayList<MetricsSnapshot>();
+        for (ClientMetrics client : services.values()) {
+            snapshots.addAll(client.snapshots(reset));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Sends the metrics of the current interval to every sink and starts a
+     * new interval.
+     */
+    public void report() {
+
+        List<MetricsSnapshot> snapshots = getSnapshots(true);
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        for (MetricsSink sink : sinks) {
+            try {
+                sink.report(snapshots);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Metrics sink " + sink + " failed", e);
+            }
+        }
+    }
+
+    private void scheduleReport() {
+
+        // rescheduled after every report so interval changes apply
+        reporter.schedule(() -> {
+            try {
+                report();
+            } finally {
+                scheduleReport();
+            }
+        }, Math.max(1, REPORT_INTERVAL_SECONDS.get()), TimeUnit.SECONDS);
+    }
+} // MetricsRegistry
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.util.List;
+
+/**
+ * <p/>
+ * Destination of the client metrics, e.g. a log, Servo or Graphite.
+ * Registered with {@link MetricsRegistry#addSink(MetricsSink)}.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public interface MetricsSink {
+
+    /**
+     * Called from the reporting thread once per interval.
+     *
+     * @param snapshots {@code List<MetricsSnapshot>} the metrics of every
+     *        operation/resource that was called during the interval
+     */
+    void report(List<MetricsSnapshot> snapshots);
+} // MetricsSink
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p/>
+ * Immutable view of the {@link OperationMetrics} of one operation/resource
+ * over a reporting interval, as handed to the {@link MetricsSink}s.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class MetricsSnapshot {
+
+    private final String service;
+    private final String operation;
+    private final String resource;
+    private final LatencyHistogram.Snapshot latency;
+    private final long errors;
+    private final long bytes;
+    private final long allocatedBytes;
+    private final long inUseBytes;
+
+    MetricsSnapshot(final String service, final String operation, final String resource,
+                    final LatencyHistogram.Snapshot latency, final long errors, final long bytes,
+                    final long allocatedBytes, final long inUseBytes) {
+
+        this.service = service;
+        this.operation = operation;
+        this.resource = resource;
+        this.latency = latency;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.allocatedBytes = allocatedBytes;
+        this.inUseBytes = inUseBytes;
+    }
+
+    public String getService() {
+
+        return service;
+    }
+
+    public String getOperation() {
+
+        return operation;
+    }
+
+    /**
+     * @return {@code String} the Queue/Topic/bucket name, may be null
+     */
+    public String getResource() {
+
+        return resource;
+    }
+
+    /**
+     * @return {@code long} the number of calls
+     */
+    public long getCount() {
+
+        return latency.getCount();
+    }
+
+    /**
+     * @return {@code long} the number of calls that threw
+     */
+    public long getErrors() {
+
+        return errors;
+    }
+
+    /**
+     * @return {@code long} the bytes sent or received
+     */
+    public long getBytes() {
+
+        return bytes;
+    }
+
+    /**
+     * @return {@code long} the memory of the pool reporting through the
+     *         operation when the snapshot was taken, -1 for an operation
+     *         without a pool
+     */
+    public long getAllocatedBytes() {
+
+        return allocatedBytes;
+    }
+
+    /**
+     * @return {@code long} the memory of the pool handed out and not given
+     *         back when the snapshot was taken, -1 for an operation without
+     *         a pool
+     */
+    public long getInUseBytes() {
+
+        return inUseBytes;
+    }
+
+    /**
+     * @return {@link LatencyHistogram.Snapshot} the call durations in
+     *         nanoseconds
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+
+        return service + "." + operation + ((resource != null) ? "[" + resource + "]" : "") + " count=" + getCount()
+            + " errors=" + errors + " bytes=" + bytes
+            + " mean=" + toMicros((long) latency.getMean()) + "us"
+            + " p50=" + toMicros(latency.getValueAtPercentile(50)) + "us"
+            + " p99=" + toMicros(latency.getValueAtPercentile(99)) + "us"
+            + " max=" + toMicros(latency.getMax()) + "us"
+            + ((allocatedBytes >= 0) ? " allocated=" + allocatedBytes + " inUse=" + inUseBytes : "");
+    }
+
+    private static long toMicros(final long nanos) {
+
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+} // MetricsSnapshot
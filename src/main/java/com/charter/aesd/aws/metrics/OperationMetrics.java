@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <p/>
+ * Latency, error and byte counters of one operation of one client against one
+ * resource (Queue, Topic, bucket). Every method is safe to call concurrently
+ * and lock-free.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class OperationMetrics {
+
+    private final String service;
+    private final String operation;
+    private final String resource;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile LongSupplier allocatedBytes;
+    private volatile LongSupplier inUseBytes;
+
+    OperationMetrics(final String service, final String operation, final String resource) {
+
+        this.service = service;
+        this.operation = operation;
+        this.resource = resource;
+    }
+
+    /**
+     * @param nanos {@code long} the duration of the call
+     * @param success {@code boolean} false if the call threw
+     */
+    public void record(final long nanos, final boolean success) {
+
+        latency.record(nanos);
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * @param count {@code long} bytes sent or received by the operation
+     */
+    public void addBytes(final long count) {
+
+        if (count > 0) {
+            bytes.add(count);
+        }
+    }
+
+    /**
+     * Reports the memory of a pool with the operation, read when a snapshot
+     * is taken
+     *
+     * @param allocatedBytes {@link LongSupplier} the memory of the pool
+     * @param inUseBytes {@link LongSupplier} the memory handed out
+     */
+    public void setPool(final LongSupplier allocatedBytes, final LongSupplier inUseBytes) {
+
+        this.allocatedBytes = allocatedBytes;
+        this.inUseBytes = inUseBytes;
+    }
+
+    public String getService() {
+
+        return service;
+    }
+
+    public String getOperation() {
+
+        return operation;
+    }
+
+    /**
+     * @return {@code String} the Queue/Topic/bucket name, null when the
+     *         operation is not bound to one
+     */
+    public String getResource() {
+
+        return resource;
+    }
+
+    /**
+     * @param reset {@code boolean} true to start a new interval
+     *
+     * @return {@link MetricsSnapshot} the values recorded since the last reset
+     */
+    public MetricsSnapshot snapshot(final boolean reset) {
+
+        final LongSupplier allocated = allocatedBytes;
+        final LongSupplier inUse = inUseBytes;
+
+        return new MetricsSnapshot(service, operation, resource, latency.snapshot(reset),
+            reset ? errors.sumThenReset() : errors.sum(), reset ? bytes.sumThenReset() : bytes.sum(),
+            (allocated == null) ? -1 : allocated.getAsLong(), (inUse == null) ? -1 : inUse.getAsLong());
+    }
+} // OperationMetrics
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.provisioning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p/>
+ * Outcome of {@link TopologyProvisioner#provision(Topology)}: the resolved
+ * ARNs/urls of every resource, the changes that were applied and the
+ * operations that failed. Safe to update from the provisioning threads.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class ProvisioningResult {
+
+    private final Map<String, String> topicArns = new ConcurrentHashMap<String, String>();
+    private final Map<String, String> queueUrls = new ConcurrentHashMap<String, String>();
+    private final Map<Topology.Subscription, String> subscriptionArns =
+        new ConcurrentHashMap<Topology.Subscription, String>();
+    private final ConcurrentLinkedQueue<String> changes = new ConcurrentLinkedQueue<String>();
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+
+    /**
+     * @return {@code Map<String, String>} Topic name to Topic ARN
+     */
+    public Map<String, String> getTopicArns() {
+
+        return Collections.unmodifiableMap(topicArns);
+    }
+
+    /**
+     * @return {@code Map<String, String>} Queue name to Queue url
+     */
+    public Map<String, String> getQueueUrls() {
+
+        return Collections.unmodifiableMap(queueUrls);
+    }
+
+    /**
+     * @return {@code Map<Subscription, String>} subscription to
+     *         Subscription ARN
+     */
+    public Map<Topology.Subscription, String> getSubscriptionArns() {
+
+        return Collections.unmodifiableMap(subscriptionArns);
+    }
+
+    /**
+     * @return {@code List<String>} human readable description of every change
+     *         applied to AWS, in completion order
+     */
+    public List<String> getChanges() {
+
+        return new ArrayList<String>(changes);
+    }
+
+    /**
+     * @return {@code Map<String, Throwable>} description of each failed or
+     *         skipped operation to its cause
+     */
+    public Map<String, Throwable> getFailures() {
+
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return {@code boolean} true if every operation succeeded
+     */
+    public boolean isSuccessful() {
+
+        return failures.isEmpty();
+    }
+
+    void putTopicArn(final String topicName, final String topicArn) {
+
+        topicArns.put(topicName, topicArn);
+    }
+
+    void putQueueUrl(final String queueName, final String queueUrl) {
+
+        queueUrls.put(queueName, queueUrl);
+    }
+
+    void putSubscriptionArn(final Topology.Subscription subscription, final String subscriptionArn) {
+
+        subscriptionArns.put(subscription, subscriptionArn);
+    }
+
+    void addChange(final String change) {
+
+        changes.add(change);
+    }
+
+    void addFailure(final String operation, final Throwable cause) {
+
+        failures.put(operation, cause);
+    }
+
+    @Override
+    public String toString() {
+
+        return "ProvisioningResult[changes=" + changes.size() + ", failures=" + failures.keySet() + "]";
+    }
+} // ProvisioningResult
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.provisioning;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p/>
+ * Declarative description of the SNS Topics, SQS Queues and Topic to Queue
+ * subscriptions an environment needs. Resources are referenced by name; the
+ * {@link TopologyProvisioner} resolves them to ARNs/urls when it applies the
+ * topology. Use {@link Topology.Builder} to construct an instance.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class Topology {
+
+    private final Set<String> topics;
+    private final Set<String> queues;
+    private final List<Subscription> subscriptions;
+
+    private Topology(final Builder builder) {
+
+        this.topics = Collections.unmodifiableSet(new LinkedHashSet<String>(builder.topics));
+        this.queues = Collections.unmodifiableSet(new LinkedHashSet<String>(builder.queues));
+        this.subscriptions = Collections.unmodifiableList(new ArrayList<Subscription>(builder.subscriptions));
+    }
+
+    /**
+     * @return {@code Set<String>} the names of every Topic, including the ones
+     *         only referenced by a subscription
+     */
+    public Set<String> getTopics() {
+
+        return topics;
+    }
+
+    /**
+     * @return {@code Set<String>} the names of every Queue, including the ones
+     *         only referenced by a subscription
+     */
+    public Set<String> getQueues() {
+
+        return queues;
+    }
+
+    /**
+     * @return {@code List<Subscription>} the Topic to Queue subscriptions
+     */
+    public List<Subscription> getSubscriptions() {
+
+        return subscriptions;
+    }
+
+    /**
+     * A Queue subscribed to a Topic
+     */
+    public static class Subscription {
+
+        private final String topicName;
+        private final String queueName;
+        private final boolean rawDelivery;
+        private final String filterPolicy;
+
+        /**
+         * @param topicName {@code String} name of the publishing Topic
+         * @param queueName {@code String} name of the consuming Queue
+         * @param rawDelivery {@code boolean} true to deliver the message
+         *        without the SNS JSON envelope
+         */
+        public Subscription(final String topicName, final String queueName, final boolean rawDelivery) {
+
+            this(topicName, queueName, rawDelivery, null);
+        }
+
+        /**
+         * @param topicName {@code String} name of the publishing Topic
+         * @param queueName {@code String} name of the consuming Queue
+         * @param rawDelivery {@code boolean} true to deliver the message
+         *        without the SNS JSON envelope
+         * @param filterPolicy {@code String} JSON SNS filter policy, null to
+         *        deliver every message
+         */
+        public Subscription(final String topicName, final String queueName, final boolean rawDelivery,
+            final String filterPolicy) {
+
+            this.topicName = Preconditions.checkNotNull(topicName, "topicName cannot be null");
+            this.queueName = Preconditions.checkNotNull(queueName, "queueName cannot be null");
+            this.rawDelivery = rawDelivery;
+            this.filterPolicy = filterPolicy;
+        }
+
+        public String getTopicName() {
+
+            return topicName;
+        }
+
+        public String getQueueName() {
+
+            return queueName;
+        }
+
+        public boolean isRawDelivery() {
+
+            return rawDelivery;
+        }
+
+        public String getFilterPolicy() {
+
+            return filterPolicy;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+
+            if (!(obj instanceof Subscription)) {
+                return false;
+            }
+
+            Subscription other = (Subscription) obj;
+            return topicName.equals(other.topicName) && queueName.equals(other.queueName)
+                && (rawDelivery == other.rawDelivery) && Objects.equal(filterPolicy, other.filterPolicy);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return Objects.hashCode(topicName, queueName, rawDelivery, filterPolicy);
+        }
+
+        @Override
+        public String toString() {
+
+            return "Subscription[" + topicName + " -> " + queueName + (rawDelivery ? ", raw" : "")
+                + ((filterPolicy != null) ? ", filtered" : "") + "]";
+        }
+    }
+
+    /**
+     * Builder class for constructing an instance of {@link Topology}
+     */
+    public static class Builder {
+
+        private final Set<String> topics = new LinkedHashSet<String>();
+        private final Set<String> queues = new LinkedHashSet<String>();
+        private final Set<Subscription> subscriptions = new LinkedHashSet<Subscription>();
+
+        /**
+         * @param topicName {@code String} name of a Topic to provision
+         * @return {@link Builder}
+         */
+        public Builder addTopic(final String topicName) {
+
+            topics.add(Preconditions.checkNotNull(topicName, "topicName cannot be null"));
+            return this;
+        }
+
+        /**
+         * @param queueName {@code String} name of a Queue to provision
+         * @return {@link Builder}
+         */
+        public Builder addQueue(final String queueName) {
+
+            queues.add(Preconditions.checkNotNull(queueName, "queueName cannot be null"));
+            return this;
+        }
+
+        /**
+         * Subscribes a Queue to a Topic, both are provisioned if needed.
+         *
+         * @param topicName {@code String} name of the publishing Topic
+         * @param queueName {@code String} name of the consuming Queue
+         * @param rawDelivery {@code boolean} true to deliver the message
+         *        without the SNS JSON envelope
+         * @return {@link Builder}
+         */
+        public Builder addSubscription(final String topicName, final String queueName, final boolean rawDelivery) {
+
+            return addSubscription(topicName, queueName, rawDelivery, null);
+        }
+
+        /**
+         * Subscribes a Queue to a Topic with an SNS filter policy, both are
+         * provisioned if needed.
+         *
+         * @param topicName {@code String} name of the publishing Topic
+         * @param queueName {@code String} name of the consuming Queue
+         * @param rawDelivery {@code boolean} true to deliver the message
+         *        without the SNS JSON envelope
+         * @param filterPolicy {@code String} JSON filter policy matched
+         *        against the message attributes, null to deliver everything
+         * @return {@link Builder}
+         */
+        public Builder addSubscription(final String topicName, final String queueName, final boolean rawDelivery,
+                                       final String filterPolicy) {
+
+            Subscription subscription = new Subscription(topicName, queueName, rawDelivery, filterPolicy);
+            topics.add(topicName);
+            queues.add(queueName);
+            subscriptions.add(subscription);
+            return this;
+        }
+
+        public Topology build() {
+
+            return new Topology(this);
+        }
+    }
+} // Topology
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.provisioning;
+
+import com.amazonaws.services.sns.model.Subscription;
+import com.charter.aesd.aws.snsclient.SNSClient;
+import com.charter.aesd.aws.sqsclient.SQSClient;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Applies a {@link Topology} to AWS. The existing Topics and Queues are listed
+ * once, only the missing ones are created, and subscriptions are only made
+ * where the Queue is not already subscribed to the Topic. Each step runs its
+ * AWS calls concurrently on a bounded pool, sized by the
+ * {@code aws.lib.provisioning.parallelism} property (default 8) unless given
+ * explicitly.
+ * <p/>
+ * The steps are:
+ * <ol>
+ * <li>list the existing Topics and Queues</li>
+ * <li>create the missing Topics and Queues</li>
+ * <li>resolve the Queue ARNs and list the subscriptions of each Topic</li>
+ * <li>allow each Queue's Topics to publish to it, subscribe the missing
+ * Queues and align the raw delivery flag and filter policy of existing
+ * subscriptions</li>
+ * </ol>
+ * A failed operation does not stop the others; it is reported in the
+ * {@link ProvisioningResult} along with the operations that depended on it.
+ * <p/>
+ * The statement allowing the Topics to publish is merged into the Queue
+ * policy, its other statements are kept and the policy is only written when
+ * the statement changes.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class TopologyProvisioner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopologyProvisioner.class);
+
+    private static final String SQS_PROTOCOL = "sqs";
+
+    private static final DynamicIntProperty DEFAULT_PARALLELISM =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.lib.provisioning.parallelism", 8);
+
+    private final SNSClient snsClient;
+    private final SQSClient sqsClient;
+    private final int parallelism;
+
+    /**
+     * @param snsClient {@link SNSClient} used for the Topics and subscriptions
+     * @param sqsClient {@link SQSClient} used for the Queues
+     */
+    public TopologyProvisioner(final SNSClient snsClient, final SQSClient sqsClient) {
+
+        this(snsClient, sqsClient, DEFAULT_PARALLELISM.get());
+    }
+
+    /**
+     * @param snsClient {@link SNSClient} used for the Topics and subscriptions
+     * @param sqsClient {@link SQSClient} used for the Queues
+     * @param parallelism {@code int} maximum number of concurrent AWS calls
+     */
+    public TopologyProvisioner(final SNSClient snsClient, final SQSClient sqsClient, final int parallelism) {
+
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+
+        this.snsClient = snsClient;
+        this.sqsClient = sqsClient;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Creates whatever the topology needs that does not exist yet.
+     *
+     * @param topology {@link Topology} the desired state
+     *
+     * @return {@link ProvisioningResult} the resolved resources, applied
+     *         changes and failures
+     */
+    public ProvisioningResult provision(final Topology topology) {
+
+        LOGGER.info("Provisioning " + topology.getTopics().size() + " Topics, " + topology.getQueues().size()
+            + " Queues and " + topology.getSubscriptions().size() + " Subscriptions");
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("aws-lib-provisioning-%d").build());
+        try {
+            final ProvisioningResult result = new ProvisioningResult();
+
+            provisionTopicsAndQueues(executor, topology, result);
+            provisionSubscriptions(executor, topology, result);
+
+            LOGGER.info("Provisioning complete, " + result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void provisionTopicsAndQueues(final ExecutorService executor, final Topology topology,
+                                          final ProvisioningResult result) {
+
+        Future<List<String>> topicArns = executor.submit(() -> snsClient.listTopicArns());
+        Future<List<String>> queueUrls =
+            executor.submit(() -> sqsClient.listQueueUrls(commonPrefix(topology.getQueues())));
+
+        // Topic/Queue creation is idempotent in AWS, so a failed listing only
+        // means more create calls
+        final Map<String, String> existingTopics = indexByName(await(topicArns, "list Topics"), ':');
+        final Map<String, String> existingQueues = indexByName(await(queueUrls, "list Queues"), '/');
+
+        Map<String, Callable<Void>> tasks = new LinkedHashMap<String, Callable<Void>>();
+        for (final String topicName : topology.getTopics()) {
+            String topicArn = existingTopics.get(topicName);
+            if (topicArn != null) {
+                result.putTopicArn(topicName, topicArn);
+                continue;
+            }
+
+            tasks.put("create Topic " + topicName, () -> {
+                result.putTopicArn(topicName, snsClient.createTopic(topicName));
+                result.addChange("CREATED Topic " + topicName);
+                return null;
+            });
+        }
+
+        for (final String queueName : topology.getQueues()) {
+            String queueUrl = existingQueues.get(queueName);
+            if (queueUrl != null) {
+                result.putQueueUrl(queueName, queueUrl);
+                continue;
+            }
+
+            tasks.put("create Queue " + queueName, () -> {
+                result.putQueueUrl(queueName, sqsClient.createQueue(queueName));
+                result.addChange("CREATED Queue " + queueName);
+                return null;
+            });
+        }
+
+        runAll(executor, tasks, result);
+    }
+
+    private void provisionSubscriptions(final ExecutorService executor, final Topology topology,
+                                        final ProvisioningResult result) {
+
+        if (topology.getSubscriptions().isEmpty()) {
+            return;
+        }
+
+        final Map<String, String> topicArns = result.getTopicArns();
+        final Map<String, String> queueUrls = result.getQueueUrls();
+
+        // Resolve the queue ARNs and what each topic is already subscribed by
+        final Map<String, String> queueArns = new ConcurrentHashMap<String, String>();
+        final Map<String, Map<String, Subscription>> existing =
+            new ConcurrentHashMap<String, Map<String, Subscription>>();
+        final Map<String, List<String>> topicsByQueue = new LinkedHashMap<String, List<String>>();
+
+        Map<String, Callable<Void>> tasks = new LinkedHashMap<String, Callable<Void>>();
+        for (Topology.Subscription subscription : topology.getSubscriptions()) {
+            final String queueUrl = queueUrls.get(subscription.getQueueName());
+            final String topicArn = topicArns.get(subscription.getTopicName());
+
+            if ((queueUrl != null) && !tasks.containsKey("resolve Queue " + subscription.getQueueName())) {
+                tasks.put("resolve Queue " + subscription.getQueueName(), () -> {
+                    queueArns.put(queueUrl, sqsClient.resolveQueueARN(queueUrl));
+                    return null;
+                });
+            }
+
+            if ((topicArn != null) && !tasks.containsKey("list Subscriptions " + subscription.getTopicName())) {
+                tasks.put("list Subscriptions " + subscription.getTopicName(), () -> {
+                    Map<String, Subscription> byEndpoint = new HashMap<String, Subscription>();
+                    for (Subscription sub : snsClient.listSubscriptions(topicArn)) {
+                        if (SQS_PROTOCOL.equalsIgnoreCase(sub.getProtocol())) {
+                            byEndpoint.put(sub.getEndpoint(), sub);
+                        }
+                    }
+                    existing.put(topicArn, byEndpoint);
+                    return null;
+                });
+            }
+
+            if ((queueUrl != null) && (topicArn != null)) {
+                List<String> topics = topicsByQueue.get(queueUrl);
+                if (topics == null) {
+                    topics = new ArrayList<String>();
+                    topicsByQueue.put(queueUrl, topics);
+                }
+                if (!topics.contains(topicArn)) {
+                    topics.add(topicArn);
+                }
+            }
+        }
+        runAll(executor, tasks, result);
+
+        // Allow the topics to publish and subscribe whatever is missing
+        tasks = new LinkedHashMap<String, Callable<Void>>();
+        for (final Map.Entry<String, List<String>> entry : topicsByQueue.entrySet()) {
+            tasks.put("allow Topics on Queue " + entry.getKey(), () -> {
+                if (sqsClient.allowTopics(entry.getKey(), entry.getValue())) {
+                    result.addChange("UPDATED policy of Queue " + entry.getKey());
+                }
+                return null;
+            });
+        }
+
+        for (final Topology.Subscription subscription : topology.getSubscriptions()) {
+            final String operation = "subscribe " + subscription;
+            final String topicArn = topicArns.get(subscription.getTopicName());
+            final String queueUrl = queueUrls.get(subscription.getQueueName());
+            final String queueArn = (queueUrl == null) ? null : queueArns.get(queueUrl);
+            final Map<String, Subscription> subscribed = (topicArn == null) ? null : existing.get(topicArn);
+
+            if ((topicArn == null) || (queueArn == null) || (subscribed == null)) {
+                result.addFailure(operation, new IllegalStateException("SKIPPED, Topic or Queue was not resolved"));
+                continue;
+            }
+
+            tasks.put(operation, () -> {
+                Subscription current = subscribed.get(queueArn);
+                if (current == null) {
+                    String subscriptionArn =
+                        snsClient.subscribeToTopic(topicArn, queueArn, subscription.getFilterPolicy());
+                    result.putSubscriptionArn(subscription, subscriptionArn);
+                    result.addChange("SUBSCRIBED Queue " + subscription.getQueueName() + " to Topic "
+                        + subscription.getTopicName());
+                    if (subscription.isRawDelivery()) {
+                        snsClient.disableEnvelope(subscriptionArn);
+                    }
+                    return null;
+                }
+
+                String subscriptionArn = current.getSubscriptionArn();
+                result.putSubscriptionArn(subscription, subscriptionArn);
+
+                Map<String, String> attributes = snsClient.getSubscriptionAttributes(subscriptionArn);
+                if (SNSClient.isRawDelivery(attributes) != subscription.isRawDelivery()) {
+                    if (subscription.isRawDelivery()) {
+                        snsClient.disableEnvelope(subscriptionArn);
+                    } else {
+                        snsClient.enableEnvelope(subscriptionArn);
+                    }
+                    result.addChange("UPDATED raw delivery of " + subscription);
+                }
+                if (!SNSClient.isSameFilterPolicy(subscription.getFilterPolicy(),
+                    SNSClient.getFilterPolicy(attributes))) {
+                    // no desired policy removes the current one
+                    snsClient.setFilterPolicy(subscriptionArn, subscription.getFilterPolicy());
+                    result.addChange(((subscription.getFilterPolicy() == null) ? "REMOVED" : "UPDATED")
+                        + " filter policy of " + subscription);
+                }
+                return null;
+            });
+        }
+        runAll(executor, tasks, result);
+    }
+
+    /**
+     * Runs the tasks concurrently and waits for all of them, recording each
+     * failure against its description.
+     */
+    private void runAll(final ExecutorService executor, final Map<String, Callable<Void>> tasks,
+                        final ProvisioningResult result) {
+
+        Map<String, Future<Void>> futures = new LinkedHashMap<String, Future<Void>>();
+        for (Map.Entry<String, Callable<Void>> task : tasks.entrySet()) {
+            futures.put(task.getKey(), executor.submit(task.getValue()));
+        }
+
+        for (Map.Entry<String, Future<Void>> future : futures.entrySet()) {
+            try {
+                future.getValue().get();
+            } catch (ExecutionException e) {
+                LOGGER.warn("Provisioning operation FAILED, " + future.getKey(), e.getCause());
+                result.addFailure(future.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.addFailure(future.getKey(), e);
+            }
+        }
+    }
+
+    private <T> List<T> await(final Future<List<T>> future, final String operation) {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to " + operation + ", assuming none exist", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Indexes ARNs/urls by the resource name following the last separator.
+     */
+    private static Map<String, String> indexByName(final List<String> ids, final char separator) {
+
+        Map<String, String> byName = new HashMap<String, String>();
+        for (String id : ids) {
+            byName.put(id.substring(id.lastIndexOf(separator) + 1), id);
+        }
+
+        return byName;
+    }
+
+    /**
+     * @return the longest prefix shared by all names, null if there is none,
+     *         used to narrow the Queue listing
+     */
+    private static String commonPrefix(final Iterable<String> names) {
+
+        String prefix = null;
+        for (String name : names) {
+            prefix = (prefix == null) ? name : Strings.commonPrefix(prefix, name);
+        }
+
+        return Strings.isNullOrEmpty(prefix) ? null : prefix;
+    }
+} // TopologyProvisioner
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p/>
+ * {@link IAsyncS3Client} running the calls of an {@link IS3Client} on an
+ * executor. The AWS SDK only has blocking S3 calls, the executor bounds the
+ * number of threads blocked on S3 for the whole process while callers
+ * compose as many operations as they need. By default the executor is a
+ * shared pool configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.async.threads    size of the shared pool, default 64, read once
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class AsyncS3Client implements IAsyncS3Client {
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.async.threads", 64).get(),
+        new ThreadFactoryBuilder().setNameFormat("s3-async-%d").setDaemon(true).build());
+
+    private final IS3Client client;
+    private final Executor executor;
+
+    /**
+     * Runs the calls on the shared pool
+     *
+     * @param client {@link IS3Client} an {@link S3Client} or a {@link FileS3Client}
+     */
+    public AsyncS3Client(IS3Client client) {
+
+        this(client, POOL);
+    }
+
+    /**
+     * @param client {@link IS3Client} an {@link S3Client} or a {@link FileS3Client}
+     * @param executor {@link Executor} running the blocking calls
+     */
+    public AsyncS3Client(IS3Client client, Executor executor) {
+
+        this.client = client;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String bucketName, String path, long contentLength, InputStream inputStream) {
+
+        return submit(() -> {
+            client.put(bucketName, path, contentLength, inputStream);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String bucketName, String path, ObjectMetadata objectMetadata,
+                                       InputStream inputStream) {
+
+        return submit(() -> {
+            client.put(bucketName, path, objectMetadata, inputStream);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> get(String bucketName, String path) {
+
+        return submit(() -> client.get(bucketName, path));
+    }
+
+    @Override
+    public CompletableFuture<List<S3FileObject>> listFiles(String bucketName, String path, boolean recursive) {
+
+        return submit(() -> client.listFiles(bucketName, path, recursive));
+    }
+
+    @Override
+    public CompletableFuture<S3Object> rename(String bucketName, String sourcePath, String destPath) {
+
+        return submit(() -> client.rename(bucketName, sourcePath, destPath));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String bucketName, String path) {
+
+        return submit(() -> {
+            client.delete(bucketName, path);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<S3DeleteResult> deleteAll(String bucketName, Collection<String> paths) {
+
+        return submit(() -> client.deleteAll(bucketName, paths));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String bucketName, String path) {
+
+        return submit(() -> client.exists(bucketName, path));
+    }
+
+    /**
+     * A blocking call of the wrapped client
+     */
+    private interface Call<T> {
+
+        T call() throws Exception;
+    }
+
+    // the future fails with the exception of the call itself, not a wrapper
+    private <T> CompletableFuture<T> submit(final Call<T> call) {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected by a saturated or shut down executor
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+} // AsyncS3Client
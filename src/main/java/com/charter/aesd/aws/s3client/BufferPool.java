@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Direct buffers shared by the transfers of the S3 clients: the parts of
+ * multipart uploads, the ranges of parallel downloads and the copies
+ * between streams, files and channels. A released buffer is kept for the
+ * next transfer needing the same capacity, so sustained transfers do not
+ * allocate. The direct memory of the pool is bounded; when it is all in
+ * use a transfer gets a heap buffer instead of waiting, and free buffers of
+ * other capacities are dropped to make room for the capacity asked for.
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.bufferPool.maxBytes    direct memory of the pool, default 256 MB
+ * </pre>
+ *
+ * The allocated and in-use bytes are reported with the S3 metrics
+ * operation {@code bufferPool}, see {@link com.charter.aesd.aws.metrics.MetricsSnapshot}.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public final class BufferPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    /**
+     * Capacity of the buffers of stream and channel copies
+     */
+    static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final DynamicLongProperty MAX_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.bufferPool.maxBytes", 256L * 1024 * 1024);
+
+    private static final ConcurrentMap<Integer, Queue<ByteBuffer>> FREE =
+        new ConcurrentHashMap<Integer, Queue<ByteBuffer>>();
+    // direct bytes of the pool, free or in use
+    private static final AtomicLong ALLOCATED = new AtomicLong();
+    private static final AtomicLong IN_USE = new AtomicLong();
+    // the direct buffers handed out, a buffer released twice would be handed to two transfers
+    private static final Set<ByteBuffer> HANDED_OUT =
+        Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>()));
+
+    static {
+        METRICS.get("bufferPool", null).setPool(ALLOCATED::get, IN_USE::get);
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * @return {@code long} bytes of the direct buffers of the pool, free or
+     *         in use
+     */
+    public static long getAllocatedBytes() {
+
+        return ALLOCATED.get();
+    }
+
+    /**
+     * @return {@code long} bytes of the direct buffers handed out and not
+     *         released yet
+     */
+    public static long getInUseBytes() {
+
+        return IN_USE.get();
+    }
+
+    /**
+     * @return {@code long} the value of {@code aws.s3Client.bufferPool.maxBytes}
+     */
+    public static long getMaxBytes() {
+
+        return MAX_BYTES.get();
+    }
+
+    /**
+     * @param capacity {@code int} the capacity needed
+     *
+     * @return {@link ByteBuffer} cleared, direct unless the pool is
+     *         exhausted. Release it once it is no longer used.
+     */
+    static ByteBuffer acquire(final int capacity) {
+
+        Queue<ByteBuffer> free = FREE.get(capacity);
+        if (free == null) {
+            free = FREE.computeIfAbsent(capacity, key -> new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+
+        ByteBuffer buffer = free.poll();
+        if ((buffer == null) && reserve(capacity)) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        if (buffer != null) {
+            HANDED_OUT.add(buffer);
+            IN_USE.addAndGet(capacity);
+            buffer.clear();
+        } else {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Buffer pool exhausted, " + IN_USE.get() + " of " + MAX_BYTES.get()
+                    + " bytes in use, allocating " + capacity + " bytes on the heap");
+            }
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool, the caller must not use it anymore
+     *
+     * @param buffer {@link ByteBuffer} from {@link #acquire(int)}, heap
+     *        buffers are left to the garbage collector. A buffer the pool
+     *        did not hand out, or already got back, is ignored.
+     */
+    static void release(final ByteBuffer buffer) {
+
+        if ((buffer == null) || !buffer.isDirect()) {
+            return;
+        }
+        if (!HANDED_OUT.remove(buffer)) {
+            LOGGER.warn("Ignoring the release of a buffer of " + buffer.capacity() + " bytes not in use");
+            return;
+        }
+
+        IN_USE.addAndGet(-buffer.capacity());
+        buffer.clear();
+        FREE.get(buffer.capacity()).offer(buffer);
+    }
+
+    /**
+     * Copies a stream to a channel through a pooled buffer
+     *
+     * @return {@code long} the number of bytes copied
+     */
+    static long copy(final InputStream in, final WritableByteChannel out) throws IOException {
+
+        return copy(Channels.newChannel(in), out);
+    }
+
+    /**
+     * Copies a channel to another through a pooled buffer
+     *
+     * @return {@code long} the number of bytes copied
+     */
+    static long copy(final ReadableByteChannel in, final WritableByteChannel out) throws IOException {
+
+        final ByteBuffer buffer = acquire(COPY_BUFFER_SIZE);
+        try {
+            long count = 0;
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    count += out.write(buffer);
+                }
+                buffer.clear();
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Fills a buffer from a channel
+     *
+     * @return {@link ByteBuffer} the buffer flipped, fewer bytes than its
+     *         capacity only at the end of the channel
+     */
+    static ByteBuffer fill(final ReadableByteChannel in, final ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining() && (in.read(buffer) >= 0)) {
+            continue;
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * @param content {@link ByteBuffer} the bytes to read, its position is
+     *        not moved
+     *
+     * @return {@link InputStream} of the remaining bytes of the buffer,
+     *         supporting mark/reset so the SDK can resend them
+     */
+    static InputStream inputStream(final ByteBuffer content) {
+
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    private static boolean reserve(final int capacity) {
+
+        while (true) {
+            long allocated = ALLOCATED.get();
+            if (allocated + capacity <= MAX_BYTES.get()) {
+                if (ALLOCATED.compareAndSet(allocated, allocated + capacity)) {
+                    return true;
+                }
+            } else if (!dropFree(capacity)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Drops a free buffer of another capacity, its memory goes back to the
+     * JVM with the next garbage collection
+     */
+    private static boolean dropFree(final int capacity) {
+
+        for (Map.Entry<Integer, Queue<ByteBuffer>> free : FREE.entrySet()) {
+            if ((free.getKey() != capacity) && (free.getValue().poll() != null)) {
+                ALLOCATED.addAndGet(-free.getKey());
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads a buffer without copying it
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer content;
+
+        ByteBufferInputStream(final ByteBuffer content) {
+
+            this.content = content;
+            content.mark();
+        }
+
+        @Override
+        public int read() {
+
+            return content.hasRemaining() ? (content.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+
+            final int read = Math.min(len, content.remaining());
+            content.get(b, off, read);
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+
+            final int skipped = (int) Math.max(0, Math.min(n, content.remaining()));
+            content.position(content.position() + skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+
+            return content.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+
+            content.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+
+            content.reset();
+        }
+    }
+} // BufferPool
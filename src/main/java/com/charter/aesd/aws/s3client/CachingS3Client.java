@@ -0,0 +1,547 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * {@link IS3Client} keeping the files it gets on local disk, so a job run
+ * again does not download the same files again. A cached file is only
+ * served after a conditional GET (If-None-Match with its ETag) confirms it
+ * did not change, S3 answers 304 without a body. A changed file is
+ * downloaded again, a deleted one is dropped from the cache.
+ * <p/>
+ * The files are named after the hash of bucket/key and their ETag, the
+ * cache survives restarts. The least recently used files are removed to stay
+ * within the size budget; a file larger than the whole budget is never
+ * cached. Every other operation goes straight to the wrapped client, writes
+ * drop the cached copy of the files they change. Configured through
+ * Archaius when the client is created:
+ *
+ * <pre>
+ * aws.s3Client.diskCache.directory    default ${java.io.tmpdir}/s3-cache
+ * aws.s3Client.diskCache.maxBytes     default 10 GB
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class CachingS3Client implements IS3Client {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingS3Client.class);
+
+    // <sha1 of bucket/key>.<ETag>
+    private static final Pattern CACHE_FILE = Pattern.compile("^([0-9a-f]{40})\\.([A-Za-z0-9-]+)$");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final S3Client delegate;
+    private final Path directory;
+    private final long maxBytes;
+
+    // access ordered, the first entry is the least recently used, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Caches in the directory and within the budget configured through
+     * Archaius
+     *
+     * @param delegate {@link S3Client} client of the bucket
+     * @throws IOException if the cache directory cannot be created
+     */
+    public CachingS3Client(S3Client delegate) throws IOException {
+
+        this(delegate, new File(DynamicPropertyFactory.getInstance().getStringProperty(
+            "aws.s3Client.diskCache.directory",
+            new File(System.getProperty("java.io.tmpdir"), "s3-cache").getPath()).get()),
+            DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.diskCache.maxBytes",
+                10L * 1024 * 1024 * 1024).get());
+    }
+
+    /**
+     * @param delegate {@link S3Client} client of the bucket
+     * @param directory {@link File} cache directory, the files cached by a
+     *        previous run are used
+     * @param maxBytes <code>long</code> size budget of the cache
+     * @throws IOException if the cache directory cannot be created
+     */
+    public CachingS3Client(S3Client delegate, File directory, long maxBytes) throws IOException {
+
+        this.delegate = delegate;
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(this.directory);
+        load();
+    }
+
+    /**
+     * Gets a file from the cache once S3 confirms it did not change,
+     * otherwise downloads it into the cache first
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link InputStream} reading the cached file
+     */
+    @Override
+    public InputStream get(String bucketName, String path) throws IOException {
+
+        final FileChannel cached = open(bucketName, path);
+        if (cached == null) {
+            return delegate.get(bucketName, path);
+        }
+
+        return Channels.newInputStream(cached);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream get(String bucketName, S3FileObject obj) throws IOException {
+
+        return get(bucketName, obj.getAbsolutePath());
+    }
+
+    /**
+     * Copies the file from the cache once S3 confirms it did not change,
+     * otherwise downloads it into the cache first
+     */
+    @Override
+    public void download(String bucketName, String path, File file) throws IOException {
+
+        final FileChannel cached = open(bucketName, path);
+        if (cached == null) {
+            delegate.download(bucketName, path, file);
+            return;
+        }
+
+        try (FileChannel source = cached;
+             FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(source, target);
+        }
+    }
+
+    /**
+     * Transfers the file from the cache once S3 confirms it did not change,
+     * otherwise downloads it into the cache first
+     */
+    @Override
+    public long transferTo(String bucketName, String path, WritableByteChannel target) throws IOException {
+
+        final FileChannel cached = open(bucketName, path);
+        if (cached == null) {
+            return delegate.transferTo(bucketName, path, target);
+        }
+
+        try (FileChannel source = cached) {
+            return transfer(source, target);
+        }
+    }
+
+    /**
+     * Maps the file from the cache once S3 confirms it did not change,
+     * otherwise downloads it into the cache first. The mapping outlives the
+     * eviction of the file.
+     */
+    @Override
+    public ByteBuffer getByteBuffer(String bucketName, String path) throws IOException {
+
+        final FileChannel cached = open(bucketName, path);
+        if (cached == null) {
+            return delegate.getByteBuffer(bucketName, path);
+        }
+
+        try (FileChannel channel = cached) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Not cached, the stream is read from S3 with ranged GETs
+     */
+    @Override
+    public InputStream getParallel(String bucketName, String path) throws IOException {
+
+        return delegate.getParallel(bucketName, path);
+    }
+
+    /**
+     * Not cached, the caller gets the metadata of the object along
+     */
+    @Override
+    public S3Object getS3Object(String bucketName, String path) throws IOException {
+
+        return delegate.getS3Object(bucketName, path);
+    }
+
+    @Override
+    public void put(String bucketName, String path, long contentLength, InputStream inputStream) throws IOException {
+
+        try {
+            delegate.put(bucketName, path, contentLength, inputStream);
+        } finally {
+            evict(bucketName, path);
+        }
+    }
+
+    @Override
+    public void put(String bucketName, String path, ObjectMetadata objectMetadata, InputStream inputStream)
+        throws IOException {
+
+        try {
+            delegate.put(bucketName, path, objectMetadata, inputStream);
+        } finally {
+            evict(bucketName, path);
+        }
+    }
+
+    @Override
+    public void putUncompressed(String bucketName, String path, long contentLength, InputStream inputStream) {
+
+        try {
+            delegate.putUncompressed(bucketName, path, contentLength, inputStream);
+        } finally {
+            evict(bucketName, path);
+        }
+    }
+
+    @Override
+    public List<String> listFilesPath(String bucketName, String prefix, String delimiter) throws IOException {
+
+        return delegate.listFilesPath(bucketName, prefix, delimiter);
+    }
+
+    @Override
+    public List<S3FileObject> listFiles(String bucketName, String path, boolean recursive) throws IOException {
+
+        return delegate.listFiles(bucketName, path, recursive);
+    }
+
+    @Override
+    public Stream<S3FileObject> streamFiles(String bucketName, String path, boolean recursive) throws IOException {
+
+        return delegate.streamFiles(bucketName, path, recursive);
+    }
+
+    @Override
+    public S3Object rename(String bucketName, String sourcePath, String destPath) throws IOException {
+
+        try {
+            return delegate.rename(bucketName, sourcePath, destPath);
+        } finally {
+            evict(bucketName, sourcePath);
+            evict(bucketName, destPath);
+        }
+    }
+
+    @Override
+    public void delete(String bucketName, String path) throws IOException {
+
+        try {
+            delegate.delete(bucketName, path);
+        } finally {
+            evict(bucketName, path);
+        }
+    }
+
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Collection<String> paths) throws IOException {
+
+        try {
+            return delegate.deleteAll(bucketName, paths);
+        } finally {
+            for (String path : paths) {
+                evict(bucketName, path);
+            }
+        }
+    }
+
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Stream<String> paths) throws IOException {
+
+        return delegate.deleteAll(bucketName, paths.peek(path -> evict(bucketName, path)));
+    }
+
+    /**
+     * The cached files under the prefix are not known by name, they are
+     * dropped by the next get, which finds them missing
+     */
+    @Override
+    public S3DeleteResult deletePrefix(String bucketName, String prefix) throws IOException {
+
+        return delegate.deletePrefix(bucketName, prefix);
+    }
+
+    @Override
+    public void mkdir(String bucketName, String path) {
+
+        delegate.mkdir(bucketName, path);
+    }
+
+    @Override
+    public boolean exists(String bucketName, String path) {
+
+        return delegate.exists(bucketName, path);
+    }
+
+    /**
+     * Returns the number of bytes in the cache
+     *
+     * @return <code>long</code>
+     */
+    public long getCachedBytes() {
+
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @return {@link FileChannel} reading the up to date cached file, null
+     *         if the file is larger than the cache
+     */
+    private FileChannel open(final String bucketName, final String path) throws IOException {
+
+        while (true) {
+            final Path cached = fetch(bucketName, path);
+            if (cached == null) {
+                return null;
+            }
+
+            try {
+                return FileChannel.open(cached, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // evicted by another get in the meantime, open files are not affected
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Fetching " + bucketName + "/" + path + " again, " + cached + " was evicted");
+                }
+            }
+        }
+    }
+
+    /**
+     * The file is got through the wrapped client, which verifies,
+     * decompresses and meters it as its own gets
+     *
+     * @return {@link Path} of the up to date cached file, null if the file
+     *         is larger than the cache
+     */
+    private Path fetch(final String bucketName, final String path) throws IOException {
+
+        final String hash = hash(bucketName, path);
+        final Entry cached;
+        synchronized (entries) {
+            cached = entries.get(hash);
+        }
+
+        final S3Object object;
+        try {
+            object = delegate.getIfNoneMatch(bucketName, path, (cached == null) ? null : cached.eTag);
+        } catch (AmazonS3Exception e) {
+            if ((cached != null) && (e.getStatusCode() == 404)) {
+                evict(hash);
+            }
+            throw e;
+        }
+
+        if (object == null) {
+            // 304, the cached file is current
+            if (Files.exists(cached.file)) {
+                cached.file.toFile().setLastModified(System.currentTimeMillis());
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Serving " + bucketName + "/" + path + " from " + cached.file);
+                }
+                return cached.file;
+            }
+
+            // removed from the disk behind our back
+            evict(hash);
+            return fetch(bucketName, path);
+        }
+
+        try (S3ObjectInputStream content = object.getObjectContent()) {
+            // the file is cached decompressed
+            final long size = Compression.uncompressedLength(object.getObjectMetadata());
+            if (size > maxBytes) {
+                content.abort();
+                return null;
+            }
+
+            final String eTag = object.getObjectMetadata().getETag();
+            final Path file = directory.resolve(hash + "." + eTag.replaceAll("[^A-Za-z0-9-]", ""));
+            final Path temp = directory.resolve(hash + "." + UUID.randomUUID() + TEMP_SUFFIX);
+            try {
+                // cached decompressed, hits are served as they are
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                    BufferPool.copy(content, out);
+                }
+                if ((size < 0) && (Files.size(temp) > maxBytes)) {
+                    // compressed without its length, only known once written
+                    return null;
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            add(hash, new Entry(file, eTag, Files.size(file)));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cached " + bucketName + "/" + path + " in " + file);
+            }
+
+            return file;
+        }
+    }
+
+    private static long transfer(final FileChannel source, final WritableByteChannel target) throws IOException {
+
+        final long size = source.size();
+        long position = 0;
+        while (position < size) {
+            position += source.transferTo(position, size - position, target);
+        }
+        return position;
+    }
+
+    private void add(final String hash, final Entry entry) throws IOException {
+
+        final Entry previous;
+        final List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (entries) {
+            previous = entries.put(hash, entry);
+            totalBytes += entry.size;
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((totalBytes > maxBytes) && eldest.hasNext()) {
+                Entry candidate = eldest.next();
+                if (candidate == entry) {
+                    continue;
+                }
+                eldest.remove();
+                totalBytes -= candidate.size;
+                evicted.add(candidate);
+            }
+        }
+
+        if ((previous != null) && !previous.file.equals(entry.file)) {
+            Files.deleteIfExists(previous.file);
+        }
+        for (Entry candidate : evicted) {
+            Files.deleteIfExists(candidate.file);
+        }
+    }
+
+    private void evict(final String bucketName, final String path) {
+
+        evict(hash(bucketName, path));
+    }
+
+    private void evict(final String hash) {
+
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(hash);
+            if (entry != null) {
+                totalBytes -= entry.size;
+            }
+        }
+
+        if (entry != null) {
+            try {
+                Files.deleteIfExists(entry.file);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the cached file " + entry.file, e);
+            }
+        }
+    }
+
+    /**
+     * Indexes the files left by a previous run, the least recently used
+     * first, and removes the downloads it did not finish
+     */
+    private void load() throws IOException {
+
+        final File[] files = directory.toFile().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            Matcher matcher = CACHE_FILE.matcher(file.getName());
+            if (matcher.matches()) {
+                add(matcher.group(1), new Entry(file.toPath(), matcher.group(2), file.length()));
+            } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Loaded " + entries.size() + " cached files, " + totalBytes + " bytes, from " + directory);
+        }
+    }
+
+    private static String hash(final String bucketName, final String path) {
+
+        return Hashing.sha1().hashString(bucketName + "/" + path, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * A cached file and the ETag of its content
+     */
+    private static class Entry {
+
+        private final Path file;
+        private final String eTag;
+        private final long size;
+
+        Entry(final Path file, final String eTag, final long size) {
+
+            this.file = file;
+            this.eTag = eTag;
+            this.size = size;
+        }
+    }
+} // CachingS3Client
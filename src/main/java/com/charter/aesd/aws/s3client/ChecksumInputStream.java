@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+/**
+ * <p/>
+ * Computes the MD5 of a stream as it is read. When the expected length or
+ * digest are known the stream checks them itself: more bytes than expected
+ * fail the read that brings them, a short stream or another digest fail the
+ * read that reaches the end. Skipped bytes are read and digested too, there
+ * is no mark/reset.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class ChecksumInputStream extends FilterInputStream {
+
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    private static final Pattern MD5_ETAG = Pattern.compile("\"?[0-9a-fA-F]{32}\"?");
+
+    private final String description;
+    private final String expectedMd5;
+    private final long expectedLength;
+    private final Hasher hasher = Hashing.md5().newHasher();
+    private long count;
+    private String md5;
+    private IOException failure;
+
+    /**
+     * @param in {@link InputStream} the content
+     * @param description {@code String} what is read, for the errors
+     * @param expectedMd5 {@code String} hex MD5 of the content, null if it
+     *        is not known
+     * @param expectedLength {@code long} length of the content, -1 if it is
+     *        not known
+     */
+    ChecksumInputStream(final InputStream in, final String description, final String expectedMd5,
+                        final long expectedLength) {
+
+        super(in);
+        this.description = description;
+        this.expectedMd5 = expectedMd5;
+        this.expectedLength = expectedLength;
+    }
+
+    /**
+     * Ends the digest, nothing should be read afterwards
+     *
+     * @return {@code String} hex MD5 of the bytes read
+     */
+    String getMd5() {
+
+        if (md5 == null) {
+            md5 = hasher.hash().toString();
+        }
+
+        return md5;
+    }
+
+    /**
+     * @param eTag {@code String} an ETag, quoted or not
+     *
+     * @return {@code boolean} true if the ETag is the MD5 of the content,
+     *         not the one of an object uploaded in parts or encrypted with
+     *         a KMS or customer key
+     */
+    static boolean isMd5(final String eTag, final String sseAlgorithm, final String sseCustomerAlgorithm) {
+
+        return (eTag != null) && MD5_ETAG.matcher(eTag).matches()
+            && !SSEAlgorithm.KMS.getAlgorithm().equals(sseAlgorithm) && (sseCustomerAlgorithm == null);
+    }
+
+    /**
+     * @return {@code String} the ETag without the quotes S3 may put around it
+     */
+    static String unquote(final String eTag) {
+
+        return (eTag == null) ? null : eTag.replace("\"", "");
+    }
+
+    /**
+     * @return {@code long} bytes read so far
+     */
+    long getCount() {
+
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        final int b = in.read();
+        if (b < 0) {
+            end();
+        } else {
+            hasher.putByte((byte) b);
+            counted(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        final int read = in.read(b, off, len);
+        if (read < 0) {
+            end();
+        } else {
+            hasher.putBytes(b, off, read);
+            counted(read);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+
+        final byte[] buffer = new byte[(int) Math.min(n, SKIP_BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void counted(final int read) throws IOException {
+
+        count += read;
+        if ((expectedLength >= 0) && (count > expectedLength)) {
+            throw new IOException("Checksum mismatch for " + description + ": more than the expected "
+                + expectedLength + " bytes");
+        }
+    }
+
+    private void end() throws IOException {
+
+        if (md5 == null) {
+            getMd5();
+            if ((expectedLength >= 0) && (count != expectedLength)) {
+                failure = new IOException("Checksum mismatch for " + description + ": " + count
+                    + " bytes instead of " + expectedLength);
+            } else if ((expectedMd5 != null) && !unquote(expectedMd5).equalsIgnoreCase(md5)) {
+                failure = new IOException("Checksum mismatch for " + description + ": MD5 " + md5 + " instead of "
+                    + unquote(expectedMd5));
+            }
+        }
+
+        if (failure != null) {
+            // every read at the end fails, not only the first one
+            throw failure;
+        }
+    }
+} // ChecksumInputStream
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Codecs of the transparent compression of {@link S3Client} and
+ * {@link FileS3Client}. A compressed object is recorded with the codec as
+ * its HTTP Content-Encoding, "gzip" or "deflate" (zlib), which other HTTP
+ * clients decode as well, and with the {@link #CODEC} user metadata. Only
+ * objects carrying that metadata are decompressed on read, an object some
+ * other writer stored with a Content-Encoding is returned as it is. Both
+ * directions are streams, the content is never held in memory.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+enum Compression {
+
+    NONE(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Compression.class);
+
+    /**
+     * User metadata holding the size of the content before compression
+     */
+    static final String UNCOMPRESSED_LENGTH = "uncompressed-length";
+
+    /**
+     * User metadata holding the codec an object was compressed with by
+     * {@link S3Client}
+     */
+    static final String CODEC = "compression-codec";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String contentEncoding;
+
+    Compression(final String contentEncoding) {
+
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return {@code String} the Content-Encoding of the codec, null for
+     *         {@link #NONE}
+     */
+    String getContentEncoding() {
+
+        return contentEncoding;
+    }
+
+    /**
+     * @param name {@code String} "none", "gzip" or "deflate", in any case
+     *
+     * @return {@link Compression} the codec, {@link #NONE} for an unknown name
+     */
+    static Compression forName(final String name) {
+
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+
+        LOGGER.warn("Unknown compression codec " + name + ", not compressing");
+        return NONE;
+    }
+
+    /**
+     * @param contentEncoding {@code String} Content-Encoding of an object,
+     *        may be null
+     *
+     * @return {@link Compression} the codec to decode the object with,
+     *         {@link #NONE} for any other encoding
+     */
+    static Compression forContentEncoding(final String contentEncoding) {
+
+        for (Compression compression : values()) {
+            if ((compression.contentEncoding != null) && compression.contentEncoding.equalsIgnoreCase(contentEncoding)) {
+                return compression;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * @param metadata {@link ObjectMetadata} of an S3 object
+     *
+     * @return {@link Compression} the codec to decode the object with,
+     *         {@link #NONE} unless {@link S3Client} compressed it
+     */
+    static Compression forObject(final ObjectMetadata metadata) {
+
+        if ((metadata.getUserMetaDataOf(CODEC) == null) && (metadata.getUserMetaDataOf(UNCOMPRESSED_LENGTH) == null)) {
+            return NONE;
+        }
+
+        return forContentEncoding(metadata.getContentEncoding());
+    }
+
+    /**
+     * @param metadata {@link ObjectMetadata} of an S3 object
+     *
+     * @return {@code long} the length of the object once decoded, -1 if it
+     *         was compressed without knowing it
+     */
+    static long uncompressedLength(final ObjectMetadata metadata) {
+
+        if (forObject(metadata) == NONE) {
+            return metadata.getContentLength();
+        }
+
+        final String length = metadata.getUserMetaDataOf(UNCOMPRESSED_LENGTH);
+        return (length == null) ? -1 : Long.parseLong(length);
+    }
+
+    /**
+     * @param in {@link InputStream} the content
+     * @param level {@code int} 1 (fastest) to 9 (smallest)
+     *
+     * @return {@link InputStream} the compressed content, compressed as it
+     *         is read. Closing it closes {@code in}.
+     */
+    InputStream compress(final InputStream in, final int level) {
+
+        return (this == NONE) ? in : new CompressingInputStream(in, this, Math.max(1, Math.min(9, level)));
+    }
+
+    /**
+     * @param in {@link InputStream} content compressed with this codec
+     *
+     * @return {@link InputStream} the content, decompressed as it is read.
+     *         Nothing is read before the first read, a GZIP header included.
+     */
+    InputStream decompress(final InputStream in) {
+
+        switch (this) {
+        case GZIP:
+            return new GZIPDecompressingInputStream(in);
+        case DEFLATE:
+            return new InflaterInputStream(in) {
+                {
+                    buf = new byte[BUFFER_SIZE];
+                }
+            };
+        default:
+            return in;
+        }
+    }
+
+    /**
+     * Reads the GZIP header on the first read rather than when it is created
+     */
+    private static class GZIPDecompressingInputStream extends InputStream {
+
+        private final InputStream source;
+        private InputStream gzip;
+
+        GZIPDecompressingInputStream(final InputStream source) {
+
+            this.source = source;
+        }
+
+        private InputStream gzip() throws IOException {
+
+            if (gzip == null) {
+                gzip = new GZIPInputStream(source, BUFFER_SIZE);
+            }
+
+            return gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            return gzip().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            return gzip().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+
+            return (gzip == null) ? 0 : gzip.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (gzip != null) {
+                gzip.close();
+            } else {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Feeds the source to a compressing output stream and serves what it
+     * writes, one source buffer at a time
+     */
+    private static class CompressingInputStream extends InputStream {
+
+        private final InputStream source;
+        private final Buffer compressed = new Buffer();
+        private final OutputStream compressor;
+        private final byte[] chunk = new byte[BUFFER_SIZE];
+        private int position;
+        private boolean finished;
+
+        CompressingInputStream(final InputStream source, final Compression compression, final int level) {
+
+            this.source = source;
+            try {
+                // the default deflaters, ended when the streams are closed
+                this.compressor = (compression == GZIP) ? new GZIPOutputStream(compressed, BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                } : new DeflaterOutputStream(compressed) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            } catch (IOException e) {
+                // the GZIP header only goes to memory
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            while ((position == compressed.size()) && !finished) {
+                fill();
+            }
+            if (position == compressed.size()) {
+                return -1;
+            }
+
+            final int read = Math.min(len, compressed.size() - position);
+            System.arraycopy(compressed.bytes(), position, b, off, read);
+            position += read;
+
+            return read;
+        }
+
+        @Override
+        public int available() {
+
+            return compressed.size() - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            try {
+                source.close();
+            } finally {
+                if (!finished) {
+                    finished = true;
+                    compressor.close();
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+
+            compressed.reset();
+            position = 0;
+
+            final int read = source.read(chunk);
+            if (read < 0) {
+                finished = true;
+                compressor.close();
+            } else {
+                compressor.write(chunk, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Exposes the array of the stream to avoid a copy per read
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+
+            super(BUFFER_SIZE);
+        }
+
+        byte[] bytes() {
+
+            return buf;
+        }
+    }
+} // Compression
@@ -2,26 +2,79 @@ package com.charter.aesd.aws.s3client;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
 import com.charter.aesd.aws.s3client.object.S3FileObject;
-import com.google.common.collect.Lists;
-import com.google.common.io.Files;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
 import com.netflix.config.DynamicPropertyFactory;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import com.netflix.config.DynamicStringProperty;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class FileS3Client implements IS3Client {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileS3Client.class);
+
     public static String BUCKET_NAME_AS_PATH = "aws.lib.bucketNameAsPath";
 
+    /**
+     * Digest the content of puts and gets as it streams: a put checks the
+     * Content-MD5 of its metadata and records the ETag of the new file, a
+     * get checks the length and, when it is known, the ETag of the file.
+     * The same switch as {@link S3Client}.
+     */
+    private static final DynamicBooleanProperty VERIFY_CHECKSUMS =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.s3Client.verifyChecksums", false);
+
+    /**
+     * Codec of the files written, "none", "gzip" or "deflate", see
+     * {@link Compression}. The codec is kept in the user extended attribute
+     * {@code content-encoding} of the file, files are not compressed on file
+     * systems without user attributes.
+     */
+    private static final DynamicStringProperty COMPRESSION_CODEC =
+        DynamicPropertyFactory.getInstance().getStringProperty("aws.lib.compression.codec", "none");
+    private static final DynamicIntProperty COMPRESSION_LEVEL =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.lib.compression.level", 6);
+
+    private static final String ENCODING_ATTRIBUTE = "content-encoding";
+
     /**
      * BucketName is not analogise to a file system, so you can optionally use the BucketName as the base directly
      * for file operations by setting the 'aws.lib.bucketNameAsPath' property to true.
@@ -45,32 +98,214 @@ public class FileS3Client implements IS3Client {
     @Override
     public void put(String bucketName, String path, long contentLength, InputStream inputStream) throws IOException {
 
+        put(bucketName, path, inputStream, null, true);
+    }
+
+    @Override
+    public void putUncompressed(String bucketName, String path, long contentLength, InputStream inputStream)
+        throws IOException {
+
+        put(bucketName, path, inputStream, null, false);
+    }
+
+    /**
+     * @param contentMd5 {@code String} base64 MD5 the content must have,
+     *        null if not known
+     * @param compress {@code boolean} false if the content is already encoded
+     */
+    private void put(String bucketName, String path, InputStream inputStream, String contentMd5, boolean compress)
+        throws IOException {
+
         final File file = new File(directory(bucketName), path);
 
     	if(!file.exists()){
-			Files.createParentDirs(file);
+			Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
 		}
-    	
-    	Files.write(IOUtils.toByteArray(inputStream), file);
+
+        // streamed next to the target then moved over it, readers see the old or the new file, never a partial one
+        final File temp = new File(file.getAbsoluteFile().getParentFile(),
+            "." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            final ChecksumInputStream received = VERIFY_CHECKSUMS.get() ? new ChecksumInputStream(inputStream,
+                file.getPath(), (contentMd5 == null) ? null
+                    : HashCode.fromBytes(BaseEncoding.base64().decode(contentMd5)).toString(), -1) : null;
+            InputStream content = (received != null) ? received : inputStream;
+            ChecksumInputStream checksum = received;
+
+            Files.createFile(temp.toPath());
+            final Compression compression = compress ? encode(temp) : Compression.NONE;
+            if (compression != Compression.NONE) {
+                content = compression.compress(content, COMPRESSION_LEVEL.get());
+                // the ETag is the one of the bytes on the disk
+                checksum = (received != null) ? new ChecksumInputStream(content, file.getPath(), null, -1) : null;
+                content = (checksum != null) ? checksum : content;
+            }
+
+            // a mismatch fails the copy at the end of the stream, the temp file is dropped
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                BufferPool.copy(content, out);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (checksum != null) {
+                // the ETag of the file is known without reading it again
+                S3FileObject.setCachedETag(file, checksum.getMd5());
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
     }
 
     @Override
     public void put(String bucketName, String path, ObjectMetadata objectMetadata, InputStream inputStream)
         throws IOException {
 
-        put(bucketName, path, 0, inputStream);
+        put(bucketName, path, inputStream, objectMetadata.getContentMD5(), objectMetadata.getContentEncoding() == null);
+    }
+
+    /**
+     * Records the configured codec on a new file
+     *
+     * @return {@link Compression} the codec to write the file with, none if
+     *         the file system has no user attributes
+     */
+    private static Compression encode(File file) {
+
+        final Compression compression = Compression.forName(COMPRESSION_CODEC.get());
+        if (compression == Compression.NONE) {
+            return compression;
+        }
+
+        final UserDefinedFileAttributeView view =
+            Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+        try {
+            if (view != null) {
+                view.write(ENCODING_ATTRIBUTE, Charsets.UTF_8.encode(compression.getContentEncoding()));
+                return compression;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("No user attributes for " + file + ", not compressing: " + e);
+            }
+        }
+
+        return Compression.NONE;
+    }
+
+    /**
+     * @return {@link Compression} the codec the file was written with
+     */
+    private static Compression encoding(File file) {
+
+        final UserDefinedFileAttributeView view =
+            Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return Compression.NONE;
+        }
+
+        try {
+            if (!view.list().contains(ENCODING_ATTRIBUTE)) {
+                return Compression.NONE;
+            }
+            final ByteBuffer value = ByteBuffer.allocate(view.size(ENCODING_ATTRIBUTE));
+            view.read(ENCODING_ATTRIBUTE, value);
+            value.flip();
+            return Compression.forContentEncoding(Charsets.UTF_8.decode(value).toString());
+        } catch (IOException | UnsupportedOperationException e) {
+            // no attributes, or no file which the read reports
+            return Compression.NONE;
+        }
     }
 
     @Override
     public InputStream get(String bucketName, S3FileObject obj) throws IOException {
 
-        return new FileInputStream(new File(obj.getAbsolutePath()));
+        return open(new File(obj.getAbsolutePath()));
     }
 
     @Override
     public InputStream get(String bucketName, String path) throws IOException {
 
-        return new FileInputStream(new File(directory(bucketName), path));
+        return open(new File(directory(bucketName), path));
+    }
+
+    private static InputStream open(File file) throws IOException {
+
+        InputStream in = new FileInputStream(file);
+        if (VERIFY_CHECKSUMS.get()) {
+            in = new ChecksumInputStream(in, file.getPath(), S3FileObject.getCachedETag(file), file.length());
+        }
+
+        return encoding(file).decompress(in);
+    }
+
+    @Override
+    public InputStream getParallel(String bucketName, String path) throws IOException {
+
+        return get(bucketName, path);
+    }
+
+    @Override
+    public void download(String bucketName, String path, File file) throws IOException {
+
+        final File source = new File(directory(bucketName), path);
+        if (encoding(source) != Compression.NONE) {
+            try (InputStream in = open(source)) {
+                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+
+        Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Hands the file to the channel with {@link FileChannel#transferTo}, the
+     * kernel copies it straight to sockets and files. Compressed files are
+     * copied through the decompressing stream.
+     */
+    @Override
+    public long transferTo(String bucketName, String path, WritableByteChannel target) throws IOException {
+
+        final File file = new File(directory(bucketName), path);
+        if (encoding(file) != Compression.NONE) {
+            try (ReadableByteChannel source = Channels.newChannel(open(file))) {
+                return BufferPool.copy(source, target);
+            }
+        }
+
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = source.size();
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Maps the file read-only, the pages are shared with every other reader
+     * of the file. Compressed files are decompressed into a heap buffer.
+     */
+    @Override
+    public ByteBuffer getByteBuffer(String bucketName, String path) throws IOException {
+
+        final File file = new File(directory(bucketName), path);
+        if (encoding(file) != Compression.NONE) {
+            try (InputStream in = open(file)) {
+                return ByteBuffer.wrap(ByteStreams.toByteArray(in)).asReadOnlyBuffer();
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
     }
 
     @Override
@@ -87,6 +322,12 @@ public class FileS3Client implements IS3Client {
     @Override
     public List<S3FileObject> listFiles(String bucketName, String path, boolean recursive) throws IOException {
 
+        if (recursive) {
+            try (Stream<S3FileObject> files = streamFiles(bucketName, path, true)) {
+                return files.collect(Collectors.toList());
+            }
+        }
+
         final List<S3FileObject> s3FileObjects = new ArrayList<>();
 
         final File folder = new File(directory(bucketName), path);
@@ -99,21 +340,44 @@ public class FileS3Client implements IS3Client {
         return s3FileObjects;
     }
     
+    /**
+     * A recursive listing returns the regular files of the whole tree, like
+     * the keys of S3, walking the subdirectories in parallel, see
+     * {@link FileTreeWalker}. Close the stream if it is not consumed to the end.
+     */
+    @Override
+    public Stream<S3FileObject> streamFiles(String bucketName, String path, boolean recursive) throws IOException {
+
+        if (!recursive) {
+            return listFiles(bucketName, path, false).stream();
+        }
+
+        final File folder = new File(directory(bucketName), path);
+        if (!folder.isDirectory()) {
+            return Stream.empty();
+        }
+
+        return FileTreeWalker.walk(folder.toPath()).map(file -> {
+            try {
+                return S3FileObject.fromFile(file.toFile(), bucketName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     @Override
 	public List<String> listFilesPath(String bucketName, String prefix, String delimiter) throws IOException {
 
     	final File folder = new File(directory(bucketName), prefix);
     	if(folder.exists()) {
-            final List<String> filesPath = Lists.newArrayList();
-            final Collection<File> paths = FileUtils.listFiles(folder, null, true);
-
-            paths.forEach(file -> {
-                String path = file.getAbsolutePath().replaceAll("\\\\", "/");
-                if (path.endsWith(delimiter.replaceAll("\\\\", "/"))) {
-                    filesPath.add(S3FileObject.getPath(file, bucketName));
-                }
-            });
-            return filesPath;
+            final String suffix = delimiter.replaceAll("\\\\", "/");
+            try (Stream<Path> paths = FileTreeWalker.walk(folder.toPath())) {
+                return paths.map(Path::toFile)
+                    .filter(file -> file.getAbsolutePath().replaceAll("\\\\", "/").endsWith(suffix))
+                    .map(file -> S3FileObject.getPath(file, bucketName))
+                    .collect(Collectors.toList());
+            }
         }
 
         return Collections.emptyList();
@@ -133,6 +397,76 @@ public class FileS3Client implements IS3Client {
         (new File(directory(bucketName), path)).delete();
     }
 
+    /**
+     * Deletes the files in parallel, a missing file counts as deleted as in S3
+     */
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Collection<String> paths) throws IOException {
+        return deleteAll(bucketName, paths.stream());
+    }
+
+    /**
+     * Deletes the files in parallel, a missing file counts as deleted as in S3
+     */
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Stream<String> paths) throws IOException {
+        final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+        final AtomicLong deleted = new AtomicLong();
+
+        paths.parallel().forEach(path -> {
+            File file = new File(directory(bucketName), path);
+            if (file.delete() || !file.exists()) {
+                deleted.incrementAndGet();
+            } else {
+                failures.put(path, "Could not delete " + file.getPath());
+            }
+        });
+
+        return new S3DeleteResult(deleted.get(), failures);
+    }
+
+    /**
+     * Deletes the files under the prefix in parallel, then the directories
+     * left empty, deepest first
+     */
+    @Override
+    public S3DeleteResult deletePrefix(String bucketName, String prefix) throws IOException {
+
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(prefix),
+            "prefix cannot be empty, use deleteAll for every file");
+        // the "directory" holding the prefix, resolved as directory() resolves every path so absolute prefixes work
+        final String startKey = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+        final Path start = new File(directory(bucketName), startKey).toPath();
+        if (!Files.isDirectory(start)) {
+            return new S3DeleteResult(0, Collections.emptyMap());
+        }
+
+        final List<String> files;
+        final List<Path> directories;
+        try (Stream<Path> walk = Files.walk(start)) {
+            // directories are matched as S3 directory keys, with a trailing "/"
+            Map<Boolean, List<Path>> entries = walk
+                .filter(entry -> key(startKey, start, entry).startsWith(prefix))
+                .collect(Collectors.partitioningBy(Files::isDirectory));
+            files = entries.get(false).stream().map(entry -> key(startKey, start, entry)).collect(Collectors.toList());
+            directories = entries.get(true);
+        }
+
+        final S3DeleteResult result = deleteAll(bucketName, files);
+        directories.sort(Comparator.reverseOrder());
+        directories.forEach(directory -> directory.toFile().delete());
+
+        return result;
+    }
+
+    private static String key(String startKey, Path start, Path entry) {
+        final String relative = start.relativize(entry).toString().replace('\\', '/');
+        if (relative.isEmpty()) {
+            return startKey;
+        }
+        return Files.isDirectory(entry) ? startKey + relative + "/" : startKey + relative;
+    }
+
     @Override
     public void mkdir(String bucketName, String path) {
         (new File(directory(bucketName), path)).mkdirs();
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p/>
+ * Lists the regular files of a local tree, the subdirectories are walked in
+ * parallel on a fork-join pool of the walk. The files are handed over through a bounded
+ * queue as they are found, a walk only holds {@code queueSize} files
+ * whatever the size of the tree. Symbolic links to files are listed, links
+ * to directories are not followed.
+ * <p/>
+ * Every walk has its own pool, a consumer that stops reading only holds up
+ * its own walk. A walking thread waiting for room in the queue gives up once
+ * the stream is closed, or once the consumer dropped the stream without
+ * closing it and it was garbage collected; the pool is shut down when the
+ * walk ends. Configured through Archaius:
+ *
+ * <pre>
+ * aws.lib.fileWalk.queueSize    files found ahead of the consumer, default 10000
+ * aws.lib.fileWalk.threads      threads per walk, default the number of processors
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class FileTreeWalker {
+
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final DynamicIntProperty THREADS = DynamicPropertyFactory.getInstance().getIntProperty(
+        "aws.lib.fileWalk.threads", Runtime.getRuntime().availableProcessors());
+
+    private FileTreeWalker() {
+    }
+
+    /**
+     * @param root {@link Path} directory to walk
+     *
+     * @return {@link Stream} of the regular files under {@code root}, in no
+     *         particular order. Close it if it is not consumed to the end.
+     *         A directory that cannot be read fails the stream with an
+     *         {@link UncheckedIOException}.
+     */
+    static Stream<Path> walk(final Path root) {
+
+        final Handoff handoff = new Handoff(DynamicPropertyFactory.getInstance().getIntProperty(
+            "aws.lib.fileWalk.queueSize", 10000).get());
+        final Walk walk = new Walk(handoff);
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, THREADS.get()), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("file-walk-" + THREAD_COUNT.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        pool.execute(() -> {
+            try {
+                pool.invoke(new DirectoryTask(handoff, root));
+                handoff.offer(END);
+            } catch (RuntimeException e) {
+                handoff.offer(e);
+            } finally {
+                pool.shutdown();
+            }
+        });
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walk,
+            Spliterator.NONNULL | Spliterator.DISTINCT), false).onClose(handoff::cancel);
+    }
+
+    /**
+     * The queue between the walking threads and the consumer. It only
+     * holds the consumer weakly, so a stream dropped without being closed
+     * does not keep the walk going.
+     */
+    private static class Handoff {
+
+        private final BlockingQueue<Object> queue;
+        private volatile boolean cancelled;
+        private volatile WeakReference<Walk> consumer;
+
+        Handoff(final int queueSize) {
+
+            queue = new ArrayBlockingQueue<Object>(Math.max(1, queueSize));
+        }
+
+        /**
+         * @return {@code boolean} false once the consumer closed or dropped
+         *         the stream
+         */
+        boolean offer(final Object item) {
+
+            try {
+                while (!isCancelled()) {
+                    if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return false;
+        }
+
+        boolean isCancelled() {
+
+            return cancelled || (consumer.get() == null);
+        }
+
+        void cancel() {
+
+            cancelled = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * The consumer of a walk
+     */
+    private static class Walk implements Iterator<Path> {
+
+        private final Handoff handoff;
+        private Object next;
+
+        Walk(final Handoff handoff) {
+
+            this.handoff = handoff;
+            handoff.consumer = new WeakReference<Walk>(this);
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            if (next == null) {
+                try {
+                    next = handoff.queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("File walk interrupted", e);
+                }
+            }
+
+            if (next instanceof RuntimeException) {
+                handoff.cancel();
+                throw (RuntimeException) next;
+            }
+
+            return next != END;
+        }
+
+        @Override
+        public Path next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Path path = (Path) next;
+            next = null;
+
+            return path;
+        }
+    }
+
+    /**
+     * Lists one directory, forks its subdirectories
+     */
+    private static class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Handoff handoff;
+        private final Path directory;
+
+        DirectoryTask(final Handoff handoff, final Path directory) {
+
+            this.handoff = handoff;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+
+            final List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (handoff.isCancelled()) {
+                        return;
+                    }
+
+                    BasicFileAttributes attributes =
+                        Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new DirectoryTask(handoff, entry));
+                    } else if (attributes.isRegularFile()
+                        || (attributes.isSymbolicLink() && Files.isRegularFile(entry))) {
+                        handoff.offer(entry);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            invokeAll(subdirectories);
+        }
+    }
+} // FileTreeWalker
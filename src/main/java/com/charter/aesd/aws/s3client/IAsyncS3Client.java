@@ -0,0 +1,97 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking companion of {@link IS3Client}, every operation returns at
+ * once and completes its future when done. A failed operation completes its
+ * future exceptionally with the exception the blocking call throws.
+ */
+public interface IAsyncS3Client {
+
+    /**
+     * Puts a file into S3
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path {@code String} path to put the file
+     * @param contentLength <code>long</code> Byte size of the file
+     * @param inputStream {@link InputStream} to upload
+     * @return {@link CompletableFuture} completed once the file is stored
+     */
+    CompletableFuture<Void> put(String bucketName, String path, long contentLength, InputStream inputStream);
+
+    /**
+     * Puts a file into S3 with the provided metadata
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path {@code String} path to put the file
+     * @param objectMetadata is the metadata the s3 will keep for the provided file
+     * @param inputStream {@link InputStream} to upload
+     * @return {@link CompletableFuture} completed once the file is stored
+     */
+    CompletableFuture<Void> put(String bucketName, String path, ObjectMetadata objectMetadata,
+                                InputStream inputStream);
+
+    /**
+     * Gets a file from S3
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link CompletableFuture} of the {@link InputStream} to read the file
+     */
+    CompletableFuture<InputStream> get(String bucketName, String path);
+
+    /**
+     * Lists files contained within a bucket
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path Path prefix to search for files
+     * @return {@link CompletableFuture} of the {@link S3FileObject}'s
+     */
+    CompletableFuture<List<S3FileObject>> listFiles(String bucketName, String path, boolean recursive);
+
+    /**
+     * Renames a file, it is copied then the original deleted
+     *
+     * @param bucketName name of the S3 bucket
+     * @param sourcePath name of the current file
+     * @param destPath name of the destination file
+     * @return {@link CompletableFuture} of the new object
+     */
+    CompletableFuture<S3Object> rename(String bucketName, String sourcePath, String destPath);
+
+    /**
+     * Removes a file
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of object
+     * @return {@link CompletableFuture} completed once the file is deleted
+     */
+    CompletableFuture<Void> delete(String bucketName, String path);
+
+    /**
+     * Removes many files, see {@link IS3Client#deleteAll(String, Collection)}
+     *
+     * @param bucketName name of the S3 bucket
+     * @param paths <code>String</code> paths of the objects
+     * @return {@link CompletableFuture} of the deleted count and the failed paths
+     */
+    CompletableFuture<S3DeleteResult> deleteAll(String bucketName, Collection<String> paths);
+
+    /**
+     * Returns whether or not an S3 object exists
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of object
+     * @return {@link CompletableFuture} of {@link Boolean}
+     */
+    CompletableFuture<Boolean> exists(String bucketName, String path);
+}
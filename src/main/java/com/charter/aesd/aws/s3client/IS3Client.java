@@ -2,11 +2,17 @@ package com.charter.aesd.aws.s3client;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
 import com.charter.aesd.aws.s3client.object.S3FileObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface IS3Client {
 
@@ -32,6 +38,21 @@ public interface IS3Client {
      */
     void put(String bucketName, String path, ObjectMetadata objectMetadata, InputStream inputStream) throws IOException;
 
+    /**
+     * Puts a file as it is whatever the compression of the client, so that
+     * its size and ETag in the listings are the ones of the local file
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path {@code String} path to put the file
+     * @param contentLength <code>long</code> Byte size of the file
+     * @param inputStream {@link InputStream} to upload
+     */
+    default void putUncompressed(String bucketName, String path, long contentLength, InputStream inputStream)
+        throws IOException {
+
+        put(bucketName, path, contentLength, inputStream);
+    }
+
     /**
      * Gets a file from S3 with a provided {@link S3FileObject}
      *
@@ -51,6 +72,47 @@ public interface IS3Client {
      */
     InputStream get(String bucketName, String path) throws IOException;
 
+    /**
+     * Gets a large file from S3, downloading several ranges of it
+     * concurrently
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link InputStream} to download the file
+     */
+    InputStream getParallel(String bucketName, String path) throws IOException;
+
+    /**
+     * Downloads a file from S3 into a local file, several ranges of it
+     * concurrently
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @param file {@link File} destination, replaced if it exists
+     */
+    void download(String bucketName, String path, File file) throws IOException;
+
+    /**
+     * Writes a file to a channel, a socket or another file, without copying
+     * it through the heap where the implementation allows it
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @param target {@link WritableByteChannel} written to, left open
+     * @return <code>long</code> number of bytes written
+     */
+    long transferTo(String bucketName, String path, WritableByteChannel target) throws IOException;
+
+    /**
+     * Gets the content of a file as a read-only buffer, a memory mapped view
+     * of local files. The file must be smaller than 2 GB.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link ByteBuffer} positioned at the start of the content
+     */
+    ByteBuffer getByteBuffer(String bucketName, String path) throws IOException;
+
     /**
      * Gets a file from S3 as an {@link S3Object}
      *
@@ -81,6 +143,17 @@ public interface IS3Client {
      */
     List<S3FileObject> listFiles(String bucketName, String path, boolean recursive) throws IOException;
 
+    /**
+     * Lists files contained within a bucket lazily, the files are fetched
+     * as the stream is consumed. Close the stream if it is not consumed to
+     * the end.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path Path prefix to search for files
+     * @return {@link Stream} of {@link S3FileObject}'s
+     */
+    Stream<S3FileObject> streamFiles(String bucketName, String path, boolean recursive) throws IOException;
+
     /**
      * Renames a file.
      * NOTE: in S3 there is no rename, so it copies the file then deletes the original.
@@ -100,6 +173,40 @@ public interface IS3Client {
      */
     void delete(String bucketName, String path) throws IOException;
 
+    /**
+     * Removes many files, several at a time. A file that fails to
+     * delete is reported in the result instead of an exception.
+     * NOTE: There is no confirmation at this point, so be sure this is what you want before you get here.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param paths <code>String</code> paths of the objects
+     * @return {@link S3DeleteResult} the deleted count and the failed paths
+     */
+    S3DeleteResult deleteAll(String bucketName, Collection<String> paths) throws IOException;
+
+    /**
+     * Removes many files, several at a time, the paths are read as the
+     * deletes are sent.
+     * NOTE: There is no confirmation at this point, so be sure this is what you want before you get here.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param paths <code>String</code> paths of the objects
+     * @return {@link S3DeleteResult} the deleted count and the failed paths
+     */
+    S3DeleteResult deleteAll(String bucketName, Stream<String> paths) throws IOException;
+
+    /**
+     * Removes every file whose path starts with the prefix.
+     * NOTE: There is no confirmation at this point, so be sure this is what you want before you get here.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> path prefix, "dir/" for a directory
+     * @return {@link S3DeleteResult} the deleted count and the failed paths
+     * @throws IllegalArgumentException if the prefix is null or empty, pass
+     *         a listing to {@link #deleteAll(String, Stream)} to delete every file
+     */
+    S3DeleteResult deletePrefix(String bucketName, String prefix) throws IOException;
+
     /**
      * Creates a directory for the specified path
      *
@@ -116,4 +223,15 @@ public interface IS3Client {
      * @return {@link Boolean}
      */
     boolean exists(String bucketName, String path);
+
+    /**
+     * Returns a non-blocking view of this client running its calls on the
+     * shared pool of {@link AsyncS3Client}
+     *
+     * @return {@link IAsyncS3Client}
+     */
+    default IAsyncS3Client async() {
+
+        return new AsyncS3Client(this);
+    }
 }
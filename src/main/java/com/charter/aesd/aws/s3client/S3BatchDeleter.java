@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Deletes keys with multi-object DeleteObjects requests of up to 1000 keys,
+ * several requests at a time. The keys are consumed lazily, at most
+ * {@code requestsInFlight} batches are held in memory. Requests run in
+ * quiet mode, S3 only answers with the keys it could not delete, a request
+ * failing as a whole fails all of its keys. Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.batchDelete.requestsInFlight    concurrent requests per call, default 4
+ * aws.s3Client.batchDelete.threads             size of the shared pool, default 16, read once
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3BatchDeleter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3BatchDeleter.class);
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    /**
+     * The most keys S3 accepts in one DeleteObjects request
+     */
+    static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    private static final DynamicIntProperty REQUESTS_IN_FLIGHT =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.batchDelete.requestsInFlight", 4);
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.batchDelete.threads", 16).get(),
+        new ThreadFactoryBuilder().setNameFormat("s3-delete-%d").setDaemon(true).build());
+
+    private final AmazonS3Client client;
+
+    S3BatchDeleter(final AmazonS3Client client) {
+
+        this.client = client;
+    }
+
+    /**
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param keys {@link Iterator} the keys to delete, read as the batches
+     *        are sent
+     *
+     * @return {@link S3DeleteResult} the count of deleted keys and the
+     *         error of each key not deleted
+     *
+     * @throws IOException if interrupted, the batches already sent are
+     *         deleted
+     */
+    S3DeleteResult delete(final String bucketName, final Iterator<String> keys) throws IOException {
+
+        final AtomicLong deleted = new AtomicLong();
+        final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+        final int requestsInFlight = Math.max(1, REQUESTS_IN_FLIGHT.get());
+        final CompletionService<Void> completion = new ExecutorCompletionService<Void>(POOL);
+
+        int inFlight = 0;
+        try {
+            while (keys.hasNext()) {
+                List<KeyVersion> batch = new ArrayList<KeyVersion>(MAX_KEYS_PER_REQUEST);
+                while (keys.hasNext() && (batch.size() < MAX_KEYS_PER_REQUEST)) {
+                    batch.add(new KeyVersion(keys.next()));
+                }
+
+                if (inFlight == requestsInFlight) {
+                    completion.take().get();
+                    inFlight--;
+                }
+                completion.submit(() -> deleteBatch(bucketName, batch, deleted, failures));
+                inFlight++;
+            }
+
+            for (; inFlight > 0; inFlight--) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Delete in " + bucketName + " interrupted");
+        } catch (ExecutionException e) {
+            // deleteBatch records its failures, only an Error gets here
+            throw new IOException(e.getCause());
+        }
+
+        if (!failures.isEmpty()) {
+            LOGGER.warn("Could not delete " + failures.size() + " keys in " + bucketName);
+        }
+
+        return new S3DeleteResult(deleted.get(), failures);
+    }
+
+    private Void deleteBatch(final String bucketName, final List<KeyVersion> batch, final AtomicLong deleted,
+                             final Map<String, String> failures) {
+
+        final DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName).withKeys(batch).withQuiet(true);
+        try {
+            METRICS.time("deleteObjects", bucketName, () -> client.deleteObjects(request));
+            deleted.addAndGet(batch.size());
+        } catch (MultiObjectDeleteException e) {
+            for (DeleteError error : e.getErrors()) {
+                failures.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+            }
+            deleted.addAndGet(batch.size() - e.getErrors().size());
+        } catch (AmazonClientException e) {
+            for (KeyVersion key : batch) {
+                failures.put(key.getKey(), e.getMessage());
+            }
+        }
+
+        return null;
+    }
+} // S3BatchDeleter
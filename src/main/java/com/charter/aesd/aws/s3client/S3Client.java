@@ -1,17 +1,31 @@
 package com.charter.aesd.aws.s3client;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.auth.profile.ProfilesConfigFile;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.AmazonS3EncryptionClient;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.CryptoConfiguration;
@@ -19,16 +33,31 @@ import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.KMSEncryptionMaterialsProvider;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-
+import com.google.common.hash.HashCode;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.config.DynamicStringProperty;
+
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
 import com.charter.aesd.aws.s3client.enums.S3AuthType;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
 import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.charter.aesd.aws.s3client.object.S3MoveResult;
 
 /**
  * AWS client for retrieving and adding files to an S3 bucket<br />
@@ -36,15 +65,69 @@ import com.charter.aesd.aws.s3client.object.S3FileObject;
  */
 public class S3Client implements IS3Client {
 
+    /**
+     * Latency/error/byte counters per operation and bucket
+     */
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    /**
+     * Request the next page of a listing while the current one is consumed
+     */
+    private static final DynamicBooleanProperty LISTING_PREFETCH =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.s3Client.listing.prefetch", true);
+
+    /**
+     * Keys per listing request, S3 returns at most 1000
+     */
+    private static final DynamicIntProperty LISTING_PAGE_SIZE =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.listing.pageSize", 1000);
+
+    /**
+     * Digest the content of puts and gets as it streams and check it against
+     * the ETag, see {@link ChecksumInputStream}
+     */
+    private static final DynamicBooleanProperty VERIFY_CHECKSUMS =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.s3Client.verifyChecksums", false);
+
+    /**
+     * Codec of the objects put, "none", "gzip" or "deflate", see
+     * {@link Compression}. Objects compressed by this client are decompressed
+     * on read whatever the codec configured. The files of
+     * {@link S3DirectoryTransfer} and {@link S3Sync} are not compressed, they
+     * are compared by the size and ETag of the listings.
+     */
+    private static final DynamicStringProperty COMPRESSION_CODEC =
+        DynamicPropertyFactory.getInstance().getStringProperty("aws.s3Client.compression.codec", "none");
+
+    /**
+     * 1 (fastest) to 9 (smallest)
+     */
+    private static final DynamicIntProperty COMPRESSION_LEVEL =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.compression.level", 6);
+
+    private static final String DELIMITER = "/";
+
     final private AmazonS3Client client;
+    final private S3MultipartUploader uploader;
+    final private S3RangedDownloader downloader;
+    final private S3BatchDeleter deleter;
+    final private S3PrefixMover mover;
+    final private S3MetadataCache metadataCache;
 
     private S3Client(AmazonS3Client client) {
 
         this.client = client;
+        this.uploader = new S3MultipartUploader(client);
+        this.downloader = new S3RangedDownloader(client);
+        this.deleter = new S3BatchDeleter(client);
+        this.mover = new S3PrefixMover(client, deleter);
+        this.metadataCache = new S3MetadataCache();
     }
 
     /**
-     * Puts a file into S3
+     * Puts a file into S3<br />
+     * Files from {@code aws.s3Client.multipart.thresholdBytes} (16 MB) are
+     * uploaded in parts, concurrently, see {@link S3MultipartUploader}
      *
      * @param bucketName name of the S3 bucket
      * @param path <code>String</code> path to put the file
@@ -57,29 +140,100 @@ public class S3Client implements IS3Client {
         final ObjectMetadata objectMetaData = new ObjectMetadata();
         objectMetaData.setContentLength(contentLength);
 
-        final PutObjectRequest putReq = new PutObjectRequest(bucketName, path, inputStream, objectMetaData);
-
-        client.putObject(putReq);
+        put(bucketName, path, objectMetaData, inputStream);
     }
 
     /**
      * Puts a file into S3 with the ability to pass meta data in
      * {@link ObjectMetadata}<br />
      * {@link ObjectMetadata#setContentLength(long)} should be set to improve
-     * upload performance
+     * upload performance, large files are only uploaded in parts when it is
      *
      * @param bucketName name of the S3 bucket
      * @param path <code>String</code> path to put the file
      * @param objectMetadata {@link ObjectMetadata} contains meta data of the
      *        target file
      * @param inputStream {@link InputStream} to upload to S3
+     * @throws AmazonClientException with {@code aws.s3Client.verifyChecksums}
+     *         set, if S3 did not store what was read from the stream, the
+     *         object is deleted
      */
     @Override
     public void put(String bucketName, String path, ObjectMetadata objectMetadata, InputStream inputStream) {
 
-        final PutObjectRequest putReq = new PutObjectRequest(bucketName, path, inputStream, objectMetadata);
+        final Compression compression = Compression.forName(COMPRESSION_CODEC.get());
+        if ((compression == Compression.NONE) || (objectMetadata.getContentEncoding() != null)) {
+            store(bucketName, path, objectMetadata, inputStream);
+            return;
+        }
+
+        final ObjectMetadata compressedMetadata = objectMetadata.clone();
+        compressedMetadata.setContentEncoding(compression.getContentEncoding());
+        compressedMetadata.addUserMetadata(Compression.CODEC, compression.name().toLowerCase());
+        if (objectMetadata.getRawMetadataValue(Headers.CONTENT_LENGTH) != null) {
+            compressedMetadata.addUserMetadata(Compression.UNCOMPRESSED_LENGTH,
+                String.valueOf(objectMetadata.getContentLength()));
+        }
 
-        client.putObject(putReq);
+        InputStream uncompressed = inputStream;
+        if (objectMetadata.getContentMD5() != null) {
+            // the MD5 given is the one of the content, S3 would check it against the compressed bytes
+            compressedMetadata.setContentMD5(null);
+            uncompressed = new ChecksumInputStream(inputStream, bucketName + DELIMITER + path,
+                HashCode.fromBytes(BaseEncoding.base64().decode(objectMetadata.getContentMD5())).toString(), -1);
+        }
+
+        InputStream compressed = compression.compress(uncompressed, COMPRESSION_LEVEL.get());
+        if (!uploader.accepts(objectMetadata.getContentLength())) {
+            // under the multipart threshold, small enough to learn the compressed length first
+            try {
+                final byte[] content = ByteStreams.toByteArray(compressed);
+                compressedMetadata.setContentLength(content.length);
+                compressed = new ByteArrayInputStream(content);
+            } catch (IOException e) {
+                throw new AmazonClientException("Unable to read the upload stream", e);
+            }
+        }
+
+        // multipart uploads do not need the compressed length, the parts are read until the stream ends
+        store(bucketName, path, compressedMetadata, compressed);
+    }
+
+    @Override
+    public void putUncompressed(String bucketName, String path, long contentLength, InputStream inputStream) {
+
+        final ObjectMetadata objectMetaData = new ObjectMetadata();
+        objectMetaData.setContentLength(contentLength);
+
+        store(bucketName, path, objectMetaData, inputStream);
+    }
+
+    private void store(String bucketName, String path, ObjectMetadata objectMetadata, InputStream inputStream) {
+
+        final boolean verify = VERIFY_CHECKSUMS.get() && !(client instanceof AmazonS3EncryptionClient);
+        try {
+            if (uploader.accepts(objectMetadata.getContentLength())) {
+                uploader.upload(bucketName, path, objectMetadata, inputStream, verify);
+                return;
+            }
+
+            final ChecksumInputStream checksum = verify
+                ? new ChecksumInputStream(inputStream, bucketName + DELIMITER + path, null, -1) : null;
+            final PutObjectRequest putReq =
+                new PutObjectRequest(bucketName, path, verify ? checksum : inputStream, objectMetadata);
+
+            final PutObjectResult result = METRICS.time("putObject", bucketName, () -> client.putObject(putReq));
+            METRICS.addBytes("putObject", bucketName, objectMetadata.getContentLength());
+            if (verify && ChecksumInputStream.isMd5(result.getETag(), result.getSSEAlgorithm(),
+                result.getSSECustomerAlgorithm())
+                && !checksum.getMd5().equalsIgnoreCase(ChecksumInputStream.unquote(result.getETag()))) {
+                delete(bucketName, path);
+                throw new AmazonClientException("Checksum mismatch for " + bucketName + DELIMITER + path + ": sent MD5 "
+                    + checksum.getMd5() + ", stored " + result.getETag());
+            }
+        } finally {
+            metadataCache.invalidate(bucketName, path);
+        }
     }
 
     /**
@@ -97,7 +251,13 @@ public class S3Client implements IS3Client {
     }
 
     /**
-     * Gets a file from S3
+     * Gets a file from S3, decompressed if this client compressed it, see
+     * {@link Compression}<br />
+     * With {@code aws.s3Client.verifyChecksums} set the content is digested
+     * as it is read, the read reaching the end fails with an
+     * {@link IOException} if it is not the one of the ETag. Objects uploaded
+     * in parts or encrypted with KMS or customer keys only have their length
+     * checked.
      *
      * @param bucketName name of the S3 bucket
      * @param path <code>String</code> path of the file
@@ -107,9 +267,158 @@ public class S3Client implements IS3Client {
     public InputStream get(String bucketName, String path) {
 
         GetObjectRequest getRequest = new GetObjectRequest(bucketName, path);
-        S3Object object = client.getObject(getRequest);
+        S3Object object = METRICS.time("getObject", bucketName, () -> client.getObject(getRequest));
+
+        return content(bucketName, path, object);
+    }
+
+    /**
+     * Gets a file from S3 unless it still has the ETag given, the
+     * conditional GET of {@link CachingS3Client}
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @param eTag <code>String</code> ETag of the copy already held, null to
+     *        get the file whatever its ETag
+     * @return {@link S3Object} of the file, its content verified and
+     *         decompressed as {@link #get(String, String)} does, null if the
+     *         file still has the ETag
+     */
+    S3Object getIfNoneMatch(String bucketName, String path, String eTag) {
+
+        GetObjectRequest getRequest = new GetObjectRequest(bucketName, path);
+        if (eTag != null) {
+            getRequest.setNonmatchingETagConstraints(Collections.singletonList(eTag));
+        }
+        final long stamp = metadataCache.stamp();
+        S3Object object = METRICS.time("getObject", bucketName, () -> client.getObject(getRequest));
+        if (object == null) {
+            // 304
+            return null;
+        }
+
+        metadataCache.put(new S3FileObject(object).getObjectSummary(), stamp);
+        return decoded(bucketName, path, object);
+    }
+
+    /**
+     * Replaces the content of the object got with the one of
+     * {@link #content(String, String, S3Object)}, and its Content-Length
+     * with the uncompressed length when it is compressed and the length is
+     * known. The Content-Encoding and the user metadata are left as stored.
+     */
+    private S3Object decoded(String bucketName, String path, S3Object object) {
 
-        return object.getObjectContent();
+        final ObjectMetadata metadata = object.getObjectMetadata();
+        final long length = Compression.uncompressedLength(metadata);
+        object.setObjectContent(content(bucketName, path, object));
+        if (length >= 0) {
+            metadata.setContentLength(length);
+        }
+
+        return object;
+    }
+
+    /**
+     * @return {@link InputStream} the content of the object got, verified
+     *         with {@code aws.s3Client.verifyChecksums} and decompressed
+     */
+    private InputStream content(String bucketName, String path, S3Object object) {
+
+        InputStream content = object.getObjectContent();
+        if (VERIFY_CHECKSUMS.get() && !(client instanceof AmazonS3EncryptionClient)) {
+            ObjectMetadata metadata = object.getObjectMetadata();
+            String eTag = ChecksumInputStream.isMd5(metadata.getETag(), metadata.getSSEAlgorithm(),
+                metadata.getSSECustomerAlgorithm()) ? metadata.getETag() : null;
+            content = new ChecksumInputStream(content, bucketName + DELIMITER + path, eTag,
+                metadata.getContentLength());
+        }
+
+        // the latency is the time to the first byte, the bytes are counted as the caller reads them
+        return Compression.forObject(object.getObjectMetadata())
+            .decompress(METRICS.meter("getObject", bucketName, content));
+    }
+
+    /**
+     * Gets a file from S3 with concurrent ranged GETs, reading ahead of the
+     * caller, see {@link S3RangedDownloader}. The ranges and the content are
+     * checked with {@code aws.s3Client.verifyChecksums} as for
+     * {@link #get(String, String)}.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link InputStream} to download the file, close it to cancel
+     *         the download
+     */
+    @Override
+    public InputStream getParallel(String bucketName, String path) throws IOException {
+
+        return downloader.open(bucketName, path);
+    }
+
+    /**
+     * Downloads a file from S3 into a local file with concurrent ranged GETs,
+     * checked with {@code aws.s3Client.verifyChecksums} as for
+     * {@link #get(String, String)}
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @param file {@link File} destination, replaced if it exists
+     */
+    @Override
+    public void download(String bucketName, String path, File file) throws IOException {
+
+        downloader.download(bucketName, path, file);
+    }
+
+    /**
+     * Copies the stream of the file to the channel
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @param target {@link WritableByteChannel} written to, left open
+     * @return <code>long</code> number of bytes written
+     */
+    @Override
+    public long transferTo(String bucketName, String path, WritableByteChannel target) throws IOException {
+
+        try (ReadableByteChannel source = Channels.newChannel(get(bucketName, path))) {
+            return BufferPool.copy(source, target);
+        }
+    }
+
+    /**
+     * Reads the file into a heap buffer sized from its content length, or
+     * from its uncompressed length when it is compressed. The content is
+     * checked as for {@link #get(String, String)}.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link ByteBuffer} read-only buffer of the content
+     * @throws IOException if the file is 2 GB or larger
+     */
+    @Override
+    public ByteBuffer getByteBuffer(String bucketName, String path) throws IOException {
+
+        GetObjectRequest getRequest = new GetObjectRequest(bucketName, path);
+        S3Object object = METRICS.time("getObject", bucketName, () -> client.getObject(getRequest));
+        final ObjectMetadata metadata = object.getObjectMetadata();
+        final long size = Compression.uncompressedLength(metadata);
+        if (size > Integer.MAX_VALUE - 8) {
+            object.getObjectContent().abort();
+            throw new IOException(bucketName + "/" + path + " is too large for a buffer, " + size + " bytes");
+        }
+
+        try (InputStream content = content(bucketName, path, object)) {
+            if (size < 0) {
+                // compressed without its length
+                return ByteBuffer.wrap(ByteStreams.toByteArray(content)).asReadOnlyBuffer();
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            ByteStreams.readFully(content, buffer.array());
+            return buffer.asReadOnlyBuffer();
+        }
     }
 
     /**
@@ -117,13 +426,19 @@ public class S3Client implements IS3Client {
      *
      * @param bucketName name of the S3 bucket
      * @param path <code>String</code> path of the file
-     * @return {@link S3Object}
+     * @return {@link S3Object} its content verified and decompressed as
+     *         {@link #get(String, String)} does, its Content-Length the one
+     *         of that content when it is known
      */
     @Override
     public S3Object getS3Object(String bucketName, String path) {
 
         GetObjectRequest getRequest = new GetObjectRequest(bucketName, path);
-        return client.getObject(getRequest);
+        final long stamp = metadataCache.stamp();
+        S3Object object = METRICS.time("getObject", bucketName, () -> client.getObject(getRequest));
+        metadataCache.put(new S3FileObject(object).getObjectSummary(), stamp);
+
+        return decoded(bucketName, path, object);
     }
 
     /**
@@ -136,39 +451,59 @@ public class S3Client implements IS3Client {
     @Override
     public List<S3FileObject> listFiles(String bucketName, String path, boolean recursive) {
 
-        final String correctedPath = path.replaceAll("/$", "").replaceAll("^/", "");
+        try (Stream<S3FileObject> files = streamFiles(bucketName, path, recursive)) {
+            return files.collect(Collectors.toList());
+        }
+    }
 
-        ObjectListing listing = client.listObjects(bucketName, correctedPath);
-        boolean truncated = false;
+    /**
+     * Lists files contained within a bucket lazily, one page of the listing
+     * at a time. The next page is requested while the current one is
+     * consumed unless {@code aws.s3Client.listing.prefetch} is false.<br />
+     * A non-recursive listing only returns the files and the directories
+     * (ending with {@code /}) directly under {@code path}, or the file
+     * {@code path} itself.<br />
+     * Close the stream if it is not consumed to the end.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path Path prefix to search for files
+     * @return {@link Stream} of {@link S3FileObject}'s
+     */
+    @Override
+    public Stream<S3FileObject> streamFiles(String bucketName, String path, boolean recursive) {
 
-        final List<S3FileObject> files = new ArrayList<S3FileObject>();
+        final String correctedPath = path.replaceAll("/$", "").replaceAll("^/", "");
+        final long stamp = metadataCache.stamp();
+        if (recursive) {
+            return stream(new S3ListingIterator(client, new ListObjectsRequest().withBucketName(bucketName)
+                .withPrefix(correctedPath).withMaxKeys(LISTING_PAGE_SIZE.get()), LISTING_PREFETCH.get()), stamp);
+        }
 
-        do {
-            final List<S3ObjectSummary> objectSummaries = listing.getObjectSummaries();
+        // S3 groups the keys below the subdirectories into common prefixes, only the directory itself is paged
+        final String directory = Strings.isNullOrEmpty(correctedPath) ? "" : correctedPath + DELIMITER;
+        final S3ListingIterator listing = new S3ListingIterator(client, new ListObjectsRequest()
+            .withBucketName(bucketName).withPrefix(directory).withDelimiter(DELIMITER)
+            .withMaxKeys(LISTING_PAGE_SIZE.get()), LISTING_PREFETCH.get());
+        if (listing.hasNext() || directory.isEmpty()) {
+            return stream(listing, stamp);
+        }
 
-            for (S3ObjectSummary objectSummary : objectSummaries) {
-                final S3FileObject s3FileObject = new S3FileObject(objectSummary);
-                if (!recursive) {
-                    final String name = s3FileObject.getName();
-                    final String absolutePath = s3FileObject.getAbsolutePath();
-                    final String expectedPath =
-                        Strings.isNullOrEmpty(correctedPath) ? name : correctedPath + "/" + name;
-                    if (absolutePath.replaceAll("/$", "").equals(expectedPath) || name.equals(path)
-                        || absolutePath.equals(path)) {
-                        files.add(s3FileObject);
-                    }
-                } else {
-                    files.add(new S3FileObject(objectSummary));
-                }
-            }
+        // not a directory, the path of a file sorts before its siblings sharing the prefix
+        final ListObjectsRequest fileRequest = new ListObjectsRequest().withBucketName(bucketName)
+            .withPrefix(correctedPath).withDelimiter(DELIMITER).withMaxKeys(1);
+        final ObjectListing fileListing = METRICS.time("listObjects", bucketName,
+            () -> client.listObjects(fileRequest));
 
-            truncated = listing.isTruncated();
-            if (truncated) {
-                listing = client.listNextBatchOfObjects(listing);
-            }
-        } while (truncated);
+        return fileListing.getObjectSummaries().stream()
+            .filter(summary -> summary.getKey().equals(correctedPath))
+            .peek(summary -> metadataCache.put(summary, stamp)).map(S3FileObject::new);
+    }
 
-        return files;
+    private Stream<S3FileObject> stream(S3ListingIterator listing, long stamp) {
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listing,
+            Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(listing::close)
+            .peek(summary -> metadataCache.put(summary, stamp)).map(S3FileObject::new);
     }
     
     /**
@@ -189,7 +524,7 @@ public class S3Client implements IS3Client {
 
 		ObjectListing objectListing;
 		do {
-			objectListing = client.listObjects(listObjectsRequest);
+			objectListing = METRICS.time("listObjects", bucketName, () -> client.listObjects(listObjectsRequest));
 			paths.addAll(objectListing.getCommonPrefixes());
 			listObjectsRequest.setMarker(objectListing.getNextMarker());
 		} while (objectListing.isTruncated());
@@ -198,41 +533,137 @@ public class S3Client implements IS3Client {
 	}
 
     /**
-     * Lists files contained within a bucket
+     * Lists all the files contained within a bucket<br />
+     * Use {@link #streamFiles(String)} on large buckets, this loads the
+     * whole listing in memory
      *
      * @param bucketName name of the S3 bucket
      * @return {@link List} of {@link S3FileObject}'s
      */
     public List<S3FileObject> listFiles(String bucketName) {
 
-        final ObjectListing listing = client.listObjects(bucketName);
-        final List<S3ObjectSummary> objectSummaries = listing.getObjectSummaries();
-        final List<S3FileObject> files = new ArrayList<S3FileObject>();
-
-        for (S3ObjectSummary objectSummary : objectSummaries) {
-            files.add(new S3FileObject(objectSummary));
+        try (Stream<S3FileObject> files = streamFiles(bucketName)) {
+            return files.collect(Collectors.toList());
         }
+    }
+
+    /**
+     * Lists all the files contained within a bucket lazily with ListObjectsV2,
+     * {@code aws.s3Client.listing.pageSize} (1000) files per request<br />
+     * Close the stream if it is not consumed to the end.
+     *
+     * @param bucketName name of the S3 bucket
+     * @return {@link Stream} of {@link S3FileObject}'s
+     */
+    public Stream<S3FileObject> streamFiles(String bucketName) {
 
-        return files;
+        final ListObjectsV2Request request =
+            new ListObjectsV2Request().withBucketName(bucketName).withMaxKeys(LISTING_PAGE_SIZE.get());
+        final long stamp = metadataCache.stamp();
+
+        return stream(new S3ListingIterator(client, request, LISTING_PREFETCH.get()), stamp);
     }
 
     /** {@inheritDoc} */
     @Override
     public S3Object rename(String bucketName, String sourcePath, String destPath) throws IOException {
-        //Copy the object
-        client.copyObject(new CopyObjectRequest(bucketName, sourcePath, bucketName, destPath));
-
-        //Delete the original
-        client.deleteObject(new DeleteObjectRequest(bucketName, sourcePath));
+        try {
+            //Copy the object
+            METRICS.time("copyObject", bucketName,
+                () -> client.copyObject(new CopyObjectRequest(bucketName, sourcePath, bucketName, destPath)));
+
+            //Delete the original
+            METRICS.time("deleteObject", bucketName, () -> {
+                client.deleteObject(new DeleteObjectRequest(bucketName, sourcePath));
+                return null;
+            });
+        } finally {
+            metadataCache.invalidate(bucketName, sourcePath);
+            metadataCache.invalidate(bucketName, destPath);
+        }
 
         return getS3Object(bucketName, destPath);
     }
 
+    /**
+     * Moves every file under a prefix, replacing the source prefix with the
+     * destination prefix in their paths. The files are copied concurrently,
+     * in parts from 5 GB, and the sources are deleted in batches once
+     * copied.<br />
+     * Run it again after a failure or an interruption, the files already
+     * copied are only deleted from the source.
+     *
+     * @param bucketName name of the S3 bucket
+     * @param sourcePrefix <code>String</code> prefix of the files to move, "dir/" for a directory
+     * @param destPrefix <code>String</code> prefix of the moved files, must not overlap the source
+     * @return {@link S3MoveResult} the moved count and the files not moved
+     */
+    public S3MoveResult movePrefix(String bucketName, String sourcePrefix, String destPrefix) throws IOException {
+
+        try {
+            return mover.move(bucketName, sourcePrefix, destPrefix);
+        } finally {
+            metadataCache.invalidatePrefix(bucketName, sourcePrefix);
+            metadataCache.invalidatePrefix(bucketName, destPrefix);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void delete(String bucketName, String path) {
         DeleteObjectRequest request = new DeleteObjectRequest(bucketName, path);
-        client.deleteObject(request);
+        try {
+            METRICS.time("deleteObject", bucketName, () -> {
+                client.deleteObject(request);
+                return null;
+            });
+        } finally {
+            metadataCache.invalidate(bucketName, path);
+        }
+    }
+
+    /**
+     * Sends the paths in DeleteObjects requests of 1000 keys,
+     * {@code aws.s3Client.batchDelete.requestsInFlight} (4) requests at a time
+     */
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Collection<String> paths) throws IOException {
+
+        try {
+            return deleter.delete(bucketName, paths.iterator());
+        } finally {
+            paths.forEach(path -> metadataCache.invalidate(bucketName, path));
+        }
+    }
+
+    /**
+     * Sends the paths in DeleteObjects requests of 1000 keys,
+     * {@code aws.s3Client.batchDelete.requestsInFlight} (4) requests at a time
+     */
+    @Override
+    public S3DeleteResult deleteAll(String bucketName, Stream<String> paths) throws IOException {
+
+        // the stream cannot be read twice, the paths are invalidated as they are sent
+        return deleter.delete(bucketName,
+            paths.peek(path -> metadataCache.invalidate(bucketName, path)).iterator());
+    }
+
+    /**
+     * Deletes the listing of the prefix page by page as it is read
+     */
+    @Override
+    public S3DeleteResult deletePrefix(String bucketName, String prefix) throws IOException {
+
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(prefix),
+            "prefix cannot be empty, use deleteAll for every file");
+        final ListObjectsRequest request = new ListObjectsRequest().withBucketName(bucketName)
+            .withPrefix(prefix).withMaxKeys(LISTING_PAGE_SIZE.get());
+
+        try (S3ListingIterator listing = new S3ListingIterator(client, request, LISTING_PREFETCH.get())) {
+            return deleter.delete(bucketName, Iterators.transform(listing, S3ObjectSummary::getKey));
+        } finally {
+            metadataCache.invalidatePrefix(bucketName, prefix);
+        }
     }
 
     @Override
@@ -248,22 +679,64 @@ public class S3Client implements IS3Client {
         final PutObjectRequest putObjectRequest = new PutObjectRequest(
                 bucketName, correctedPath, inputStream, objectMetadata);
 
-        client.putObject(putObjectRequest);
+        try {
+            METRICS.time("putObject", bucketName, () -> client.putObject(putObjectRequest));
+        } finally {
+            metadataCache.invalidate(bucketName, correctedPath);
+        }
     }
 
+    /**
+     * Served from the metadata cache when {@code aws.s3Client.metadataCache.enabled}
+     */
     @Override
     public boolean exists(String bucketName, String path) {
 
-        try {
-            client.getObjectMetadata(bucketName, path);
+        return getFileObject(bucketName, path) != null;
+    }
+
+    /**
+     * Gets the size, ETag and last-modified date of a file with a HEAD
+     * request, or from the metadata cache when
+     * {@code aws.s3Client.metadataCache.enabled}, see {@link S3MetadataCache}
+     *
+     * @param bucketName name of the S3 bucket
+     * @param path <code>String</code> path of the file
+     * @return {@link S3FileObject} of the file, null if it does not exist
+     */
+    public S3FileObject getFileObject(String bucketName, String path) {
+
+        final Optional<S3ObjectSummary> cached = metadataCache.get(bucketName, path);
+        if (cached != null) {
+            return cached.map(S3FileObject::new).orElse(null);
+        }
 
-            return true;
-        } catch (AmazonS3Exception e) {
-            if (e.getStatusCode() == 404) {
-                return false;
+        // a missing object is an answer, not an error
+        final long stamp = metadataCache.stamp();
+        final ObjectMetadata metadata = METRICS.time("getObjectMetadata", bucketName, () -> {
+            try {
+                return client.getObjectMetadata(bucketName, path);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    return null;
+                }
+                throw e;
             }
-            throw e;
+        });
+        if (metadata == null) {
+            metadataCache.putMissing(bucketName, path, stamp);
+            return null;
         }
+
+        final S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setKey(path);
+        summary.setSize(metadata.getContentLength());
+        summary.setETag(metadata.getETag());
+        summary.setLastModified(metadata.getLastModified());
+        metadataCache.put(summary, stamp);
+
+        return new S3FileObject(summary);
     }
     /**
      * Returns the {@code AmazonS3Client} for this instance.
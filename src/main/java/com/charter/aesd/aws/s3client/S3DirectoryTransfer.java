@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.charter.aesd.aws.s3client.object.S3TransferResult;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Uploads a local directory tree under a prefix, or downloads a prefix into
+ * a local directory, through any {@link IS3Client}. Several files are
+ * transferred at a time; a file whose size and ETag (hex MD5) are the same
+ * on both sides is skipped. Objects uploaded in parts have no MD5 ETag,
+ * they are skipped on the same size when the copy being replaced is the
+ * newer one. The files are uploaded uncompressed whatever the codec of the
+ * client, the listings only carry the size and ETag of the stored bytes.
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.directoryTransfer.filesInFlight    concurrent files per transfer, default 16
+ * aws.s3Client.directoryTransfer.threads          size of the shared pool, default 32, read once
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class S3DirectoryTransfer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3DirectoryTransfer.class);
+
+    private static final String DELIMITER = "/";
+
+    private static final DynamicIntProperty FILES_IN_FLIGHT =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.directoryTransfer.filesInFlight", 16);
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.directoryTransfer.threads", 32).get(),
+        new ThreadFactoryBuilder().setNameFormat("s3-transfer-%d").setDaemon(true).build());
+
+    /**
+     * Told about every file as it is done, from the transfer threads
+     */
+    public interface Listener {
+
+        /**
+         * @param path {@code String} path of the file relative to the
+         *        directory and the prefix
+         * @param bytes {@code long} size of the file
+         * @param skipped {@code boolean} true if the file was already up to
+         *        date
+         */
+        void onFile(String path, long bytes, boolean skipped);
+    }
+
+    private final IS3Client client;
+
+    /**
+     * @param client {@link IS3Client} an {@link S3Client} or a {@link FileS3Client}
+     */
+    public S3DirectoryTransfer(IS3Client client) {
+
+        this.client = client;
+    }
+
+    /**
+     * Uploads the files of a local tree
+     *
+     * @param directory {@link File} local directory
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the uploaded files, "dir/" for a directory
+     * @return {@link S3TransferResult} the files uploaded, skipped and failed
+     */
+    public S3TransferResult upload(File directory, String bucketName, String prefix) throws IOException {
+
+        return upload(directory, bucketName, prefix, (path, bytes, skipped) -> { });
+    }
+
+    /**
+     * Uploads the files of a local tree
+     *
+     * @param directory {@link File} local directory
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the uploaded files, "dir/" for a directory
+     * @param listener {@link Listener} told about each file
+     * @return {@link S3TransferResult} the files uploaded, skipped and failed
+     */
+    public S3TransferResult upload(File directory, String bucketName, String prefix, Listener listener)
+        throws IOException {
+
+        final Path root = directory.toPath().toAbsolutePath();
+        // one listing instead of a HEAD per file
+        final Map<String, S3ObjectSummary> existing = new HashMap<String, S3ObjectSummary>();
+        try (Stream<S3FileObject> files = client.streamFiles(bucketName, prefix, true)) {
+            files.forEach(file -> {
+                String path = relative(prefix, file.getAbsolutePath());
+                if (path != null) {
+                    existing.put(path, file.getObjectSummary());
+                }
+            });
+        }
+
+        final Transfer transfer = new Transfer(listener);
+        try (Stream<Path> files = FileTreeWalker.walk(root)) {
+            final Iterator<Path> iterator = files.iterator();
+            transfer.run(() -> {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+
+                final File file = iterator.next().toFile();
+                final String path = root.relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+                return new FileTask(path, () -> {
+                    S3ObjectSummary remote = existing.get(path);
+                    if ((remote != null) && isSame(file, remote, false)) {
+                        transfer.skipped(path, file.length());
+                        return null;
+                    }
+
+                    try (InputStream in = new FileInputStream(file)) {
+                        client.putUncompressed(bucketName, key(prefix, path), file.length(), in);
+                    }
+                    transfer.transferred(path, file.length());
+                    return null;
+                });
+            });
+        }
+
+        return transfer.result("Uploaded " + directory + " to " + bucketName + DELIMITER + prefix);
+    }
+
+    /**
+     * Downloads the files under a prefix
+     *
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the files to download, "dir/" for a directory
+     * @param directory {@link File} local directory, created if needed
+     * @return {@link S3TransferResult} the files downloaded, skipped and failed
+     */
+    public S3TransferResult download(String bucketName, String prefix, File directory) throws IOException {
+
+        return download(bucketName, prefix, directory, (path, bytes, skipped) -> { });
+    }
+
+    /**
+     * Downloads the files under a prefix
+     *
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the files to download, "dir/" for a directory
+     * @param directory {@link File} local directory, created if needed
+     * @param listener {@link Listener} told about each file
+     * @return {@link S3TransferResult} the files downloaded, skipped and failed
+     */
+    public S3TransferResult download(String bucketName, String prefix, File directory, Listener listener)
+        throws IOException {
+
+        final Transfer transfer = new Transfer(listener);
+        try (Stream<S3FileObject> files = client.streamFiles(bucketName, prefix, true)) {
+            final Iterator<S3FileObject> iterator = files.filter(file -> !file.isDirectory())
+                .filter(file -> relative(prefix, file.getAbsolutePath()) != null).iterator();
+            transfer.run(() -> {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+
+                final S3ObjectSummary remote = iterator.next().getObjectSummary();
+                final String path = relative(prefix, remote.getKey());
+                return new FileTask(path, () -> {
+                    File file = local(directory, path);
+                    if (file.isFile() && isSame(file, remote, true)) {
+                        transfer.skipped(path, remote.getSize());
+                        return null;
+                    }
+
+                    Files.createDirectories(file.getParentFile().toPath());
+                    client.download(bucketName, remote.getKey(), file);
+                    transfer.transferred(path, remote.getSize());
+                    return null;
+                });
+            });
+        }
+
+        return transfer.result("Downloaded " + bucketName + DELIMITER + prefix + " to " + directory);
+    }
+
+    /**
+     * @param download {@code boolean} true if the remote copy replaces the
+     *        local one
+     */
+    private static boolean isSame(final File local, final S3ObjectSummary remote, final boolean download)
+        throws IOException {
+
+        if (local.length() != remote.getSize()) {
+            return false;
+        }
+
+        final String eTag = remote.getETag();
+        if ((eTag == null) || eTag.contains("-")) {
+            // no MD5 to compare, keep the copy that is newer than the one it would replace
+            long localTime = local.lastModified();
+            long remoteTime = (remote.getLastModified() == null) ? 0 : remote.getLastModified().getTime();
+            return download ? (localTime >= remoteTime) : (remoteTime >= localTime);
+        }
+
+        return eTag.equals(S3FileObject.fromFile(local).getObjectSummary().getETag());
+    }
+
+    /**
+     * @param directory {@link File} the local side of a transfer
+     * @param path {@code String} path of a file relative to the prefix,
+     *        taken from a key or a manifest
+     *
+     * @return {@link File} of the path below the directory
+     *
+     * @throws IOException if the path leads out of the directory, ".."
+     *         segments are legal in a key
+     */
+    static File local(final File directory, final String path) throws IOException {
+
+        final Path root = directory.toPath().toAbsolutePath().normalize();
+        final Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            throw new IOException(path + " is outside of " + directory);
+        }
+
+        return file.toFile();
+    }
+
+    static String key(final String prefix, final String path) {
+
+        if (prefix.isEmpty() || prefix.endsWith(DELIMITER)) {
+            return prefix + path;
+        }
+        return prefix + DELIMITER + path;
+    }
+
+    /**
+     * @return {@code String} the path of {@code key} below {@code prefix},
+     *         null if the key only shares the first characters of the
+     *         prefix, "dir2/file" for the prefix "dir"
+     */
+    static String relative(final String prefix, final String key) {
+
+        if (key.startsWith(prefix)) {
+            final String path = key.substring(prefix.length());
+            if (prefix.isEmpty() || prefix.endsWith(DELIMITER)) {
+                return path;
+            }
+            return path.startsWith(DELIMITER) ? path.substring(1) : null;
+        }
+
+        // FileS3Client lists absolute paths unless aws.lib.bucketNameAsPath is set
+        final Path file = Paths.get(key);
+        if (!file.isAbsolute()) {
+            return null;
+        }
+        final Path path = Paths.get(prefix).toAbsolutePath().normalize().relativize(file.normalize());
+        return path.startsWith("..") ? null : path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * The transfer of one file
+     */
+    static class FileTask {
+
+        private final String path;
+        private final Callable<Void> call;
+
+        FileTask(final String path, final Callable<Void> call) {
+
+            this.path = path;
+            this.call = call;
+        }
+    }
+
+    /**
+     * Runs the file tasks of one transfer with bounded concurrency
+     */
+    static class Transfer {
+
+        private final Listener listener;
+        private final long start = System.currentTimeMillis();
+        private final AtomicLong transferredFiles = new AtomicLong();
+        private final AtomicLong skippedFiles = new AtomicLong();
+        private final AtomicLong transferredBytes = new AtomicLong();
+        private final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+
+        Transfer(final Listener listener) {
+
+            this.listener = listener;
+        }
+
+        /**
+         * A source of file tasks, null once there are no more files
+         */
+        interface Tasks {
+
+            FileTask next();
+        }
+
+        void run(final Tasks tasks) throws IOException {
+
+            final int filesInFlight = Math.max(1, FILES_IN_FLIGHT.get());
+            final CompletionService<Void> completion = new ExecutorCompletionService<Void>(POOL);
+
+            int inFlight = 0;
+            try {
+                for (FileTask task = tasks.next(); task != null; task = tasks.next()) {
+                    if (inFlight == filesInFlight) {
+                        completion.take().get();
+                        inFlight--;
+                    }
+                    completion.submit(recording(task));
+                    inFlight++;
+                }
+
+                for (; inFlight > 0; inFlight--) {
+                    completion.take().get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Transfer interrupted");
+            } catch (ExecutionException e) {
+                // the tasks record their failures, only an Error gets here
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private Callable<Void> recording(final FileTask task) {
+
+            return () -> {
+                try {
+                    task.call.call();
+                } catch (Exception e) {
+                    LOGGER.warn("Could not transfer " + task.path, e);
+                    failures.put(task.path, String.valueOf(e.getMessage()));
+                }
+                return null;
+            };
+        }
+
+        void transferred(final String path, final long bytes) {
+
+            transferredFiles.incrementAndGet();
+            transferredBytes.addAndGet(bytes);
+            listener.onFile(path, bytes, false);
+        }
+
+        void skipped(final String path, final long bytes) {
+
+            skippedFiles.incrementAndGet();
+            listener.onFile(path, bytes, true);
+        }
+
+        S3TransferResult result(final String description) {
+
+            final S3TransferResult result = new S3TransferResult(transferredFiles.get(), skippedFiles.get(),
+                transferredBytes.get(), System.currentTimeMillis() - start, failures);
+            LOGGER.info(description + ": " + result);
+
+            return result;
+        }
+    }
+} // S3DirectoryTransfer
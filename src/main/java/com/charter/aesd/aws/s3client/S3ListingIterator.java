@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * <p/>
+ * Walks a bucket listing one page (up to 1000 keys) at a time, only the
+ * current page is held in memory. With prefetch the next page is requested
+ * as soon as the current one arrives, so the caller rarely waits for S3.
+ * Close it to cancel the prefetch of a listing that is not read to the end.
+ * <p/>
+ * Pages are requested with ListObjects (markers) or ListObjectsV2
+ * (continuation tokens) depending on the request it is created with.
+ * When the request has a delimiter the common prefixes of a page are
+ * returned as directory summaries (a key ending with the delimiter, size 0),
+ * in key order with the objects of the page.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3ListingIterator implements Iterator<S3ObjectSummary>, Closeable {
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    private static final ExecutorService PREFETCH_POOL = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("s3-list-%d").setDaemon(true).build());
+
+    private final String bucketName;
+    private final boolean prefetch;
+    private Page listing;
+    private Iterator<S3ObjectSummary> page;
+    private Future<Page> next;
+    private boolean closed;
+
+    /**
+     * Requests the first page right away.
+     *
+     * @param client {@link AmazonS3Client}
+     * @param request {@link ListObjectsRequest} bucket, prefix, delimiter
+     * @param prefetch {@code boolean} true to request the next page while
+     *        the current one is read
+     */
+    S3ListingIterator(final AmazonS3Client client, final ListObjectsRequest request, final boolean prefetch) {
+
+        this.bucketName = request.getBucketName();
+        this.prefetch = prefetch;
+        setListing(Page.of(client, METRICS.time("listObjects", bucketName, () -> client.listObjects(request))));
+    }
+
+    /**
+     * Requests the first page right away.
+     *
+     * @param client {@link AmazonS3Client}
+     * @param request {@link ListObjectsV2Request} bucket, prefix, delimiter,
+     *        page size
+     * @param prefetch {@code boolean} true to request the next page while
+     *        the current one is read
+     */
+    S3ListingIterator(final AmazonS3Client client, final ListObjectsV2Request request, final boolean prefetch) {
+
+        this.bucketName = request.getBucketName();
+        this.prefetch = prefetch;
+        setListing(Page.of(client, request, null));
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        if (closed) {
+            return false;
+        }
+
+        while (!page.hasNext()) {
+            if (!listing.truncated) {
+                return false;
+            }
+            setListing(fetchNext());
+        }
+
+        return true;
+    }
+
+    @Override
+    public S3ObjectSummary next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.next();
+    }
+
+    @Override
+    public void close() {
+
+        if (next != null) {
+            next.cancel(true);
+            next = null;
+        }
+        closed = true;
+    }
+
+    /**
+     * One page of either listing API
+     */
+    private static class Page {
+
+        private final List<S3ObjectSummary> summaries;
+        private final boolean truncated;
+        private final Supplier<Page> next;
+
+        Page(final String bucketName, final List<S3ObjectSummary> summaries, final List<String> commonPrefixes,
+             final boolean truncated, final Supplier<Page> next) {
+
+            this.summaries = merge(bucketName, summaries, commonPrefixes);
+            this.truncated = truncated;
+            this.next = next;
+        }
+
+        static Page of(final AmazonS3Client client, final ObjectListing listing) {
+
+            return new Page(listing.getBucketName(), listing.getObjectSummaries(), listing.getCommonPrefixes(),
+                listing.isTruncated(), () -> of(client, METRICS.time("listObjects", listing.getBucketName(),
+                    () -> client.listNextBatchOfObjects(listing))));
+        }
+
+        static Page of(final AmazonS3Client client, final ListObjectsV2Request request, final String token) {
+
+            final ListObjectsV2Request pageRequest = new ListObjectsV2Request()
+                .withBucketName(request.getBucketName()).withPrefix(request.getPrefix())
+                .withDelimiter(request.getDelimiter()).withMaxKeys(request.getMaxKeys())
+                .withContinuationToken(token);
+            final ListObjectsV2Result result = METRICS.time("listObjectsV2", request.getBucketName(),
+                () -> client.listObjectsV2(pageRequest));
+
+            return new Page(request.getBucketName(), result.getObjectSummaries(), result.getCommonPrefixes(),
+                result.isTruncated(), () -> of(client, request, result.getNextContinuationToken()));
+        }
+
+        private static List<S3ObjectSummary> merge(final String bucketName, final List<S3ObjectSummary> summaries,
+                                                   final List<String> commonPrefixes) {
+
+            if (commonPrefixes.isEmpty()) {
+                return summaries;
+            }
+
+            List<S3ObjectSummary> page = new ArrayList<S3ObjectSummary>(summaries);
+            for (String prefix : commonPrefixes) {
+                S3ObjectSummary directory = new S3ObjectSummary();
+                directory.setBucketName(bucketName);
+                directory.setKey(prefix);
+                page.add(directory);
+            }
+            page.sort(Comparator.comparing(S3ObjectSummary::getKey));
+
+            return page;
+        }
+    }
+
+    private void setListing(final Page listing) {
+
+        this.listing = listing;
+        this.page = listing.summaries.iterator();
+        if (prefetch && listing.truncated) {
+            next = PREFETCH_POOL.submit(listing.next::get);
+        }
+    }
+
+    private Page fetchNext() {
+
+        if (next == null) {
+            return listing.next.get();
+        }
+
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Listing of " + bucketName + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new AmazonClientException("Listing of " + bucketName + " failed", e.getCause());
+        } finally {
+            next = null;
+        }
+    }
+} // S3ListingIterator
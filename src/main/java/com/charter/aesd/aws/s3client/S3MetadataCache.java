@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p/>
+ * Bounded cache of the size, ETag and last-modified date of objects, and of
+ * the keys known not to exist. It is filled from HEAD requests, GETs and
+ * listings and invalidated by the writes made through the same
+ * {@link S3Client}; writes made elsewhere are only seen once the entry
+ * expires. A response is cached with the stamp taken before its request
+ * and dropped if its key was invalidated since, so a HEAD or a listing in
+ * flight during a write cannot put the old metadata back. Disabled by
+ * default, configured through Archaius when the client is built:
+ *
+ * <pre>
+ * aws.s3Client.metadataCache.enabled       default false
+ * aws.s3Client.metadataCache.maxEntries    default 10000
+ * aws.s3Client.metadataCache.ttlSeconds    time an entry is trusted, default 60
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3MetadataCache {
+
+    private static final String SEPARATOR = "/";
+
+    /**
+     * Keys share the invalidation stamps of their stripe, a response is
+     * dropped now and then for the write of another key
+     */
+    private static final int STRIPES = 256;
+
+    // null when disabled
+    private final Cache<String, Optional<S3ObjectSummary>> cache;
+
+    private final AtomicLong stamps = new AtomicLong();
+
+    /**
+     * The stamp of the last invalidation of each stripe
+     */
+    private final AtomicLongArray invalidated = new AtomicLongArray(STRIPES);
+
+    S3MetadataCache() {
+
+        final DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        if (properties.getBooleanProperty("aws.s3Client.metadataCache.enabled", false).get()) {
+            cache = CacheBuilder.newBuilder()
+                .maximumSize(properties.getLongProperty("aws.s3Client.metadataCache.maxEntries", 10000).get())
+                .expireAfterWrite(properties.getLongProperty("aws.s3Client.metadataCache.ttlSeconds", 60).get(),
+                    TimeUnit.SECONDS)
+                .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * @return {@link Optional} the summary of the object, empty if it is
+     *         known not to exist, null if nothing is cached for the key
+     */
+    Optional<S3ObjectSummary> get(final String bucketName, final String key) {
+
+        if (cache == null) {
+            return null;
+        }
+
+        final Optional<S3ObjectSummary> cached = cache.getIfPresent(bucketName + SEPARATOR + key);
+        return (cached == null) ? null : cached.map(S3MetadataCache::copy);
+    }
+
+    /**
+     * @return {@code long} the stamp to take before sending a request whose
+     *         response is cached
+     */
+    long stamp() {
+
+        return stamps.get();
+    }
+
+    /**
+     * Caches an object seen in a response, directories made up from common
+     * prefixes are not objects and are skipped
+     *
+     * @param stamp {@code long} taken before the request
+     */
+    void put(final S3ObjectSummary summary, final long stamp) {
+
+        if ((cache != null) && (summary.getETag() != null)) {
+            put(summary.getBucketName() + SEPARATOR + summary.getKey(), Optional.of(copy(summary)), stamp);
+        }
+    }
+
+    /**
+     * @param stamp {@code long} taken before the request
+     */
+    void putMissing(final String bucketName, final String key, final long stamp) {
+
+        if (cache != null) {
+            put(bucketName + SEPARATOR + key, Optional.<S3ObjectSummary>empty(), stamp);
+        }
+    }
+
+    void invalidate(final String bucketName, final String key) {
+
+        if (cache != null) {
+            // stamped first, a response put meanwhile either sees the stamp or is removed below
+            final String cacheKey = bucketName + SEPARATOR + key;
+            final long stamp = stamps.incrementAndGet();
+            invalidated.accumulateAndGet(stripe(cacheKey), stamp, Math::max);
+            cache.invalidate(cacheKey);
+        }
+    }
+
+    void invalidatePrefix(final String bucketName, final String prefix) {
+
+        if (cache != null) {
+            final long stamp = stamps.incrementAndGet();
+            for (int i = 0; i < STRIPES; i++) {
+                invalidated.accumulateAndGet(i, stamp, Math::max);
+            }
+            final String start = bucketName + SEPARATOR + prefix;
+            cache.asMap().keySet().removeIf(key -> key.startsWith(start));
+        }
+    }
+
+    private void put(final String cacheKey, final Optional<S3ObjectSummary> value, final long stamp) {
+
+        if (invalidated.get(stripe(cacheKey)) > stamp) {
+            return;
+        }
+
+        cache.put(cacheKey, value);
+        // invalidated between the check and the put, take it back
+        if (invalidated.get(stripe(cacheKey)) > stamp) {
+            cache.asMap().remove(cacheKey, value);
+        }
+    }
+
+    private static int stripe(final String cacheKey) {
+
+        return (cacheKey.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    // summaries are mutable, neither the caller nor the cache may see the changes of the other
+    private static S3ObjectSummary copy(final S3ObjectSummary summary) {
+
+        final S3ObjectSummary copy = new S3ObjectSummary();
+        copy.setBucketName(summary.getBucketName());
+        copy.setKey(summary.getKey());
+        copy.setSize(summary.getSize());
+        copy.setETag(summary.getETag());
+        copy.setLastModified(summary.getLastModified());
+        copy.setStorageClass(summary.getStorageClass());
+        copy.setOwner(summary.getOwner());
+
+        return copy;
+    }
+} // S3MetadataCache
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3EncryptionClient;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Uploads large objects to S3 in parts. The stream is read on the calling
+ * thread into part sized buffers which are uploaded concurrently on a shared
+ * pool. At most {@code partsInFlight} buffers exist per upload, so memory
+ * stays bounded whatever the object size; they come from the
+ * {@link BufferPool} and go back to it once their part is done. A failed
+ * part is retried from its buffer; when a part fails for good the upload is
+ * aborted so S3 does not keep the parts already uploaded. Configured
+ * through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.multipart.thresholdBytes    objects from this size are uploaded in parts, default 16 MB
+ * aws.s3Client.multipart.partSizeBytes     default 8 MB, S3 rejects parts under 5 MB but the last
+ * aws.s3Client.multipart.partsInFlight     parts uploaded concurrently per object, default 8
+ * aws.s3Client.multipart.partRetries       default 3
+ * aws.s3Client.multipart.threads           size of the shared upload pool, default 32, read once
+ * </pre>
+ * When verifying, each part is sent with its Content-MD5 so S3 rejects a
+ * corrupted part, which is retried, and the ETag of the completed object is
+ * checked against the MD5 of the part digests.
+ *
+ * The encryption client has to upload the parts of an object in order, it
+ * always gets single requests.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3MultipartUploader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUploader.class);
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    private static final int MAX_PARTS = 10000;
+
+    private static final DynamicLongProperty THRESHOLD_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.multipart.thresholdBytes",
+            16L * 1024 * 1024);
+    private static final DynamicLongProperty PART_SIZE_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.multipart.partSizeBytes",
+            8L * 1024 * 1024);
+    private static final DynamicIntProperty PARTS_IN_FLIGHT =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.multipart.partsInFlight", 8);
+    private static final DynamicIntProperty PART_RETRIES =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.multipart.partRetries", 3);
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.multipart.threads", 32).get(),
+        new ThreadFactoryBuilder().setNameFormat("s3-upload-%d").setDaemon(true).build());
+
+    private final AmazonS3Client client;
+
+    S3MultipartUploader(final AmazonS3Client client) {
+
+        this.client = client;
+    }
+
+    /**
+     * @param contentLength {@code long} the size of the object
+     *
+     * @return {@code boolean} true if the object is large enough to be
+     *         uploaded in parts
+     */
+    boolean accepts(final long contentLength) {
+
+        return (contentLength >= THRESHOLD_BYTES.get()) && !(client instanceof AmazonS3EncryptionClient);
+    }
+
+    /**
+     * Uploads the object in parts, returns once the upload is completed.
+     *
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param path {@code String} key of the object
+     * @param objectMetadata {@link ObjectMetadata} metadata of the object,
+     *        its content length sizes the parts
+     * @param inputStream {@link InputStream} the content
+     * @param verify {@code boolean} true to check the checksums of the parts
+     *        and of the object
+     *
+     * @throws AmazonClientException if the stream cannot be read or a part
+     *         cannot be uploaded, the upload is aborted. If the completed
+     *         object is not the content read, it is deleted.
+     */
+    void upload(final String bucketName, final String path, final ObjectMetadata objectMetadata,
+                final InputStream inputStream, final boolean verify) {
+
+        final long contentLength = objectMetadata.getContentLength();
+        // S3 allows 10000 parts, grow the parts of very large objects
+        final int partSize = (int) Math.min(Integer.MAX_VALUE - 8,
+            Math.max(PART_SIZE_BYTES.get(), (contentLength + MAX_PARTS - 1) / MAX_PARTS));
+
+        final ReadableByteChannel source = Channels.newChannel(inputStream);
+        final Part first = readPart(source, 1, partSize);
+        if (first.getContent().remaining() < partSize) {
+            // shorter than announced, not worth the 3 requests of a multipart upload
+            try {
+                // the caller's metadata is left as it was given
+                final ObjectMetadata metadata = objectMetadata.clone();
+                metadata.setContentLength(first.getContent().remaining());
+                if (verify) {
+                    // S3 rejects the put if the content it got has another MD5
+                    metadata.setContentMD5(BaseEncoding.base64().encode(md5(first.getContent())));
+                }
+                PutObjectRequest putReq = new PutObjectRequest(bucketName, path,
+                    BufferPool.inputStream(first.getContent()), metadata);
+                METRICS.time("putObject", bucketName, () -> client.putObject(putReq));
+                METRICS.addBytes("putObject", bucketName, metadata.getContentLength());
+                return;
+            } finally {
+                first.release();
+            }
+        }
+
+        final String uploadId = METRICS.time("initiateMultipartUpload", bucketName,
+            () -> client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, path, objectMetadata)).getUploadId());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Started multipart upload " + uploadId + " of " + bucketName + "/" + path + ", "
+                + contentLength + " bytes in parts of " + partSize);
+        }
+
+        final int partsInFlight = Math.max(1, PARTS_IN_FLIGHT.get());
+        final CompletionService<PartETag> completion = new ExecutorCompletionService<PartETag>(POOL);
+        final List<Future<PartETag>> pending = new ArrayList<Future<PartETag>>();
+        final List<Part> parts = new ArrayList<Part>();
+        final List<PartETag> etags = new ArrayList<PartETag>();
+        // part number to MD5, only when verifying
+        final Map<Integer, byte[]> digests = new ConcurrentHashMap<Integer, byte[]>();
+        try {
+            Part part = first;
+            while (true) {
+                parts.add(part);
+                pending.add(completion.submit(uploadPart(bucketName, path, uploadId, part,
+                    verify ? digests : null)));
+                if (part.getContent().remaining() < partSize) {
+                    break;
+                }
+
+                if (pending.size() - etags.size() >= partsInFlight) {
+                    // the buffer of the next part is only taken from the pool once a part is done
+                    etags.add(completion.take().get());
+                }
+                part = readPart(source, part.getNumber() + 1, partSize);
+                if (!part.getContent().hasRemaining()) {
+                    part.release();
+                    break;
+                }
+            }
+
+            while (etags.size() < pending.size()) {
+                etags.add(completion.take().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abort(bucketName, path, uploadId, pending, parts,
+                new AmazonClientException("Upload interrupted", e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw abort(bucketName, path, uploadId, pending, parts, (cause instanceof AmazonClientException)
+                ? (AmazonClientException) cause : new AmazonClientException("Part upload failed", cause));
+        } catch (AmazonClientException e) {
+            throw abort(bucketName, path, uploadId, pending, parts, e);
+        }
+
+        etags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+        final CompleteMultipartUploadResult result = METRICS.time("completeMultipartUpload", bucketName,
+            () -> client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, path, uploadId,
+                etags)));
+        if (verify) {
+            verify(bucketName, path, etags.size(), digests, result);
+        }
+    }
+
+    /**
+     * The ETag of an object uploaded in parts is the MD5 of the MD5s of its
+     * parts followed by the number of parts
+     */
+    private void verify(final String bucketName, final String path, final int parts,
+                        final Map<Integer, byte[]> digests, final CompleteMultipartUploadResult result) {
+
+        final String eTag = ChecksumInputStream.unquote(result.getETag());
+        if ((eTag == null) || SSEAlgorithm.KMS.getAlgorithm().equals(result.getSSEAlgorithm())
+            || (result.getSSECustomerAlgorithm() != null)) {
+            return;
+        }
+
+        final Hasher hasher = Hashing.md5().newHasher();
+        for (int partNumber = 1; partNumber <= parts; partNumber++) {
+            hasher.putBytes(digests.get(partNumber));
+        }
+        final String expected = hasher.hash() + "-" + parts;
+        if (!expected.equalsIgnoreCase(eTag)) {
+            METRICS.time("deleteObject", bucketName, () -> {
+                client.deleteObject(bucketName, path);
+                return null;
+            });
+            throw new AmazonClientException("Checksum mismatch for " + bucketName + "/" + path + ": sent parts "
+                + expected + ", stored " + eTag);
+        }
+    }
+
+    private Callable<PartETag> uploadPart(final String bucketName, final String path, final String uploadId,
+                                          final Part part, final Map<Integer, byte[]> digests) {
+
+        return () -> {
+            if (!part.claim()) {
+                // cancelled before it started, the abort gave the buffer back
+                return null;
+            }
+
+            try {
+                return send(bucketName, path, uploadId, part, digests);
+            } finally {
+                part.release();
+            }
+        };
+    }
+
+    private PartETag send(final String bucketName, final String path, final String uploadId,
+                          final Part part, final Map<Integer, byte[]> digests) throws InterruptedException {
+
+        final int partNumber = part.getNumber();
+        final int partSize = part.getContent().remaining();
+        final byte[] md5 = (digests == null) ? null : md5(part.getContent());
+        if (md5 != null) {
+            digests.put(partNumber, md5);
+        }
+
+        for (int attempt = 0;; attempt++) {
+            UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName).withKey(path)
+                .withUploadId(uploadId).withPartNumber(partNumber).withPartSize(partSize)
+                .withInputStream(BufferPool.inputStream(part.getContent()));
+            if (md5 != null) {
+                // S3 rejects a part that got corrupted on the way with BadDigest
+                request.setMd5Digest(BaseEncoding.base64().encode(md5));
+            }
+            try {
+                PartETag etag = METRICS.time("uploadPart", bucketName,
+                    () -> client.uploadPart(request).getPartETag());
+                METRICS.addBytes("uploadPart", bucketName, partSize);
+                return etag;
+            } catch (AmazonClientException e) {
+                if ((attempt >= PART_RETRIES.get()) || !S3Retries.isRetryable(e)) {
+                    throw e;
+                }
+                LOGGER.warn("Retrying part " + partNumber + " of upload " + uploadId + ": " + e.getMessage());
+                S3Retries.backoff(attempt);
+            }
+        }
+    }
+
+    private AmazonClientException abort(final String bucketName, final String path, final String uploadId,
+                                        final List<Future<PartETag>> pending, final List<Part> parts,
+                                        final AmazonClientException cause) {
+
+        for (Future<PartETag> future : pending) {
+            future.cancel(true);
+        }
+        // the running parts give their buffers back as they stop
+        for (Part part : parts) {
+            if (part.claim()) {
+                part.release();
+            }
+        }
+
+        try {
+            METRICS.time("abortMultipartUpload", bucketName, () -> {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, path, uploadId));
+                return null;
+            });
+        } catch (AmazonClientException e) {
+            // the bucket lifecycle has to clean up, keep the original failure
+            LOGGER.warn("Could not abort multipart upload " + uploadId + " of " + bucketName + "/" + path, e);
+        }
+
+        return cause;
+    }
+
+    /**
+     * @return {@link Part} holding a pooled buffer, shorter than the part
+     *         size only at the end of the stream
+     */
+    private static Part readPart(final ReadableByteChannel source, final int partNumber, final int partSize) {
+
+        final ByteBuffer buffer = BufferPool.acquire(partSize);
+        try {
+            return new Part(partNumber, BufferPool.fill(source, buffer));
+        } catch (IOException e) {
+            BufferPool.release(buffer);
+            throw new AmazonClientException("Unable to read the upload stream", e);
+        }
+    }
+
+    private static byte[] md5(final ByteBuffer content) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(content.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A part read into a pooled buffer. The buffer goes back to the pool
+     * once, either from the task uploading the part or from the abort of the
+     * upload if the task never ran.
+     */
+    private static class Part {
+
+        private final int number;
+        private final ByteBuffer content;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Part(final int number, final ByteBuffer content) {
+
+            this.number = number;
+            this.content = content;
+        }
+
+        int getNumber() {
+
+            return number;
+        }
+
+        ByteBuffer getContent() {
+
+            return content;
+        }
+
+        /**
+         * @return {@code boolean} true for the first caller only, which
+         *         releases the buffer
+         */
+        boolean claim() {
+
+            return claimed.compareAndSet(false, true);
+        }
+
+        void release() {
+
+            BufferPool.release(content);
+        }
+    }
+} // S3MultipartUploader
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Lists a whole bucket, or a large prefix of it, with concurrent listing
+ * requests. The key space is first split into shards by expanding the
+ * "directories" level by level with delimiter listings, then every shard is
+ * listed recursively on a bounded pool and the results are merged into one
+ * stream, in key order on request:
+ *
+ * <pre>
+ * try (Stream&lt;S3FileObject&gt; files = new S3ParallelLister(s3Client).list("my-bucket", "", false)) {
+ *     files.forEach(this::reconcile);
+ * }
+ * </pre>
+ *
+ * Only the first {@code maxDirectKeys} files and "directories" of a level
+ * are kept, the rest of the level is listed as one shard, so the entries
+ * kept in memory during the expansion stay bounded. When a level has more
+ * "directories" than the shards wanted, adjacent ones are grouped into key
+ * ranges listed as one shard each, so a wide, flat bucket is still listed
+ * with about {@code targetShards} listings rather than one per "directory".
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.parallelList.threads          concurrent listing requests, default 16
+ * aws.s3Client.parallelList.targetShards     shards wanted, default 64
+ * aws.s3Client.parallelList.maxDepth         directory levels expanded at most, default 4
+ * aws.s3Client.parallelList.maxDirectKeys    entries kept per level, default 10000
+ * aws.s3Client.parallelList.pagesAhead       pages buffered per shard, default 4
+ * </pre>
+ *
+ * At most {@code pagesAhead} pages per thread are buffered ahead of the
+ * consumer in total, whichever the number of shards.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class S3ParallelLister {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3ParallelLister.class);
+
+    private static final String DELIMITER = "/";
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Marks the end of a shard in its queue
+     */
+    private static final Object END = new Object();
+
+    /**
+     * How often a shard waiting for room ahead checks whether it is drained
+     */
+    private static final long AHEAD_WAIT_MILLIS = 100;
+
+    private static final DynamicIntProperty THREADS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.parallelList.threads", 16);
+    private static final DynamicIntProperty TARGET_SHARDS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.parallelList.targetShards", 64);
+    private static final DynamicIntProperty MAX_DEPTH =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.parallelList.maxDepth", 4);
+    private static final DynamicIntProperty MAX_DIRECT_KEYS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.parallelList.maxDirectKeys", 10000);
+    private static final DynamicIntProperty PAGES_AHEAD =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.parallelList.pagesAhead", 4);
+
+    private final AmazonS3Client client;
+
+    /**
+     * @param s3Client {@link S3Client} the client used for the listing
+     *        requests
+     */
+    public S3ParallelLister(final S3Client s3Client) {
+
+        this.client = s3Client.getClient();
+    }
+
+    /**
+     * Lists every file under a prefix.
+     *
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param prefix {@code String} the key prefix, empty for the whole
+     *        bucket
+     * @param sorted {@code boolean} true to get the files in key order,
+     *        false to get them as soon as any shard lists them
+     *
+     * @return {@link Stream} of {@link S3FileObject}'s, close it if it is
+     *         not consumed to the end
+     */
+    public Stream<S3FileObject> list(final String bucketName, final String prefix, final boolean sorted) {
+
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS.get()),
+            new ThreadFactoryBuilder().setNameFormat("s3-list-" + bucketName + "-%d").setDaemon(true).build());
+        try {
+            final Merge merge = new Merge(pool, bucketName, discover(pool, bucketName, prefix), sorted);
+
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge,
+                Spliterator.NONNULL | (sorted ? Spliterator.ORDERED : 0)), false).onClose(merge::close)
+                .map(S3FileObject::new);
+        } catch (RuntimeException e) {
+            pool.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * A prefix of the key space, a shard to list unless it was expanded
+     */
+    private static class Node {
+
+        private final String prefix;
+
+        /**
+         * The files, child nodes and the rest of a level too large to keep
+         * ({@link Range}) in key order, null for a shard
+         */
+        private List<Object> entries;
+
+        Node(final String prefix) {
+
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * The keys of a prefix from {@code from} up to {@code to}, a shard
+     */
+    private static class Range {
+
+        private final String prefix;
+
+        /**
+         * First key of the range, null from the start of the prefix
+         */
+        private final String from;
+
+        /**
+         * First key after the range, null up to the end of the prefix
+         */
+        private final String to;
+
+        Range(final String prefix, final String from, final String to) {
+
+            this.prefix = prefix;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * @return {@code List} the key space in order, either files already
+     *         listed ({@code List<S3ObjectSummary>}) or a shard to list
+     *         ({@link Range})
+     */
+    private List<Object> discover(final ExecutorService pool, final String bucketName, final String prefix) {
+
+        final Node root = new Node(prefix);
+        List<Node> frontier = Collections.singletonList(root);
+        int shards = 1;
+        for (int depth = 0; (depth < MAX_DEPTH.get()) && (shards < TARGET_SHARDS.get()) && !frontier.isEmpty();
+             depth++) {
+            List<Future<?>> expansions = new ArrayList<Future<?>>();
+            for (Node node : frontier) {
+                expansions.add(pool.submit(() -> expand(bucketName, node)));
+            }
+            await(bucketName, expansions);
+
+            List<Node> next = new ArrayList<Node>();
+            for (Node node : frontier) {
+                if (node.entries != null) {
+                    shards--;
+                    for (Object entry : node.entries) {
+                        if (entry instanceof Node) {
+                            next.add((Node) entry);
+                        }
+                        if (!(entry instanceof S3ObjectSummary)) {
+                            shards++;
+                        }
+                    }
+                }
+            }
+            frontier = next;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Listing " + bucketName + "/" + prefix + " in " + shards + " shards");
+        }
+
+        List<Object> segments = new ArrayList<Object>();
+        flatten(root, segments, Math.min(1.0, (double) Math.max(1, TARGET_SHARDS.get()) / shards));
+
+        return segments;
+    }
+
+    private void expand(final String bucketName, final Node node) {
+
+        final List<Object> entries = new ArrayList<Object>();
+        try (S3ListingIterator listing = new S3ListingIterator(client, new ListObjectsRequest()
+            .withBucketName(bucketName).withPrefix(node.prefix).withDelimiter(DELIMITER), false)) {
+            while (listing.hasNext()) {
+                S3ObjectSummary summary = listing.next();
+                if (entries.size() == MAX_DIRECT_KEYS.get()) {
+                    // too many entries to keep, the rest of the level is a shard
+                    entries.add(new Range(node.prefix, summary.getKey(), null));
+                    break;
+                }
+                // below a delimiter listing only the common prefixes end with it, but the directory marker itself
+                if (summary.getKey().endsWith(DELIMITER) && !summary.getKey().equals(node.prefix)) {
+                    entries.add(new Node(summary.getKey()));
+                } else {
+                    entries.add(summary);
+                }
+            }
+        }
+
+        node.entries = entries;
+    }
+
+    /**
+     * @param scale {@code double} ranges per shard, below 1 to group
+     *        adjacent shards of a level into one range
+     */
+    private static void flatten(final Node node, final List<Object> segments, final double scale) {
+
+        if (node.entries == null) {
+            segments.add(new Range(node.prefix, null, null));
+            return;
+        }
+
+        // the files and shards between two expanded nodes, grouped together
+        List<Object> run = new ArrayList<Object>();
+        for (Object entry : node.entries) {
+            if ((entry instanceof Node) && (((Node) entry).entries != null)) {
+                group(node.prefix, run, ((Node) entry).prefix, segments, scale);
+                run.clear();
+                flatten((Node) entry, segments, scale);
+            } else {
+                run.add(entry);
+            }
+        }
+        group(node.prefix, run, null, segments, scale);
+    }
+
+    /**
+     * Splits a run of adjacent files and shards into ranges holding about
+     * the same number of shards each.
+     *
+     * @param to {@code String} first key after the run, null up to the end
+     *        of the prefix
+     */
+    @SuppressWarnings("unchecked")
+    private static void group(final String prefix, final List<Object> run, final String to,
+                              final List<Object> segments, final double scale) {
+
+        int shards = 0;
+        for (Object entry : run) {
+            if (!(entry instanceof S3ObjectSummary)) {
+                shards++;
+            }
+        }
+
+        final int ranges = (int) Math.max(1, Math.round(shards * scale));
+        if ((shards == 0) || (ranges >= shards)) {
+            for (Object entry : run) {
+                if (entry instanceof S3ObjectSummary) {
+                    if (segments.isEmpty() || !(segments.get(segments.size() - 1) instanceof List)) {
+                        segments.add(new ArrayList<S3ObjectSummary>());
+                    }
+                    ((List<S3ObjectSummary>) segments.get(segments.size() - 1)).add((S3ObjectSummary) entry);
+                } else {
+                    segments.add((entry instanceof Node) ? new Range(((Node) entry).prefix, null, null) : entry);
+                }
+            }
+            return;
+        }
+
+        // the files between the shards are listed again with their range
+        String from = firstKey(run.get(0));
+        int seen = 0;
+        int cut = 1;
+        for (int i = 0; (i < run.size() - 1) && (cut < ranges); i++) {
+            if (!(run.get(i) instanceof S3ObjectSummary) && (++seen >= (long) cut * shards / ranges)) {
+                String until = firstKey(run.get(i + 1));
+                segments.add(new Range(prefix, from, until));
+                from = until;
+                cut++;
+            }
+        }
+        segments.add(new Range(prefix, from, to));
+    }
+
+    private static String firstKey(final Object entry) {
+
+        if (entry instanceof S3ObjectSummary) {
+            return ((S3ObjectSummary) entry).getKey();
+        }
+
+        return (entry instanceof Node) ? ((Node) entry).prefix : ((Range) entry).from;
+    }
+
+    private static void await(final String bucketName, final List<Future<?>> futures) {
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Listing of " + bucketName + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new AmazonClientException("Listing of " + bucketName + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * A page listed ahead of the shard being drained, holding a permit
+     */
+    private static class Ahead {
+
+        private final List<S3ObjectSummary> page;
+
+        Ahead(final List<S3ObjectSummary> page) {
+
+            this.page = page;
+        }
+    }
+
+    /**
+     * Lists the shards on the pool and hands out their files. Sorted, every
+     * shard has its own queue and the queues are drained in key order; the
+     * shards are submitted in that order, so the one being drained always
+     * has a thread, and the shards ahead of it share a limited number of
+     * pages. Unsorted, all the shards share one queue.
+     */
+    private class Merge implements Iterator<S3ObjectSummary>, Closeable {
+
+        private final ExecutorService pool;
+        private final String bucketName;
+        private final boolean sorted;
+        private final Deque<Object> segments = new ArrayDeque<Object>();
+        private final Semaphore ahead;
+        private Iterator<S3ObjectSummary> batch = Collections.emptyIterator();
+        private BlockingQueue<Object> current;
+        private int pendingShards;
+
+        /**
+         * Index of the shard being drained, sorted
+         */
+        private volatile int draining = -1;
+
+        @SuppressWarnings("unchecked")
+        Merge(final ExecutorService pool, final String bucketName, final List<Object> discovered,
+              final boolean sorted) {
+
+            this.pool = pool;
+            this.bucketName = bucketName;
+            this.sorted = sorted;
+            final int pagesAhead = Math.max(1, PAGES_AHEAD.get());
+            this.ahead = sorted ? new Semaphore(pagesAhead * Math.max(1, THREADS.get())) : null;
+            BlockingQueue<Object> shared = null;
+            for (Object segment : discovered) {
+                if (segment instanceof List) {
+                    segments.add(segment);
+                    continue;
+                }
+
+                BlockingQueue<Object> queue;
+                if (sorted) {
+                    queue = new ArrayBlockingQueue<Object>(pagesAhead + 1);
+                    segments.add(queue);
+                } else {
+                    if (shared == null) {
+                        shared = new ArrayBlockingQueue<Object>(pagesAhead * Math.max(1, THREADS.get()));
+                    }
+                    queue = shared;
+                }
+                final int index = pendingShards++;
+                pool.submit(() -> listShard((Range) segment, queue, index));
+            }
+
+            if (shared != null) {
+                segments.add(shared);
+            }
+            pool.shutdown();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+
+            while (!batch.hasNext()) {
+                if (current == null) {
+                    Object segment = segments.poll();
+                    if (segment == null) {
+                        return false;
+                    }
+
+                    if (segment instanceof List) {
+                        batch = ((List<S3ObjectSummary>) segment).iterator();
+                    } else {
+                        current = (BlockingQueue<Object>) segment;
+                        draining++;
+                    }
+                    continue;
+                }
+
+                Object item = take();
+                if (item == END) {
+                    // the shared queue ends with its last shard
+                    if (sorted || (--pendingShards == 0)) {
+                        current = null;
+                    }
+                } else if (item instanceof RuntimeException) {
+                    close();
+                    throw (RuntimeException) item;
+                } else if (item instanceof Ahead) {
+                    ahead.release();
+                    batch = ((Ahead) item).page.iterator();
+                } else {
+                    batch = ((List<S3ObjectSummary>) item).iterator();
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public S3ObjectSummary next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return batch.next();
+        }
+
+        @Override
+        public void close() {
+
+            pool.shutdownNow();
+            segments.clear();
+            current = null;
+            batch = Collections.emptyIterator();
+        }
+
+        private Object take() {
+
+            try {
+                return current.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new AmazonClientException("Listing interrupted", e);
+            }
+        }
+
+        private Void listShard(final Range range, final BlockingQueue<Object> queue, final int index)
+            throws InterruptedException {
+
+            ListObjectsRequest request = new ListObjectsRequest().withBucketName(bucketName)
+                .withPrefix(range.prefix);
+            if (range.from != null) {
+                // the marker is exclusive, start just before the range
+                request.setMarker(range.from.substring(0, range.from.offsetByCodePoints(range.from.length(), -1)));
+            }
+
+            try (S3ListingIterator listing = new S3ListingIterator(client, request, false)) {
+                List<S3ObjectSummary> page = new ArrayList<S3ObjectSummary>(PAGE_SIZE);
+                while (listing.hasNext()) {
+                    S3ObjectSummary summary = listing.next();
+                    String key = summary.getKey();
+                    if ((range.from != null) && (S3SyncManifest.KEY_ORDER.compare(key, range.from) < 0)) {
+                        continue;
+                    }
+                    if ((range.to != null) && (S3SyncManifest.KEY_ORDER.compare(key, range.to) >= 0)) {
+                        break;
+                    }
+
+                    page.add(summary);
+                    if (page.size() == PAGE_SIZE) {
+                        put(queue, page, index);
+                        page = new ArrayList<S3ObjectSummary>(PAGE_SIZE);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    put(queue, page, index);
+                }
+                queue.put(END);
+            } catch (RuntimeException e) {
+                queue.put(e);
+            }
+
+            return null;
+        }
+
+        private void put(final BlockingQueue<Object> queue, final List<S3ObjectSummary> page, final int index)
+            throws InterruptedException {
+
+            if (sorted) {
+                // the shard being drained never waits for the others
+                while (index > draining) {
+                    if (ahead.tryAcquire(AHEAD_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        queue.put(new Ahead(page));
+                        return;
+                    }
+                }
+            }
+
+            queue.put(page);
+        }
+    }
+} // S3ParallelLister
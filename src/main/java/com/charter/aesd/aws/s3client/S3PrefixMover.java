@@ -0,0 +1,390 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.charter.aesd.aws.s3client.object.S3MoveResult;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Moves every object under a prefix to another prefix of the same bucket.
+ * The source listing is streamed, objects are copied server side
+ * concurrently and the sources of the completed copies are deleted in
+ * batches of 1000 keys. Objects over 5 GB, which a single CopyObject
+ * rejects, are copied in parts, the parts run concurrently too.
+ * <p/>
+ * A move that is interrupted or fails can simply be run again. The
+ * destination prefix is listed alongside the source, an object already
+ * there with the same size and ETag is not copied again, only its source
+ * is deleted. A copy in parts gets an ETag of its own, it records the ETag
+ * of its source in its {@code source-etag} user metadata instead. An
+ * object uploaded in parts and copied whole gets a new ETag too, it is
+ * copied again. Retried copies are classified by {@link S3Retries}.
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.move.objectsInFlight              concurrent copies per move, default 32
+ * aws.s3Client.move.multipartCopyThresholdBytes  objects from this size are copied in parts, default 5 GB
+ * aws.s3Client.move.copyPartSizeBytes            default 512 MB
+ * aws.s3Client.move.copyRetries                  default 3
+ * aws.s3Client.move.threads                      size of the shared copy pools, default 64, read once
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3PrefixMover {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3PrefixMover.class);
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    private static final int MAX_PARTS = 10000;
+
+    /**
+     * User metadata of a copy in parts, the ETag of its source
+     */
+    static final String SOURCE_ETAG = "source-etag";
+
+    private static final DynamicIntProperty OBJECTS_IN_FLIGHT =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.move.objectsInFlight", 32);
+    private static final DynamicLongProperty MULTIPART_COPY_THRESHOLD_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.move.multipartCopyThresholdBytes",
+            5L * 1024 * 1024 * 1024);
+    private static final DynamicLongProperty COPY_PART_SIZE_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.move.copyPartSizeBytes",
+            512L * 1024 * 1024);
+    private static final DynamicIntProperty COPY_RETRIES =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.move.copyRetries", 3);
+
+    private static final int THREADS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.move.threads", 64).get();
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS,
+        new ThreadFactoryBuilder().setNameFormat("s3-copy-%d").setDaemon(true).build());
+
+    // the parts of a multipart copy run apart so object copies waiting on them cannot starve them
+    private static final ExecutorService PART_POOL = Executors.newFixedThreadPool(THREADS,
+        new ThreadFactoryBuilder().setNameFormat("s3-copy-part-%d").setDaemon(true).build());
+
+    private final AmazonS3Client client;
+    private final S3BatchDeleter deleter;
+
+    S3PrefixMover(final AmazonS3Client client, final S3BatchDeleter deleter) {
+
+        this.client = client;
+        this.deleter = deleter;
+    }
+
+    /**
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param sourcePrefix {@code String} prefix of the objects to move
+     * @param destPrefix {@code String} replaces the source prefix in the
+     *        moved keys
+     *
+     * @return {@link S3MoveResult} the count of moved objects and the error
+     *         of each object not moved
+     *
+     * @throws IOException if interrupted, the move can be run again
+     * @throws IllegalArgumentException if one prefix contains the other
+     */
+    S3MoveResult move(final String bucketName, final String sourcePrefix, final String destPrefix)
+        throws IOException {
+
+        if (sourcePrefix.startsWith(destPrefix) || destPrefix.startsWith(sourcePrefix)) {
+            throw new IllegalArgumentException("Cannot move " + sourcePrefix + " to " + destPrefix
+                + ", the prefixes overlap");
+        }
+
+        final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+        final List<String> copied = new ArrayList<String>(S3BatchDeleter.MAX_KEYS_PER_REQUEST);
+        final int objectsInFlight = Math.max(1, OBJECTS_IN_FLIGHT.get());
+        final CompletionService<String> completion = new ExecutorCompletionService<String>(POOL);
+        final Set<Future<String>> pending = new HashSet<Future<String>>();
+        long moved = 0;
+
+        try (S3ListingIterator sources = listing(bucketName, sourcePrefix);
+             S3ListingIterator destinations = listing(bucketName, destPrefix)) {
+            final PeekingIterator<S3ObjectSummary> existing = Iterators.peekingIterator(destinations);
+            while (sources.hasNext()) {
+                final S3ObjectSummary source = sources.next();
+                final String suffix = source.getKey().substring(sourcePrefix.length());
+
+                // both listings are in key order, the destination is walked along with the source
+                while (existing.hasNext()
+                    && (existing.peek().getKey().substring(destPrefix.length()).compareTo(suffix) < 0)) {
+                    existing.next();
+                }
+                if (existing.hasNext() && isCopyOf(bucketName, existing.peek(), suffix, destPrefix, source)) {
+                    copied.add(source.getKey());
+                } else {
+                    if (pending.size() == objectsInFlight) {
+                        collect(completion, pending, copied);
+                    }
+                    pending.add(completion.submit(copy(bucketName, source, destPrefix + suffix, failures)));
+                }
+
+                if (copied.size() >= S3BatchDeleter.MAX_KEYS_PER_REQUEST) {
+                    moved += deleteSources(bucketName, copied, failures);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                collect(completion, pending, copied);
+                if (copied.size() >= S3BatchDeleter.MAX_KEYS_PER_REQUEST) {
+                    moved += deleteSources(bucketName, copied, failures);
+                }
+            }
+            moved += deleteSources(bucketName, copied, failures);
+        } catch (InterruptedException e) {
+            for (Future<String> future : pending) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Move of " + bucketName + "/" + sourcePrefix + " interrupted");
+        } catch (ExecutionException e) {
+            // copy records its failures and its interruptions, only an Error gets here
+            throw new IOException(e.getCause());
+        }
+
+        if (!failures.isEmpty()) {
+            LOGGER.warn("Could not move " + failures.size() + " objects of " + bucketName + "/" + sourcePrefix);
+        }
+
+        return new S3MoveResult(moved, failures);
+    }
+
+    private S3ListingIterator listing(final String bucketName, final String prefix) {
+
+        return new S3ListingIterator(client,
+            new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix), true);
+    }
+
+    /**
+     * The source is deleted without a copy when this is true, anything not
+     * known to hold the same content is copied again
+     */
+    private boolean isCopyOf(final String bucketName, final S3ObjectSummary candidate, final String suffix,
+                             final String destPrefix, final S3ObjectSummary source) {
+
+        if (!candidate.getKey().substring(destPrefix.length()).equals(suffix)
+            || (candidate.getSize() != source.getSize()) || (source.getETag() == null)) {
+            return false;
+        }
+        if (source.getETag().equals(candidate.getETag())) {
+            return true;
+        }
+        if ((candidate.getETag() == null) || (candidate.getETag().indexOf('-') < 0)) {
+            return false;
+        }
+
+        try {
+            ObjectMetadata metadata = METRICS.time("getObjectMetadata", bucketName,
+                () -> client.getObjectMetadata(bucketName, candidate.getKey()));
+            return source.getETag().equals(metadata.getUserMetaDataOf(SOURCE_ETAG));
+        } catch (AmazonClientException e) {
+            LOGGER.warn("Could not check " + bucketName + "/" + candidate.getKey() + ", copying it again", e);
+            return false;
+        }
+    }
+
+    private static void collect(final CompletionService<String> completion, final Set<Future<String>> pending,
+                                final List<String> copied) throws InterruptedException, ExecutionException {
+
+        final Future<String> done = completion.take();
+        pending.remove(done);
+        final String sourceKey = done.get();
+        if (sourceKey != null) {
+            copied.add(sourceKey);
+        }
+    }
+
+    private long deleteSources(final String bucketName, final List<String> copied,
+                               final Map<String, String> failures) throws IOException {
+
+        if (copied.isEmpty()) {
+            return 0;
+        }
+
+        final S3DeleteResult result = deleter.delete(bucketName, copied.iterator());
+        for (Map.Entry<String, String> failure : result.getFailures().entrySet()) {
+            failures.put(failure.getKey(), "Copied but not deleted, " + failure.getValue());
+        }
+        copied.clear();
+
+        return result.getDeletedCount();
+    }
+
+    /**
+     * @return the source key once copied, null when the copy failed
+     */
+    private Callable<String> copy(final String bucketName, final S3ObjectSummary source, final String destKey,
+                                  final Map<String, String> failures) {
+
+        return () -> {
+            try {
+                if (source.getSize() >= MULTIPART_COPY_THRESHOLD_BYTES.get()) {
+                    copyInParts(bucketName, source, destKey);
+                } else {
+                    CopyObjectRequest request = new CopyObjectRequest(bucketName, source.getKey(), bucketName, destKey);
+                    retrying("copyObject", bucketName, () -> client.copyObject(request));
+                }
+                METRICS.addBytes("copyObject", bucketName, source.getSize());
+                return source.getKey();
+            } catch (AmazonClientException e) {
+                failures.put(source.getKey(), e.getMessage());
+                return null;
+            } catch (InterruptedException e) {
+                // the source stays, the move can be run again
+                failures.put(source.getKey(), "Copy interrupted");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        };
+    }
+
+    private void copyInParts(final String bucketName, final S3ObjectSummary source, final String destKey)
+        throws InterruptedException {
+
+        final String sourceKey = source.getKey();
+        final long size = source.getSize();
+        // S3 allows 10000 parts, grow the parts of very large objects
+        final long partSize = Math.max(COPY_PART_SIZE_BYTES.get(), (size + MAX_PARTS - 1) / MAX_PARTS);
+
+        // a multipart copy does not carry the metadata over like CopyObject does
+        final ObjectMetadata sourceMetadata = retrying("getObjectMetadata", bucketName,
+            () -> client.getObjectMetadata(bucketName, sourceKey));
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(sourceMetadata.getUserMetadata());
+        metadata.addUserMetadata(SOURCE_ETAG, source.getETag());
+        metadata.setContentType(sourceMetadata.getContentType());
+        metadata.setContentEncoding(sourceMetadata.getContentEncoding());
+        metadata.setContentDisposition(sourceMetadata.getContentDisposition());
+        metadata.setCacheControl(sourceMetadata.getCacheControl());
+
+        final String uploadId = METRICS.time("initiateMultipartUpload", bucketName,
+            () -> client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, destKey, metadata)).getUploadId());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Started multipart copy " + uploadId + " of " + bucketName + "/" + sourceKey + ", "
+                + size + " bytes in parts of " + partSize);
+        }
+
+        final List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+        final List<PartETag> etags = new ArrayList<PartETag>();
+        try {
+            int partNumber = 1;
+            for (long first = 0; first < size; first += partSize) {
+                CopyPartRequest request = new CopyPartRequest().withSourceBucketName(bucketName)
+                    .withSourceKey(sourceKey).withMatchingETagConstraint(source.getETag())
+                    .withDestinationBucketName(bucketName).withDestinationKey(destKey)
+                    .withUploadId(uploadId).withPartNumber(partNumber++)
+                    .withFirstByte(first).withLastByte(Math.min(first + partSize, size) - 1);
+                parts.add(PART_POOL.submit(() -> {
+                    CopyPartResult result = retrying("copyPart", bucketName, () -> client.copyPart(request));
+                    // null when the source no longer matches the ETag it was listed with
+                    if (result == null) {
+                        throw new AmazonClientException("Source " + bucketName + "/" + sourceKey
+                            + " changed during copy");
+                    }
+                    return result.getPartETag();
+                }));
+            }
+
+            for (Future<PartETag> part : parts) {
+                etags.add(part.get());
+            }
+
+            METRICS.time("completeMultipartUpload", bucketName, () -> client.completeMultipartUpload(
+                new CompleteMultipartUploadRequest(bucketName, destKey, uploadId, etags)));
+        } catch (InterruptedException e) {
+            abort(bucketName, destKey, uploadId, parts);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            abort(bucketName, destKey, uploadId, parts);
+            throw (cause instanceof AmazonClientException)
+                ? (AmazonClientException) cause : new AmazonClientException("Part copy failed", cause);
+        } catch (AmazonClientException e) {
+            abort(bucketName, destKey, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private void abort(final String bucketName, final String destKey, final String uploadId,
+                       final List<Future<PartETag>> parts) {
+
+        for (Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+
+        try {
+            METRICS.time("abortMultipartUpload", bucketName, () -> {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, destKey, uploadId));
+                return null;
+            });
+        } catch (AmazonClientException e) {
+            // the bucket lifecycle has to clean up, keep the original failure
+            LOGGER.warn("Could not abort multipart copy " + uploadId + " of " + bucketName + "/" + destKey, e);
+        }
+    }
+
+    private static <T> T retrying(final String op, final String bucketName, final Supplier<T> request)
+        throws InterruptedException {
+
+        for (int attempt = 0;; attempt++) {
+            try {
+                return METRICS.time(op, bucketName, request::get);
+            } catch (AmazonClientException e) {
+                if ((attempt >= COPY_RETRIES.get()) || !S3Retries.isRetryable(e)) {
+                    throw e;
+                }
+                LOGGER.warn("Retrying " + op + " in " + bucketName + ": " + e.getMessage());
+                S3Retries.backoff(attempt);
+            }
+        }
+    }
+} // S3PrefixMover
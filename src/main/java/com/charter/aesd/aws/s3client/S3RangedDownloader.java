@@ -0,0 +1,539 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3EncryptionClient;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Downloads large objects from S3 with concurrent ranged GETs. The first
+ * range is always requested alone: its response carries the size of the
+ * object, so an object that fits in one range costs a single request. The
+ * following ranges are pinned to the ETag of the first one, an object
+ * replaced during the download fails it instead of mixing two versions.
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.s3Client.rangedGet.rangeSizeBytes    default 8 MB
+ * aws.s3Client.rangedGet.rangesInFlight    ranges downloaded concurrently per object, default 8
+ * aws.s3Client.rangedGet.rangeRetries      default 3
+ * aws.s3Client.rangedGet.threads           size of the shared download pool, default 32, read once
+ * aws.s3Client.verifyChecksums             check the length of every range and the MD5 of the object
+ * </pre>
+ *
+ * A range is read into a buffer of the {@link BufferPool}, given back once
+ * the range is written or read through, or when the stream is closed.
+ *
+ * With {@code verifyChecksums} set a range shorter or longer than asked for
+ * is retried, and the object is checked against its ETag when the ETag is
+ * an MD5: as the stream is read for {@link #open(String, String)}, by
+ * reading the file back once written for
+ * {@link #download(String, String, File)}.
+ *
+ * The encryption client cannot decrypt arbitrary ranges, it always gets a
+ * single request.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3RangedDownloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3RangedDownloader.class);
+
+    private static final ClientMetrics METRICS = MetricsRegistry.getInstance().forService("S3");
+
+    private static final DynamicLongProperty RANGE_SIZE_BYTES =
+        DynamicPropertyFactory.getInstance().getLongProperty("aws.s3Client.rangedGet.rangeSizeBytes",
+            8L * 1024 * 1024);
+    private static final DynamicIntProperty RANGES_IN_FLIGHT =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.rangedGet.rangesInFlight", 8);
+    private static final DynamicIntProperty RANGE_RETRIES =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.rangedGet.rangeRetries", 3);
+    private static final DynamicBooleanProperty VERIFY_CHECKSUMS =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.s3Client.verifyChecksums", false);
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.s3Client.rangedGet.threads", 32).get(),
+        new ThreadFactoryBuilder().setNameFormat("s3-download-%d").setDaemon(true).build());
+
+    private final AmazonS3Client client;
+
+    S3RangedDownloader(final AmazonS3Client client) {
+
+        this.client = client;
+    }
+
+    /**
+     * Opens the object as a stream that reads ahead up to
+     * {@code rangesInFlight} ranges.
+     *
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param path {@code String} key of the object
+     *
+     * @return {@link InputStream} the content in order, closing it cancels
+     *         the ranges still downloading
+     *
+     * @throws IOException if the first range cannot be downloaded
+     */
+    InputStream open(final String bucketName, final String path) throws IOException {
+
+        if (client instanceof AmazonS3EncryptionClient) {
+            S3Object object = METRICS.time("getObject", bucketName,
+                () -> client.getObject(new GetObjectRequest(bucketName, path)));
+            return Compression.forObject(object.getObjectMetadata())
+                .decompress(METRICS.meter("getObject", bucketName, object.getObjectContent()));
+        }
+
+        Range first = firstRange(bucketName, path);
+        return first.compression.decompress(stream(bucketName, path, first));
+    }
+
+    /**
+     * Downloads the object into a file, each range is written at its offset
+     * as it arrives. The file is deleted if the download fails.
+     *
+     * @param bucketName {@code String} name of the S3 bucket
+     * @param path {@code String} key of the object
+     * @param file {@link File} the destination, replaced if it exists
+     *
+     * @throws IOException if a range cannot be downloaded or written
+     */
+    void download(final String bucketName, final String path, final File file) throws IOException {
+
+        if (client instanceof AmazonS3EncryptionClient) {
+            try (InputStream in = open(bucketName, path)) {
+                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Range first = firstRange(bucketName, path);
+            if (first.compression != Compression.NONE) {
+                // the ranges are compressed bytes, only the stream as a whole decompresses
+                try (InputStream in = first.compression.decompress(stream(bucketName, path, first))) {
+                    BufferPool.copy(in, channel);
+                }
+                complete = true;
+                return;
+            }
+            try {
+                write(channel, first.content, 0);
+            } finally {
+                BufferPool.release(first.content);
+            }
+
+            CompletionService<Void> completion = new ExecutorCompletionService<Void>(POOL);
+            List<Future<Void>> pending = new ArrayList<Future<Void>>();
+            int done = 0;
+            try {
+                for (long start = first.length; start < first.objectLength; start += first.rangeSize) {
+                    if (pending.size() - done >= first.rangesInFlight) {
+                        completion.take().get();
+                        done++;
+                    }
+
+                    long end = Math.min(start + first.rangeSize, first.objectLength) - 1;
+                    pending.add(completion.submit(rangeToChannel(bucketName, path, first.etag, start, end,
+                        channel)));
+                }
+
+                for (; done < pending.size(); done++) {
+                    completion.take().get();
+                }
+
+                if (VERIFY_CHECKSUMS.get() && (first.md5 != null)) {
+                    // the ranges were written out of order, the file is read back for the MD5
+                    try (InputStream in = new ChecksumInputStream(Files.newInputStream(file.toPath()),
+                        bucketName + "/" + path, first.md5, first.objectLength)) {
+                        ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + bucketName + "/" + path + " interrupted");
+            } catch (ExecutionException e) {
+                throw asIOException(e.getCause());
+            } finally {
+                for (Future<Void> future : pending) {
+                    future.cancel(true);
+                }
+            }
+
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * The first range and what it tells about the object
+     */
+    private static class Range {
+
+        private final ByteBuffer content;
+        private final int length;
+        private final long objectLength;
+        private final String etag;
+        private final String md5;
+        private final long rangeSize;
+        private final int rangesInFlight;
+        private final Compression compression;
+
+        Range(final ByteBuffer content, final long objectLength, final String etag, final String md5,
+              final long rangeSize, final Compression compression) {
+
+            this.content = content;
+            this.length = content.remaining();
+            this.objectLength = objectLength;
+            this.etag = etag;
+            this.md5 = md5;
+            this.rangeSize = rangeSize;
+            this.compression = compression;
+            this.rangesInFlight = Math.max(1, RANGES_IN_FLIGHT.get());
+        }
+    }
+
+    private Range firstRange(final String bucketName, final String path) throws IOException {
+
+        // a range fits in a buffer
+        long rangeSize = Math.max(1, Math.min(RANGE_SIZE_BYTES.get(), Integer.MAX_VALUE));
+        S3Object[] object = new S3Object[1];
+        ByteBuffer content = withRetries(bucketName, path, 0, () -> {
+            try {
+                object[0] = getRange(bucketName, path, null, 0, rangeSize - 1);
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() != 416) {
+                    throw e;
+                }
+                // an empty object has no range
+                object[0] = null;
+                return ByteBuffer.allocate(0);
+            }
+            return read(bucketName, path, object[0], 0, object[0].getObjectMetadata().getContentLength(),
+                (int) rangeSize);
+        });
+
+        if (object[0] == null) {
+            return new Range(content, 0, null, null, rangeSize, Compression.NONE);
+        }
+
+        // the length of the whole object, not of the range
+        long objectLength = object[0].getObjectMetadata().getInstanceLength();
+        if (LOGGER.isDebugEnabled() && (objectLength > content.remaining())) {
+            LOGGER.debug("Downloading " + bucketName + "/" + path + ", " + objectLength + " bytes in ranges of "
+                + rangeSize);
+        }
+
+        ObjectMetadata metadata = object[0].getObjectMetadata();
+        return new Range(content, objectLength, metadata.getETag(), ChecksumInputStream.isMd5(metadata.getETag(),
+            metadata.getSSEAlgorithm(), metadata.getSSECustomerAlgorithm()) ? metadata.getETag() : null, rangeSize,
+            Compression.forObject(metadata));
+    }
+
+    /**
+     * @return {@link InputStream} the ranges in order, checked against the
+     *         ETag with {@code aws.s3Client.verifyChecksums}
+     */
+    private InputStream stream(final String bucketName, final String path, final Range first) {
+
+        InputStream in = new RangeInputStream(bucketName, path, first);
+
+        return VERIFY_CHECKSUMS.get()
+            ? new ChecksumInputStream(in, bucketName + "/" + path, first.md5, first.objectLength) : in;
+    }
+
+    private S3Object getRange(final String bucketName, final String path, final String etag, final long start,
+                              final long end) {
+
+        GetObjectRequest request = new GetObjectRequest(bucketName, path).withRange(start, end);
+        if (etag != null) {
+            request.withMatchingETagConstraint(etag);
+        }
+
+        S3Object object = METRICS.time("getObjectRange", bucketName, () -> client.getObject(request));
+        if (object == null) {
+            // the SDK returns null when the ETag constraint is not met
+            throw new AmazonClientException(bucketName + "/" + path + " was replaced during the download");
+        }
+
+        return object;
+    }
+
+    /**
+     * @return {@link ByteBuffer} the range, flipped, from the pool and
+     *         released by the caller
+     */
+    private static ByteBuffer read(final String bucketName, final String path, final S3Object object,
+                                   final long start, final long length, final int capacity) throws IOException {
+
+        final ByteBuffer buffer = BufferPool.acquire(capacity);
+        boolean read = false;
+        try (ReadableByteChannel in = Channels.newChannel(checked(bucketName, path, object, start, length))) {
+            BufferPool.fill(in, buffer);
+            METRICS.addBytes("getObjectRange", bucketName, buffer.remaining());
+            read = true;
+            return buffer;
+        } finally {
+            if (!read) {
+                BufferPool.release(buffer);
+            }
+        }
+    }
+
+    private Callable<ByteBuffer> rangeToBuffer(final String bucketName, final String path, final Range first,
+                                               final long start, final long end) {
+
+        return () -> withRetries(bucketName, path, start,
+            () -> read(bucketName, path, getRange(bucketName, path, first.etag, start, end), start,
+                end - start + 1, (int) first.rangeSize));
+    }
+
+    private Callable<Void> rangeToChannel(final String bucketName, final String path, final String etag,
+                                          final long start, final long end, final FileChannel channel) {
+
+        return () -> withRetries(bucketName, path, start, () -> {
+            // a retry rewrites the range from its start
+            S3Object object = getRange(bucketName, path, etag, start, end);
+            ByteBuffer buffer = BufferPool.acquire(BufferPool.COPY_BUFFER_SIZE);
+            long position = start;
+            try (ReadableByteChannel in = Channels.newChannel(checked(bucketName, path, object, start,
+                end - start + 1))) {
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    int count = buffer.remaining();
+                    write(channel, buffer, position);
+                    position += count;
+                    buffer.clear();
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+            METRICS.addBytes("getObjectRange", bucketName, position - start);
+            return null;
+        });
+    }
+
+    /**
+     * @return {@link InputStream} the content of a range, failing the read
+     *         that finds it shorter or longer than {@code length} with
+     *         {@code aws.s3Client.verifyChecksums}, a retry gets it again
+     */
+    private static InputStream checked(final String bucketName, final String path, final S3Object object,
+                                       final long start, final long length) {
+
+        return VERIFY_CHECKSUMS.get() ? new ChecksumInputStream(object.getObjectContent(),
+            bucketName + "/" + path + " from " + start, null, length) : object.getObjectContent();
+    }
+
+    private static <T> T withRetries(final String bucketName, final String path, final long start,
+                                     final Callable<T> range) throws IOException {
+
+        for (int attempt = 0;; attempt++) {
+            try {
+                return range.call();
+            } catch (AmazonClientException | IOException e) {
+                if ((attempt >= RANGE_RETRIES.get()) || !S3Retries.isRetryable(e)) {
+                    throw asIOException(e);
+                }
+                LOGGER.warn("Retrying range " + start + " of " + bucketName + "/" + path + ": " + e.getMessage());
+            } catch (Exception e) {
+                throw asIOException(e);
+            }
+
+            try {
+                S3Retries.backoff(attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + bucketName + "/" + path + " interrupted");
+            }
+        }
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer, final long position)
+        throws IOException {
+
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static IOException asIOException(final Throwable e) {
+
+        return (e instanceof IOException) ? (IOException) e : new IOException(e.getMessage(), e);
+    }
+
+    /**
+     * Hands out the ranges in order, keeping {@code rangesInFlight} of them
+     * downloading ahead of the reader. The buffer of a range goes back to
+     * the pool once read through. The buffers of ranges downloaded and not
+     * taken yet are given back by the close, or by their download when it
+     * ends after the close.
+     */
+    private class RangeInputStream extends InputStream {
+
+        private final String bucketName;
+        private final String path;
+        private final Range first;
+        private final Deque<Future<ByteBuffer>> ahead = new ArrayDeque<Future<ByteBuffer>>();
+        private long nextStart;
+        private ByteBuffer current;
+        private final Set<ByteBuffer> downloaded =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>()));
+        private volatile boolean closed;
+
+        RangeInputStream(final String bucketName, final String path, final Range first) {
+
+            this.bucketName = bucketName;
+            this.path = path;
+            this.first = first;
+            this.current = first.content;
+            this.nextStart = first.length;
+            fill();
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            while (current != null) {
+                if (current.hasRemaining()) {
+                    int count = Math.min(len, current.remaining());
+                    current.get(b, off, count);
+                    return count;
+                }
+                BufferPool.release(current);
+                // a failing next() closes the stream, which must not release it again
+                current = null;
+                current = next();
+            }
+
+            return -1;
+        }
+
+        @Override
+        public int available() {
+
+            return (current == null) ? 0 : current.remaining();
+        }
+
+        @Override
+        public void close() {
+
+            closed = true;
+            for (Future<ByteBuffer> range : ahead) {
+                range.cancel(true);
+            }
+            ahead.clear();
+            synchronized (downloaded) {
+                for (ByteBuffer content : downloaded) {
+                    BufferPool.release(content);
+                }
+                downloaded.clear();
+            }
+            BufferPool.release(current);
+            current = null;
+        }
+
+        private ByteBuffer next() throws IOException {
+
+            Future<ByteBuffer> range = ahead.poll();
+            if (range == null) {
+                return null;
+            }
+
+            try {
+                ByteBuffer content = range.get();
+                downloaded.remove(content);
+                fill();
+                return content;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new InterruptedIOException("Download of " + bucketName + "/" + path + " interrupted");
+            } catch (ExecutionException e) {
+                close();
+                throw asIOException(e.getCause());
+            }
+        }
+
+        private void fill() {
+
+            while ((ahead.size() < first.rangesInFlight) && (nextStart < first.objectLength)) {
+                long end = Math.min(nextStart + first.rangeSize, first.objectLength) - 1;
+                Callable<ByteBuffer> range = rangeToBuffer(bucketName, path, first, nextStart, end);
+                ahead.add(POOL.submit(() -> {
+                    ByteBuffer content = range.call();
+                    downloaded.add(content);
+                    if (closed && downloaded.remove(content)) {
+                        // closed meanwhile, nobody takes it
+                        BufferPool.release(content);
+                    }
+                    return content;
+                }));
+                nextStart = end + 1;
+            }
+        }
+    }
+} // S3RangedDownloader
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import java.io.IOException;
+
+/**
+ * <p/>
+ * Which failures of a part, a range or a copy are worth sending again,
+ * shared by the multipart upload, the ranged download and the prefix move.
+ * <p/>
+ * These retries come on top of the {@code ClientConfiguration} retry
+ * policy on purpose. The SDK only retries a request until its response
+ * arrives: the content of a range that breaks while it is read, a copy or
+ * a completed upload whose 200 response carries an error, and a part that
+ * S3 rejects as damaged (BadDigest) reach the caller without a retry. A
+ * server error the SDK gave up on is retried here too, after a longer
+ * backoff, as losing one part or range fails the whole transfer; the
+ * attempts are then at most (maxErrorRetry + 1) x (retries + 1).
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+final class S3Retries {
+
+    private static final long BACKOFF_MILLIS = 100;
+
+    private S3Retries() {
+    }
+
+    /**
+     * @param e {@code Exception} the failure of an attempt
+     *
+     * @return {@code boolean} true for server errors, throttling, damaged
+     *         request content and connections dropped in the middle of
+     *         the content, false for a failure that would happen again
+     */
+    static boolean isRetryable(final Exception e) {
+
+        if (e instanceof AmazonServiceException) {
+            // a 4xx will fail again, but for a part damaged on the way, its buffer still holds the right bytes
+            AmazonServiceException serviceException = (AmazonServiceException) e;
+            return (serviceException.getStatusCode() >= 500) || (serviceException.getStatusCode() == 429)
+                || "SlowDown".equals(serviceException.getErrorCode())
+                || "InternalError".equals(serviceException.getErrorCode())
+                || "BadDigest".equals(serviceException.getErrorCode());
+        }
+        if (e instanceof AmazonClientException) {
+            return ((AmazonClientException) e).isRetryable();
+        }
+
+        return e instanceof IOException;
+    }
+
+    /**
+     * Waits before the next attempt, twice as long after every attempt.
+     *
+     * @param attempt {@code int} the attempt that failed, from 0
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void backoff(final int attempt) throws InterruptedException {
+
+        Thread.sleep(BACKOFF_MILLIS << attempt);
+    }
+} // S3Retries
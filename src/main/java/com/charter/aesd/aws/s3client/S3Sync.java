@@ -0,0 +1,335 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.S3DirectoryTransfer.FileTask;
+import com.charter.aesd.aws.s3client.S3DirectoryTransfer.Listener;
+import com.charter.aesd.aws.s3client.S3DirectoryTransfer.Transfer;
+import com.charter.aesd.aws.s3client.S3SyncManifest.Entry;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.charter.aesd.aws.s3client.object.S3SyncResult;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p/>
+ * Incremental sync of a local directory and a prefix. Each direction keeps a
+ * manifest of the files as they were after the last sync, see
+ * {@link S3SyncManifest}. The manifest and the new state of the source are
+ * merged as sorted streams and only the differences are applied, on the
+ * pool of {@link S3DirectoryTransfer}:
+ * <ul>
+ * <li>an upload compares the local tree to the manifest and does not list
+ * the prefix at all, a file is uploaded when its size or modification time
+ * changed and its MD5 is not the one of the manifest, uncompressed whatever
+ * the codec of the client. The prefix is expected to be written only
+ * through the sync.</li>
+ * <li>a download lists the prefix once and downloads the objects whose ETag
+ * changed, or whose local copy is missing or not the size it was
+ * downloaded with. The manifest records the size of the local copy, which
+ * is not the one of the listing for an object stored compressed.</li>
+ * </ul>
+ * Files gone from the source are deleted from the destination. A change
+ * that fails is left out of the manifest and retried by the next sync.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class S3Sync {
+
+    private final IS3Client client;
+
+    /**
+     * @param client {@link IS3Client} an {@link S3Client} or a {@link FileS3Client}
+     */
+    public S3Sync(IS3Client client) {
+
+        this.client = client;
+    }
+
+    /**
+     * Uploads the changes of a local tree since the last upload
+     *
+     * @param directory {@link File} local directory
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the uploaded files, "dir/" for a directory
+     * @param manifest {@link File} manifest of the last upload, created by the first one
+     * @return {@link S3SyncResult} the files uploaded, skipped and deleted
+     */
+    public S3SyncResult upload(File directory, String bucketName, String prefix, File manifest) throws IOException {
+
+        return upload(directory, bucketName, prefix, manifest, (path, bytes, skipped) -> { });
+    }
+
+    /**
+     * Uploads the changes of a local tree since the last upload
+     *
+     * @param directory {@link File} local directory
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the uploaded files, "dir/" for a directory
+     * @param manifest {@link File} manifest of the last upload, created by the first one
+     * @param listener {@link Listener} told about each file
+     * @return {@link S3SyncResult} the files uploaded, skipped and deleted
+     */
+    public S3SyncResult upload(File directory, String bucketName, String prefix, File manifest, Listener listener)
+        throws IOException {
+
+        final Path root = directory.toPath().toAbsolutePath();
+        // the walk is in no particular order, only the paths are held to sort it
+        final List<String> paths;
+        try (Stream<Path> files = FileTreeWalker.walk(root)) {
+            paths = files.map(file -> root.relativize(file).toString().replace(File.separatorChar, '/'))
+                .sorted(S3SyncManifest.KEY_ORDER).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final NavigableMap<String, Optional<Entry>> changes =
+            new ConcurrentSkipListMap<String, Optional<Entry>>(S3SyncManifest.KEY_ORDER);
+        final List<String> removed = new ArrayList<String>();
+        final Transfer transfer = new Transfer(listener);
+        try (S3SyncManifest.Reader reader = new S3SyncManifest.Reader(manifest)) {
+            final Iterator<Map.Entry<String, Entry>> merged = merge(paths.iterator(), path -> path, reader);
+            transfer.run(() -> {
+                while (merged.hasNext()) {
+                    final Map.Entry<String, Entry> next = merged.next();
+                    final String path = next.getKey();
+                    final Entry last = next.getValue();
+                    if (path == null) {
+                        removed.add(last.getPath());
+                        continue;
+                    }
+
+                    final File file = root.resolve(path).toFile();
+                    if ((last != null) && (last.getSize() == file.length())
+                        && (last.getLastModified() == file.lastModified())) {
+                        transfer.skipped(path, last.getSize());
+                        continue;
+                    }
+
+                    return new FileTask(path, () -> {
+                        // read before the upload, a file changed meanwhile is uploaded again by the next sync
+                        final long size = file.length();
+                        final long lastModified = file.lastModified();
+                        final String eTag = S3FileObject.fromFile(file).getObjectSummary().getETag();
+                        final Entry entry = new Entry(path, size, eTag, lastModified);
+                        if ((last != null) && (last.getSize() == size) && eTag.equals(last.getETag())) {
+                            // touched, not changed
+                            changes.put(path, Optional.of(entry));
+                            transfer.skipped(path, size);
+                            return null;
+                        }
+
+                        try (InputStream in = new FileInputStream(file)) {
+                            client.putUncompressed(bucketName, S3DirectoryTransfer.key(prefix, path), size, in);
+                        }
+                        changes.put(path, Optional.of(entry));
+                        transfer.transferred(path, size);
+                        return null;
+                    });
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        S3DeleteResult deleteResult = new S3DeleteResult(0, new HashMap<String, String>());
+        if (!removed.isEmpty()) {
+            deleteResult = client.deleteAll(bucketName,
+                removed.stream().map(path -> S3DirectoryTransfer.key(prefix, path)).collect(Collectors.toList()));
+            for (String path : removed) {
+                if (!deleteResult.getFailures().containsKey(S3DirectoryTransfer.key(prefix, path))) {
+                    changes.put(path, Optional.empty());
+                }
+            }
+        }
+
+        S3SyncManifest.update(manifest, changes);
+
+        return new S3SyncResult(transfer.result("Synced " + directory + " to " + bucketName + "/" + prefix),
+            deleteResult);
+    }
+
+    /**
+     * Downloads the changes of a prefix since the last download
+     *
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the files to download, "dir/" for a directory
+     * @param directory {@link File} local directory, created if needed
+     * @param manifest {@link File} manifest of the last download, created by the first one
+     * @return {@link S3SyncResult} the files downloaded, skipped and deleted
+     */
+    public S3SyncResult download(String bucketName, String prefix, File directory, File manifest)
+        throws IOException {
+
+        return download(bucketName, prefix, directory, manifest, (path, bytes, skipped) -> { });
+    }
+
+    /**
+     * Downloads the changes of a prefix since the last download
+     *
+     * @param bucketName name of the S3 bucket
+     * @param prefix <code>String</code> prefix of the files to download, "dir/" for a directory
+     * @param directory {@link File} local directory, created if needed
+     * @param manifest {@link File} manifest of the last download, created by the first one
+     * @param listener {@link Listener} told about each file
+     * @return {@link S3SyncResult} the files downloaded, skipped and deleted
+     */
+    public S3SyncResult download(String bucketName, String prefix, File directory, File manifest,
+                                 Listener listener) throws IOException {
+
+        final NavigableMap<String, Optional<Entry>> changes =
+            new ConcurrentSkipListMap<String, Optional<Entry>>(S3SyncManifest.KEY_ORDER);
+        final List<String> removed = new ArrayList<String>();
+        final Transfer transfer = new Transfer(listener);
+        try (Stream<S3ObjectSummary> listing = listing(bucketName, prefix);
+             S3SyncManifest.Reader reader = new S3SyncManifest.Reader(manifest)) {
+            final Iterator<Map.Entry<S3ObjectSummary, Entry>> merged = merge(listing.iterator(),
+                summary -> S3DirectoryTransfer.relative(prefix, summary.getKey()), reader);
+            transfer.run(() -> {
+                while (merged.hasNext()) {
+                    final Map.Entry<S3ObjectSummary, Entry> next = merged.next();
+                    final S3ObjectSummary remote = next.getKey();
+                    final Entry last = next.getValue();
+                    if (remote == null) {
+                        removed.add(last.getPath());
+                        continue;
+                    }
+
+                    final String path = S3DirectoryTransfer.relative(prefix, remote.getKey());
+                    final File file;
+                    try {
+                        file = S3DirectoryTransfer.local(directory, path);
+                    } catch (IOException e) {
+                        // a key climbing out of the directory, failed and left out of the manifest
+                        return new FileTask(path, () -> {
+                            throw e;
+                        });
+                    }
+                    if ((last != null) && (remote.getETag() != null) && remote.getETag().equals(last.getETag())
+                        && (file.length() == last.getSize()) && file.isFile()) {
+                        transfer.skipped(path, remote.getSize());
+                        continue;
+                    }
+
+                    return new FileTask(path, () -> {
+                        Files.createDirectories(file.getParentFile().toPath());
+                        client.download(bucketName, remote.getKey(), file);
+                        changes.put(path, Optional.of(new Entry(path, file.length(), remote.getETag(),
+                            (remote.getLastModified() == null) ? 0 : remote.getLastModified().getTime())));
+                        transfer.transferred(path, remote.getSize());
+                        return null;
+                    });
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        long deleted = 0;
+        final Map<String, String> failures = new HashMap<String, String>();
+        for (String path : removed) {
+            try {
+                Files.deleteIfExists(S3DirectoryTransfer.local(directory, path).toPath());
+                changes.put(path, Optional.empty());
+                deleted++;
+            } catch (IOException e) {
+                failures.put(path, String.valueOf(e.getMessage()));
+            }
+        }
+
+        S3SyncManifest.update(manifest, changes);
+
+        return new S3SyncResult(transfer.result("Synced " + bucketName + "/" + prefix + " to " + directory),
+            new S3DeleteResult(deleted, failures));
+    }
+
+    /**
+     * @return {@link Stream} of the files under the prefix in
+     *         {@link S3SyncManifest#KEY_ORDER}
+     */
+    private Stream<S3ObjectSummary> listing(final String bucketName, final String prefix) throws IOException {
+
+        final Stream<S3ObjectSummary> files = client.streamFiles(bucketName, prefix, true)
+            .filter(file -> !file.isDirectory()).map(S3FileObject::getObjectSummary)
+            .filter(summary -> S3DirectoryTransfer.relative(prefix, summary.getKey()) != null);
+        if (client instanceof FileS3Client) {
+            // S3 lists keys in order, a local walk does not
+            return files.sorted((left, right) -> S3SyncManifest.KEY_ORDER.compare(
+                S3DirectoryTransfer.relative(prefix, left.getKey()),
+                S3DirectoryTransfer.relative(prefix, right.getKey())));
+        }
+
+        return files;
+    }
+
+    /**
+     * Path of an item of the new state of the source
+     */
+    private interface PathOf<T> {
+
+        String path(T item);
+    }
+
+    /**
+     * Joins the new state of the source and the manifest, both in
+     * {@link S3SyncManifest#KEY_ORDER}. Each pair holds the item and the
+     * manifest entry of the same path, either may be null.
+     */
+    private static <T> Iterator<Map.Entry<T, Entry>> merge(final Iterator<T> items, final PathOf<T> pathOf,
+                                                           final Iterator<Entry> manifest) {
+
+        final PeekingIterator<T> sources = Iterators.peekingIterator(items);
+        final PeekingIterator<Entry> entries = Iterators.peekingIterator(manifest);
+
+        return new Iterator<Map.Entry<T, Entry>>() {
+
+            @Override
+            public boolean hasNext() {
+
+                return sources.hasNext() || entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<T, Entry> next() {
+
+                int order = !sources.hasNext() ? 1 : !entries.hasNext() ? -1
+                    : S3SyncManifest.KEY_ORDER.compare(pathOf.path(sources.peek()), entries.peek().getPath());
+                if (order < 0) {
+                    return new SimpleImmutableEntry<T, Entry>(sources.next(), null);
+                }
+                if (order > 0) {
+                    return new SimpleImmutableEntry<T, Entry>(null, entries.next());
+                }
+
+                return new SimpleImmutableEntry<T, Entry>(sources.next(), entries.next());
+            }
+        };
+    }
+} // S3Sync
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * <p/>
+ * The state of a prefix after the last sync: one line per file with its
+ * path below the prefix, size, ETag and modification time, sorted in the
+ * order S3 lists keys. A manifest is read and rewritten as a stream, a sync
+ * only holds the files that changed in memory. The new manifest is written
+ * next to the old one and moved over it, an interrupted sync leaves the
+ * previous manifest in place.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+class S3SyncManifest {
+
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * The order of S3 listings, UTF-8 bytes, which is the order of the code
+     * points and not the one of {@link String#compareTo(String)}
+     */
+    static final Comparator<String> KEY_ORDER = (left, right) -> {
+        int i = 0;
+        int j = 0;
+        while ((i < left.length()) && (j < right.length())) {
+            int leftCodePoint = left.codePointAt(i);
+            int rightCodePoint = right.codePointAt(j);
+            if (leftCodePoint != rightCodePoint) {
+                return Integer.compare(leftCodePoint, rightCodePoint);
+            }
+            i += Character.charCount(leftCodePoint);
+            j += Character.charCount(rightCodePoint);
+        }
+        return Boolean.compare(i < left.length(), j < right.length());
+    };
+
+    /**
+     * One file of the manifest
+     */
+    static class Entry {
+
+        private final String path;
+        private final long size;
+        private final String eTag;
+        private final long lastModified;
+
+        Entry(final String path, final long size, final String eTag, final long lastModified) {
+
+            this.path = path;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        String getPath() {
+
+            return path;
+        }
+
+        long getSize() {
+
+            return size;
+        }
+
+        String getETag() {
+
+            return eTag;
+        }
+
+        long getLastModified() {
+
+            return lastModified;
+        }
+
+        // the path goes last, it may hold tabs
+        private String format() {
+
+            return size + SEPARATOR + ((eTag == null) ? "" : eTag) + SEPARATOR + lastModified + SEPARATOR
+                + path.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+        }
+
+        private static Entry parse(final String line) throws IOException {
+
+            final String[] fields = line.split(SEPARATOR, 4);
+            if (fields.length != 4) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+
+            final StringBuilder path = new StringBuilder(fields[3].length());
+            for (int i = 0; i < fields[3].length(); i++) {
+                char c = fields[3].charAt(i);
+                if ((c == '\\') && (i + 1 < fields[3].length())) {
+                    c = fields[3].charAt(++i);
+                    c = (c == 'n') ? '\n' : (c == 'r') ? '\r' : c;
+                }
+                path.append(c);
+            }
+
+            try {
+                return new Entry(path.toString(), Long.parseLong(fields[0]), fields[1].isEmpty() ? null : fields[1],
+                    Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest line: " + line, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of a manifest in order, none if it does not exist
+     */
+    static class Reader implements Iterator<Entry>, Closeable {
+
+        private final BufferedReader reader;
+        private Entry next;
+
+        Reader(final File manifest) throws IOException {
+
+            reader = manifest.exists() ? Files.newBufferedReader(manifest.toPath(), Charsets.UTF_8) : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            if ((next == null) && (reader != null)) {
+                try {
+                    String line = reader.readLine();
+                    next = (line == null) ? null : Entry.parse(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Entry entry = next;
+            next = null;
+
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    private S3SyncManifest() {
+    }
+
+    /**
+     * Rewrites a manifest with the changes of a sync
+     *
+     * @param manifest {@link File} the manifest, created if it does not exist
+     * @param changes {@link NavigableMap} in {@link #KEY_ORDER} of the path
+     *        to its new entry, empty for a file that no longer exists
+     */
+    static void update(final File manifest, final NavigableMap<String, Optional<Entry>> changes) throws IOException {
+
+        final Path target = manifest.toPath().toAbsolutePath();
+        final Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        Files.createDirectories(target.getParent());
+
+        try (Reader reader = new Reader(manifest);
+             BufferedWriter writer = Files.newBufferedWriter(temp, Charsets.UTF_8)) {
+            final PeekingIterator<Entry> entries = Iterators.peekingIterator(reader);
+            final PeekingIterator<Map.Entry<String, Optional<Entry>>> updates =
+                Iterators.peekingIterator(changes.entrySet().iterator());
+
+            while (entries.hasNext() || updates.hasNext()) {
+                int order = !entries.hasNext() ? 1 : !updates.hasNext() ? -1
+                    : KEY_ORDER.compare(entries.peek().getPath(), updates.peek().getKey());
+                Optional<Entry> entry;
+                if (order < 0) {
+                    entry = Optional.of(entries.next());
+                } else {
+                    if (order == 0) {
+                        entries.next();
+                    }
+                    entry = updates.next().getValue();
+                }
+
+                if (entry.isPresent()) {
+                    writer.write(entry.get().format() + "\n");
+                }
+            }
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temp);
+            throw e.getCause();
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+} // S3SyncManifest
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.s3client.object;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * Hex MD5 digests of local files, the ETag of the file in S3 terms. A
+ * digest is computed once per path, size and modification time and kept in
+ * a bounded cache. When an index file is configured the digests are also
+ * appended to it and loaded back on start, a restarted process does not
+ * read its files again. Once the index holds more than twice the digests
+ * cached (plus some slack) it is rewritten with the cached ones only.
+ * Configured through Archaius:
+ *
+ * <pre>
+ * aws.lib.fileDigest.maxEntries    default 100000, read once
+ * aws.lib.fileDigest.indexFile     path of the persistent index, none by default, read once
+ * </pre>
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+final class FileDigests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileDigests.class);
+
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * Lines the index may hold above twice the digests cached before it is
+     * rewritten
+     */
+    private static final int COMPACTION_SLACK = 1000;
+
+    private static final Cache<String, String> DIGESTS = CacheBuilder.newBuilder()
+        .maximumSize(DynamicPropertyFactory.getInstance().getLongProperty("aws.lib.fileDigest.maxEntries", 100000).get())
+        .build();
+
+    // lines in the index, guarded by the class
+    private static int indexLines;
+
+    // null when there is no index, appends are guarded by the class
+    private static final File INDEX = loadIndex(
+        DynamicPropertyFactory.getInstance().getStringProperty("aws.lib.fileDigest.indexFile", null).get());
+
+    private FileDigests() {
+    }
+
+    /**
+     * @param file {@link File} a regular file
+     *
+     * @return {@code String} the hex MD5 of the content, computed only if
+     *         the file changed since the last call
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static String md5(final File file) throws IOException {
+
+        final String key = key(file);
+        final String cached = DIGESTS.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String digest = Files.hash(file, Hashing.md5()).toString();
+        if (!key.equals(key(file))) {
+            // written while it was read, the digest may be of neither version
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Not caching the digest of " + file + ", it changed while it was read");
+            }
+            return digest;
+        }
+
+        DIGESTS.put(key, digest);
+        append(key, digest);
+
+        return digest;
+    }
+
+    /**
+     * @return {@code String} the digest of the file if it is known, null
+     *         otherwise, the file is not read
+     */
+    static String getIfPresent(final File file) {
+
+        return DIGESTS.getIfPresent(key(file));
+    }
+
+    /**
+     * Records the digest of a file computed while it was written
+     */
+    static void put(final File file, final String digest) {
+
+        final String key = key(file);
+        DIGESTS.put(key, digest);
+        append(key, digest);
+    }
+
+    // "dir/./file" and "dir/file" are the same file
+    private static String key(final File file) {
+
+        return file.length() + SEPARATOR + file.lastModified() + SEPARATOR
+            + file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static void append(final String key, final String digest) {
+
+        if (INDEX == null) {
+            return;
+        }
+
+        synchronized (FileDigests.class) {
+            if (++indexLines > 2 * DIGESTS.size() + COMPACTION_SLACK) {
+                // the digest was cached first, it is written along
+                compact(INDEX);
+                return;
+            }
+
+            try (Writer writer = java.nio.file.Files.newBufferedWriter(INDEX.toPath(), Charsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(digest + SEPARATOR + key + "\n");
+            } catch (IOException e) {
+                LOGGER.warn("Could not write to the digest index " + INDEX, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the index with the digests cached, dropping the ones of
+     * files since changed or evicted, guarded by the class
+     */
+    private static void compact(final File index) {
+
+        final File temp = new File(index.getPath() + ".tmp");
+        int written = 0;
+        try {
+            try (Writer writer = java.nio.file.Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : DIGESTS.asMap().entrySet()) {
+                    writer.write(entry.getValue() + SEPARATOR + entry.getKey() + "\n");
+                    written++;
+                }
+            }
+            java.nio.file.Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not rewrite the digest index " + index, e);
+            return;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Rewrote " + index + " with " + written + " digests out of " + indexLines + " lines");
+        }
+        indexLines = written;
+    }
+
+    /**
+     * Lines are "digest size lastModified path", tab separated. A digest is
+     * only used while the size and modification time of the file match.
+     */
+    private static File loadIndex(final String path) {
+
+        if (path == null) {
+            return null;
+        }
+
+        final File index = new File(path);
+        if (!index.exists()) {
+            return index;
+        }
+
+        int loaded = 0;
+        try (BufferedReader reader = java.nio.file.Files.newBufferedReader(index.toPath(), Charsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int tab = line.indexOf(SEPARATOR);
+                if (tab > 0) {
+                    DIGESTS.put(line.substring(tab + 1), line.substring(0, tab));
+                    loaded++;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the digest index " + index, e);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Loaded " + loaded + " digests from " + index);
+        }
+
+        synchronized (FileDigests.class) {
+            indexLines = loaded;
+            if (indexLines > 2 * DIGESTS.size() + COMPACTION_SLACK) {
+                compact(index);
+            }
+        }
+
+        return index;
+    }
+} // FileDigests
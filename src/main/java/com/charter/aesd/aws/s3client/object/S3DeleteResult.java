@@ -0,0 +1,63 @@
+package com.charter.aesd.aws.s3client.object;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a batch delete: the number of files deleted and the error of
+ * every file that could not be deleted
+ *
+ */
+public class S3DeleteResult {
+
+    private final long deletedCount;
+    private final Map<String, String> failures;
+
+    /**
+     * Constructor for {@link S3DeleteResult}
+     *
+     * @param deletedCount number of files deleted
+     * @param failures error message per path not deleted
+     */
+    public S3DeleteResult(long deletedCount, Map<String, String> failures) {
+
+        this.deletedCount = deletedCount;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the number of files deleted
+     *
+     * @return <code>long</code>
+     */
+    public long getDeletedCount() {
+
+        return deletedCount;
+    }
+
+    /**
+     * Returns the paths that could not be deleted with the reason
+     *
+     * @return {@link Map} of path to error message
+     */
+    public Map<String, String> getFailures() {
+
+        return failures;
+    }
+
+    /**
+     * Returns true if every file was deleted
+     *
+     * @return {@link Boolean}
+     */
+    public boolean isSuccessful() {
+
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+
+        return "deleted " + deletedCount + ", failed " + failures.size();
+    }
+}
@@ -5,9 +5,6 @@ import com.amazonaws.services.s3.model.Owner;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.charter.aesd.aws.s3client.FileS3Client;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import com.netflix.config.DynamicPropertyFactory;
 
 import java.io.File;
@@ -16,12 +13,17 @@ import java.util.Date;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * File object wrapper for {@link S3ObjectSummary}
  *
  */
 public class S3FileObject {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3FileObject.class);
+
     private final S3ObjectSummary objectSummary;
     private final String name;
     private final String absolutePath;
@@ -163,9 +165,40 @@ public class S3FileObject {
         return DynamicPropertyFactory.getInstance().getBooleanProperty(FileS3Client.BUCKET_NAME_AS_PATH, false).get();
     }
 
+    /**
+     * Returns the ETag of a local file if it was already computed, the file
+     * is not read
+     *
+     * @param file
+     * @return {@code String} hex MD5 of the content, null if not known
+     */
+    public static String getCachedETag(File file) {
+
+        return FileDigests.getIfPresent(file);
+    }
+
+    /**
+     * Records the ETag of a local file, computed while the file was written
+     *
+     * @param file
+     * @param eTag hex MD5 of the content
+     */
+    public static void setCachedETag(File file, String eTag) {
+
+        FileDigests.put(file, eTag);
+    }
+
+    /**
+     * Creates the summary of a local file from its metadata only, the file
+     * is read the first time the ETag (hex MD5 of the content) is asked for
+     *
+     * @param file
+     * @return {@link S3ObjectSummary}
+     * @throws IOException
+     */
     public static S3ObjectSummary createS3ObjectSummary(File file) throws IOException {
 
-        final S3ObjectSummary objectSummary = new S3ObjectSummary();
+        final S3ObjectSummary objectSummary = new FileObjectSummary(file);
         objectSummary.setKey(file.getAbsolutePath());
         objectSummary.setLastModified(new Date(file.lastModified()));
         objectSummary.setOwner(new Owner("system", "system"));
@@ -173,12 +206,48 @@ public class S3FileObject {
         objectSummary.setSize(file.length());
         objectSummary.setStorageClass("");
 
-        if (!file.isDirectory()) {
-            final HashCode md5 = Files.hash(file, Hashing.md5());
-            final byte[] bytes = md5.asBytes();
-            objectSummary.setETag(bytes.toString());
-        }
         return objectSummary;
     }
 
+    /**
+     * Summary of a local file computing its ETag on demand, see
+     * {@link FileDigests}
+     */
+    private static class FileObjectSummary extends S3ObjectSummary {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private volatile boolean digested;
+
+        FileObjectSummary(File file) {
+
+            this.file = file;
+            // directories have no ETag, as in S3
+            this.digested = file.isDirectory();
+        }
+
+        @Override
+        public String getETag() {
+
+            if (!digested) {
+                try {
+                    super.setETag(FileDigests.md5(file));
+                } catch (IOException e) {
+                    LOGGER.warn("Could not compute the ETag of " + file, e);
+                }
+                digested = true;
+            }
+
+            return super.getETag();
+        }
+
+        @Override
+        public void setETag(String eTag) {
+
+            super.setETag(eTag);
+            digested = true;
+        }
+    }
+
 }
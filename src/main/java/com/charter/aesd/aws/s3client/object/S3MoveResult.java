@@ -0,0 +1,65 @@
+package com.charter.aesd.aws.s3client.object;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a prefix move: the number of files moved and the error of
+ * every file left at its source
+ *
+ */
+public class S3MoveResult {
+
+    private final long movedCount;
+    private final Map<String, String> failures;
+
+    /**
+     * Constructor for {@link S3MoveResult}
+     *
+     * @param movedCount number of files moved
+     * @param failures error message per source path not moved
+     */
+    public S3MoveResult(long movedCount, Map<String, String> failures) {
+
+        this.movedCount = movedCount;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the number of files copied to the destination and deleted
+     * from the source
+     *
+     * @return <code>long</code>
+     */
+    public long getMovedCount() {
+
+        return movedCount;
+    }
+
+    /**
+     * Returns the source paths that were not moved with the reason, a path
+     * may have been copied but not deleted
+     *
+     * @return {@link Map} of source path to error message
+     */
+    public Map<String, String> getFailures() {
+
+        return failures;
+    }
+
+    /**
+     * Returns true if every file was moved
+     *
+     * @return {@link Boolean}
+     */
+    public boolean isSuccessful() {
+
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+
+        return "moved " + movedCount + ", failed " + failures.size();
+    }
+}
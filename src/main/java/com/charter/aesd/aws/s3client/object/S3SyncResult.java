@@ -0,0 +1,60 @@
+package com.charter.aesd.aws.s3client.object;
+
+/**
+ * Outcome of an incremental sync: the files transferred or skipped and the
+ * files deleted because they no longer exist on the source side
+ *
+ */
+public class S3SyncResult {
+
+    private final S3TransferResult transferResult;
+    private final S3DeleteResult deleteResult;
+
+    /**
+     * Constructor for {@link S3SyncResult}
+     *
+     * @param transferResult files transferred and skipped
+     * @param deleteResult files deleted
+     */
+    public S3SyncResult(S3TransferResult transferResult, S3DeleteResult deleteResult) {
+
+        this.transferResult = transferResult;
+        this.deleteResult = deleteResult;
+    }
+
+    /**
+     * Returns the files transferred and skipped
+     *
+     * @return {@link S3TransferResult}
+     */
+    public S3TransferResult getTransferResult() {
+
+        return transferResult;
+    }
+
+    /**
+     * Returns the files deleted
+     *
+     * @return {@link S3DeleteResult}
+     */
+    public S3DeleteResult getDeleteResult() {
+
+        return deleteResult;
+    }
+
+    /**
+     * Returns true if every change was applied
+     *
+     * @return {@link Boolean}
+     */
+    public boolean isSuccessful() {
+
+        return transferResult.isSuccessful() && deleteResult.isSuccessful();
+    }
+
+    @Override
+    public String toString() {
+
+        return transferResult + ", " + deleteResult;
+    }
+}
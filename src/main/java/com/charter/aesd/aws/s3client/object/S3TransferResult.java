@@ -0,0 +1,115 @@
+package com.charter.aesd.aws.s3client.object;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a directory upload or download: the files transferred and
+ * skipped, the bytes transferred and the error of every file that failed
+ *
+ */
+public class S3TransferResult {
+
+    private final long transferredFiles;
+    private final long skippedFiles;
+    private final long transferredBytes;
+    private final long elapsedMillis;
+    private final Map<String, String> failures;
+
+    /**
+     * Constructor for {@link S3TransferResult}
+     *
+     * @param transferredFiles number of files transferred
+     * @param skippedFiles number of files already up to date
+     * @param transferredBytes bytes of the transferred files
+     * @param elapsedMillis duration of the transfer
+     * @param failures error message per path not transferred
+     */
+    public S3TransferResult(long transferredFiles, long skippedFiles, long transferredBytes, long elapsedMillis,
+                            Map<String, String> failures) {
+
+        this.transferredFiles = transferredFiles;
+        this.skippedFiles = skippedFiles;
+        this.transferredBytes = transferredBytes;
+        this.elapsedMillis = elapsedMillis;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the number of files transferred
+     *
+     * @return <code>long</code>
+     */
+    public long getTransferredFiles() {
+
+        return transferredFiles;
+    }
+
+    /**
+     * Returns the number of files skipped, the same size and ETag on both
+     * sides
+     *
+     * @return <code>long</code>
+     */
+    public long getSkippedFiles() {
+
+        return skippedFiles;
+    }
+
+    /**
+     * Returns the bytes of the transferred files
+     *
+     * @return <code>long</code>
+     */
+    public long getTransferredBytes() {
+
+        return transferredBytes;
+    }
+
+    /**
+     * Returns the duration of the transfer
+     *
+     * @return <code>long</code> milliseconds
+     */
+    public long getElapsedMillis() {
+
+        return elapsedMillis;
+    }
+
+    /**
+     * Returns the aggregate throughput of the transfer
+     *
+     * @return <code>double</code> bytes per second
+     */
+    public double getBytesPerSecond() {
+
+        return (elapsedMillis == 0) ? transferredBytes : (transferredBytes * 1000.0) / elapsedMillis;
+    }
+
+    /**
+     * Returns the paths that could not be transferred with the reason
+     *
+     * @return {@link Map} of path to error message
+     */
+    public Map<String, String> getFailures() {
+
+        return failures;
+    }
+
+    /**
+     * Returns true if every file was transferred or skipped
+     *
+     * @return {@link Boolean}
+     */
+    public boolean isSuccessful() {
+
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+
+        return "transferred " + transferredFiles + " (" + transferredBytes + " bytes), skipped " + skippedFiles
+            + ", failed " + failures.size() + " in " + elapsedMillis + " ms";
+    }
+}
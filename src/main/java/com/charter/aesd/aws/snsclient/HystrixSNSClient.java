@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.snsclient;
+
+import com.charter.aesd.aws.util.AWSCommand;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p/>
+ * {@link ISNSClient} decorator that runs every call of the wrapped client in
+ * an {@link AWSCommand}. Publishing and Topic/subscription administration use
+ * separate thread pools ({@code SNS-publish}, {@code SNS-admin}) and each
+ * Topic has its own command keys, so a slow or failing Topic opens its own
+ * circuit without affecting the others.
+ * <p/>
+ * Publishes are not collapsed: the SNS API of this SDK version has no batch
+ * publish, {@link #publishMessages(String, List)} still sends one request per
+ * message.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class HystrixSNSClient implements ISNSClient {
+
+    private static final String SERVICE = "SNS";
+
+    /**
+     * The bulkheads, with their default size and command timeout
+     */
+    private enum Pool {
+
+        ADMIN("admin", 4, 10000),
+        PUBLISH("publish", 10, 5000);
+
+        private final String name;
+        private final int size;
+        private final int timeoutMillis;
+
+        Pool(final String name, final int size, final int timeoutMillis) {
+
+            this.name = name;
+            this.size = size;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    /**
+     * publishMessages makes one call per message, give it more time
+     */
+    private static final int PUBLISH_MESSAGES_TIMEOUT_MILLIS = 60000;
+
+    private final ISNSClient delegate;
+
+    /**
+     * @param delegate {@link ISNSClient} the client making the AWS calls
+     */
+    public HystrixSNSClient(final ISNSClient delegate) {
+
+        this.delegate = Preconditions.checkNotNull(delegate, "delegate cannot be null");
+    }
+
+    /**
+     * @return {@link ISNSClient} the wrapped client
+     */
+    public ISNSClient getDelegate() {
+
+        return delegate;
+    }
+
+    @Override
+    public String createTopic(final String topicName) throws IOException {
+
+        return AWSCommand.execute(command(Pool.ADMIN, "createTopic", topicName,
+            () -> delegate.createTopic(topicName)));
+    }
+
+    @Override
+    public String resolveTopic(final String topicName) throws IOException {
+
+        return AWSCommand.execute(command(Pool.ADMIN, "resolveTopic", topicName,
+            () -> delegate.resolveTopic(topicName)));
+    }
+
+    @Override
+    public void deleteTopic(final String topicArn) throws IOException {
+
+        AWSCommand.execute(command(Pool.ADMIN, "deleteTopic", topicName(topicArn), () -> {
+            delegate.deleteTopic(topicArn);
+            return null;
+        }));
+    }
+
+    @Override
+    public String publishMessage(final String topicArn, final String content) throws IOException {
+
+        return AWSCommand.execute(command(Pool.PUBLISH, "publishMessage", topicName(topicArn),
+            () -> delegate.publishMessage(topicArn, content)));
+    }
+
+    @Override
+    public String publishMessage(final String topicArn, final String content, final Map<String, ?> attributes)
+        throws IOException {
+
+        return AWSCommand.execute(command(Pool.PUBLISH, "publishMessage", topicName(topicArn),
+            () -> delegate.publishMessage(topicArn, content, attributes)));
+    }
+
+    @Override
+    public void publishMessages(final String topicArn, final List<String> content) throws IOException {
+
+        AWSCommand.execute(new AWSCommand<Void>(SERVICE, Pool.PUBLISH.name, Pool.PUBLISH.size, "publishMessages",
+            topicName(topicArn), PUBLISH_MESSAGES_TIMEOUT_MILLIS, () -> {
+                delegate.publishMessages(topicArn, content);
+                return null;
+            }));
+    }
+
+    @Override
+    public String subscribeToTopic(final String topicArn, final String queueArn) {
+
+        return AWSCommand.executeUnchecked(command(Pool.ADMIN, "subscribeToTopic", topicName(topicArn),
+            () -> delegate.subscribeToTopic(topicArn, queueArn)));
+    }
+
+    @Override
+    public String subscribeToTopic(final String topicArn, final String queueArn, final String filterPolicy) {
+
+        return AWSCommand.executeUnchecked(command(Pool.ADMIN, "subscribeToTopic", topicName(topicArn),
+            () -> delegate.subscribeToTopic(topicArn, queueArn, filterPolicy)));
+    }
+
+    @Override
+    public void setFilterPolicy(final String subscriptionArn, final String filterPolicy) {
+
+        AWSCommand.executeUnchecked(command(Pool.ADMIN, "setFilterPolicy",
+            SNSClient.subscriptionTopicName(subscriptionArn), () -> {
+                delegate.setFilterPolicy(subscriptionArn, filterPolicy);
+                return null;
+            }));
+    }
+
+    @Override
+    public void unsubscribeFromTopic(final String subscriptionArn) {
+
+        AWSCommand.executeUnchecked(command(Pool.ADMIN, "unsubscribeFromTopic",
+            SNSClient.subscriptionTopicName(subscriptionArn), () -> {
+                delegate.unsubscribeFromTopic(subscriptionArn);
+                return null;
+            }));
+    }
+
+    @Override
+    public void enableEnvelope(final String subscriptionArn) {
+
+        AWSCommand.executeUnchecked(command(Pool.ADMIN, "enableEnvelope",
+            SNSClient.subscriptionTopicName(subscriptionArn), () -> {
+                delegate.enableEnvelope(subscriptionArn);
+                return null;
+            }));
+    }
+
+    @Override
+    public void disableEnvelope(final String subscriptionArn) {
+
+        AWSCommand.executeUnchecked(command(Pool.ADMIN, "disableEnvelope",
+            SNSClient.subscriptionTopicName(subscriptionArn), () -> {
+                delegate.disableEnvelope(subscriptionArn);
+                return null;
+            }));
+    }
+
+    private static <R> AWSCommand<R> command(final Pool pool, final String operation, final String topicName,
+                                             final Callable<R> function) {
+
+        return new AWSCommand<R>(SERVICE, pool.name, pool.size, operation, topicName, pool.timeoutMillis,
+            function);
+    }
+
+    private static String topicName(final String topicArn) {
+
+        return SNSClient.topicName(topicArn);
+    }
+} // HystrixSNSClient
@@ -2,6 +2,7 @@ package com.charter.aesd.aws.snsclient;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p/>
@@ -72,6 +73,26 @@ public interface ISNSClient {
     String publishMessage(String topicArn,
                         String content) throws IOException;
 
+    /**
+     * @param topicArn {@code String} the arn returned by the Topic creation
+     *                                that resolves to the Topic instance in
+     *                                the Service Provider space.
+     * @param content {@code String} The content to be included as the body in
+     *                               the message sent to the Topic.
+     * @param attributes {@code Map<String, ?>} the message attributes that
+     *                                          subscription filter policies
+     *                                          are matched against.
+     *                                          {@code Number} values are sent
+     *                                          as numbers, anything else as
+     *                                          its {@code String} form.
+     * @return {@code String} The ID of the published message
+     *
+     * @throws IOException
+     */
+    String publishMessage(String topicArn,
+                          String content,
+                          Map<String, ?> attributes) throws IOException;
+
     /**
      * @param topicArn {@code String} the arn returned by the Topic creation
      *                                that resolves to the Topic instance in
@@ -95,6 +116,34 @@ public interface ISNSClient {
     String subscribeToTopic(String topicArn,
                             String queueArn);
 
+    /**
+     * @param topicArn {@code String} the arn returned by the Topic creation
+     *                                that resolves to the Topic instance in
+     *                                the Service Provider space.
+     * @param queueArn {@code String} the arn that resolves to the a Consumer
+     *                                Queue instance in the Service Provider space.
+     * @param filterPolicy {@code String} JSON filter policy evaluated against
+     *                                    the message attributes; only matching
+     *                                    messages are delivered to the queue.
+     *                                    May be null to receive everything.
+     *
+     * @return {@code String} the ARN to use to reference the subscription mapping
+     *                        between the topic and the queue
+     */
+    String subscribeToTopic(String topicArn,
+                            String queueArn,
+                            String filterPolicy);
+
+    /**
+     * @param subscriptionArn {@code String} the ARN to use to reference the subscription mapping
+     *                                       between the topic and the queue
+     * @param filterPolicy {@code String} JSON filter policy evaluated against
+     *                                    the message attributes, replaces the
+     *                                    current one, null removes it
+     */
+    void setFilterPolicy(String subscriptionArn,
+                         String filterPolicy);
+
     /**
      * @param subscriptionArn {@code String} the ARN to use to reference the subscription mapping
      *                                       between the topic and the queue
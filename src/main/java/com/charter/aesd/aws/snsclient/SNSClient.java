@@ -6,15 +6,31 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.GetSubscriptionAttributesResult;
+import com.amazonaws.services.sns.model.ListSubscriptionsByTopicResult;
+import com.amazonaws.services.sns.model.ListTopicsResult;
+import com.amazonaws.services.sns.model.MessageAttributeValue;
+import com.amazonaws.services.sns.model.PublishRequest;
 import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.services.sns.model.SubscribeRequest;
 import com.amazonaws.services.sns.model.SubscribeResult;
+import com.amazonaws.services.sns.model.Subscription;
+import com.amazonaws.services.sns.model.Topic;
 import com.charter.aesd.aws.enums.AWSAuthType;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
 import com.charter.aesd.aws.util.AbstractAWSClientBuilder;
+import com.charter.aesd.aws.util.RateLimiterRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +67,25 @@ public class SNSClient implements ISNSClient {
     private final static String RAW_MESSAGE_ATRR_NAME = "RawMessageDelivery";
     private final static String RAW_MESSAGE_INDICATOR_ON = "true";
     private final static String RAW_MESSAGE_INDICATOR_OFF = "false";
+    private final static String FILTER_POLICY_ATTR_NAME = "FilterPolicy";
+    // SNS removes the filter policy of a subscription when it is set to an empty policy
+    private final static String NO_FILTER_POLICY = "{}";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private final static String STRING_DATA_TYPE = "String";
+    private final static String NUMBER_DATA_TYPE = "Number";
+
+    /**
+     * Archaius scope of the publish rate limits, see
+     * {@link RateLimiterRegistry}
+     */
+    private final static String RATE_LIMIT_SCOPE = "snsClient";
+
+    /**
+     * Latency/error/byte counters per operation and Topic name
+     */
+    private static final ClientMetrics METRICS = MetricsRegistry
+        .getInstance().forService("SNS");
 
     /**
      * local ref to the AWS API
@@ -74,6 +109,54 @@ public class SNSClient implements ISNSClient {
         return this.awsSNSClient;
     }
 
+    /**
+     * Waits for a publish permit of the Topic so bursts are smoothed out
+     * before they reach the SNS throttling limits.
+     *
+     * @param topicArn {@code String} the arn of the Topic being published to
+     */
+    protected void throttle(final String topicArn) {
+
+        long waited =
+            RateLimiterRegistry.getInstance().acquire(RATE_LIMIT_SCOPE,
+                topicName(topicArn));
+
+        if ((waited > 0) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Publish to " + topicArn + " throttled for "
+                + waited + "ns");
+        }
+    }
+
+    /**
+     * @param topicArn {@code String} the arn of a Topic
+     *
+     * @return {@code String} the Topic name, i.e. the last segment of the arn
+     */
+    static String topicName(final String topicArn) {
+
+        if (topicArn == null) {
+            return null;
+        }
+
+        return topicArn.substring(topicArn.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * @param subscriptionArn {@code String} the arn of a Subscription, i.e.
+     *        the Topic arn followed by the subscription id
+     *
+     * @return {@code String} the name of the subscribed Topic
+     */
+    static String subscriptionTopicName(final String subscriptionArn) {
+
+        if ((subscriptionArn == null) || (subscriptionArn.lastIndexOf(':') < 0)) {
+            return null;
+        }
+
+        return topicName(subscriptionArn.substring(0,
+            subscriptionArn.lastIndexOf(':')));
+    }
+
     /**
      * Create a new SNS Topic in the AWS space.
      * 
@@ -92,7 +175,8 @@ public class SNSClient implements ISNSClient {
         }
 
         return ((topicName == null) || (topicName.length() == 0)) ? null
-            : getClient().createTopic(topicName).getTopicArn();
+            : METRICS.time("createTopic", topicName,
+                () -> getClient().createTopic(topicName)).getTopicArn();
     }
 
     /**
@@ -114,7 +198,8 @@ public class SNSClient implements ISNSClient {
 
         String topicArn =
             ((topicName == null) || (topicName.length() == 0)) ? null
-                : getClient().createTopic(topicName).getTopicArn();
+                : METRICS.time("createTopic", topicName,
+                    () -> getClient().createTopic(topicName)).getTopicArn();
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Topic " + topicName + " resolves to ARN " + topicArn);
@@ -144,7 +229,10 @@ public class SNSClient implements ISNSClient {
             return;
         }
 
-        getClient().deleteTopic(topicArn);
+        METRICS.time("deleteTopic", topicName(topicArn), () -> {
+            getClient().deleteTopic(topicArn);
+            return null;
+        });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("SNS Topic, arn=" + topicArn + " DELETED");
@@ -165,8 +253,31 @@ public class SNSClient implements ISNSClient {
     public String publishMessage(final String topicArn, final String content)
         throws IOException {
 
+        return publishMessage(topicArn, content, null);
+    }
+
+    /**
+     * @param topicArn {@code String} the arn returned by the Topic creation
+     *        that resolves to the Topic instance in the AWS space.
+     * @param content {@code String} The content to be included as the body in
+     *        the message sent to the Topic.
+     * @param attributes {@code Map<String, ?>} the SNS message attributes that
+     *        subscription filter policies are matched against, may be null.
+     *        {@code Number} values are sent with the {@code Number} data type
+     *        so numeric filter conditions apply, anything else is sent as a
+     *        {@code String}.
+     * @return {@code String} The ID of the published message
+     *
+     * @throws IOException
+     */
+    @Override
+    public String publishMessage(final String topicArn, final String content,
+                                 final Map<String, ?> attributes)
+        throws IOException {
+
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("publishMessage(" + topicArn + ", " + content + ")");
+            LOGGER.trace("publishMessage(" + topicArn + ", " + content + ", "
+                + attributes + ")");
         }
 
         if ((topicArn == null) || (topicArn.length() == 0)) {
@@ -177,7 +288,15 @@ public class SNSClient implements ISNSClient {
             return null;
         }
 
-        PublishResult result = getClient().publish(topicArn, content);
+        throttle(topicArn);
+        PublishResult result =
+            METRICS.time("publish", topicName(topicArn),
+                () -> ((attributes == null) || attributes.isEmpty())
+                    ? getClient().publish(topicArn, content)
+                    : getClient().publish(new PublishRequest(topicArn, content)
+                        .withMessageAttributes(toMessageAttributes(attributes))));
+        METRICS.addBytes("publish", topicName(topicArn),
+            ClientMetrics.utf8Length(content));
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Published message, id=" + result.getMessageId()
@@ -187,6 +306,29 @@ public class SNSClient implements ISNSClient {
         return result.getMessageId();
     }
 
+    /**
+     * Converts plain attribute values to SNS message attributes.
+     */
+    private static Map<String, MessageAttributeValue>
+        toMessageAttributes(final Map<String, ?> attributes) {
+
+        Map<String, MessageAttributeValue> msgAttrs =
+            new HashMap<String, MessageAttributeValue>();
+        for (Map.Entry<String, ?> attr : attributes.entrySet()) {
+            if (attr.getValue() == null) {
+                continue;
+            }
+
+            msgAttrs.put(attr.getKey(), new MessageAttributeValue()
+                .withDataType(
+                    (attr.getValue() instanceof Number) ? NUMBER_DATA_TYPE
+                        : STRING_DATA_TYPE)
+                .withStringValue(attr.getValue().toString()));
+        }
+
+        return msgAttrs;
+    }
+
     /**
      * @param topicArn {@code String} the arn returned by the Topic creation
      *        that resolves to the Topic instance in the Service Provider space.
@@ -222,7 +364,11 @@ public class SNSClient implements ISNSClient {
 
         for (String msg : content) {
             try {
-                getClient().publish(topicArn, msg);
+                throttle(topicArn);
+                METRICS.time("publish", topicName(topicArn),
+                    () -> getClient().publish(topicArn, msg));
+                METRICS.addBytes("publish", topicName(topicArn),
+                    ClientMetrics.utf8Length(msg));
             } catch (Exception e) {
                 if (LOGGER.isInfoEnabled()) {
                     StringWriter errDetailsWriter = new StringWriter();
@@ -249,9 +395,29 @@ public class SNSClient implements ISNSClient {
     public String
         subscribeToTopic(final String topicArn, final String queueArn) {
 
+        return subscribeToTopic(topicArn, queueArn, null);
+    }
+
+    /**
+     * @param topicArn {@code String} the arn returned by the Topic creation
+     *        that resolves to the Topic instance in the Service Provider space.
+     * @param queueArn {@code String} the arn that resolves to the a Consumer
+     *        Queue instance in the Service Provider space.
+     * @param filterPolicy {@code String} JSON filter policy SNS evaluates
+     *        against the message attributes, so only matching messages are
+     *        delivered to the queue. May be null to receive everything.
+     *
+     * @return {@code String} the ARN to use to reference the subscription
+     *         mapping between the topic and the queue
+     */
+    @Override
+    public String subscribeToTopic(final String topicArn,
+                                   final String queueArn,
+                                   final String filterPolicy) {
+
         if (LOGGER.isTraceEnabled()) {
-            LOGGER
-                .trace("subscribeToTopic(" + topicArn + ", " + queueArn + ")");
+            LOGGER.trace("subscribeToTopic(" + topicArn + ", " + queueArn
+                + ", " + filterPolicy + ")");
         }
 
         if ((topicArn == null) || (topicArn.length() == 0)) {
@@ -263,7 +429,11 @@ public class SNSClient implements ISNSClient {
         }
 
         SubscribeResult result =
-            getClient().subscribe(topicArn, AWS_SQS_SNS_PROTOCOL, queueArn);
+            METRICS.time("subscribe", topicName(topicArn),
+                () -> (filterPolicy == null) ? getClient().subscribe(topicArn,
+                    AWS_SQS_SNS_PROTOCOL, queueArn) : getClient().subscribe(
+                    new SubscribeRequest(topicArn, AWS_SQS_SNS_PROTOCOL, queueArn)
+                        .addAttributesEntry(FILTER_POLICY_ATTR_NAME, filterPolicy)));
         String subArn = (result == null) ? null : result.getSubscriptionArn();
 
         if (LOGGER.isDebugEnabled()) {
@@ -274,6 +444,36 @@ public class SNSClient implements ISNSClient {
         return subArn;
     }
 
+    /**
+     * @param subscriptionArn {@code String} the ARN to use to reference the
+     *        subscription mapping between the topic and the queue
+     * @param filterPolicy {@code String} JSON filter policy SNS evaluates
+     *        against the message attributes, replaces the current one. null
+     *        removes the current one.
+     */
+    @Override
+    public void setFilterPolicy(final String subscriptionArn,
+                                final String filterPolicy) {
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("setFilterPolicy(" + subscriptionArn + ", "
+                + filterPolicy + ")");
+        }
+
+        METRICS.time("setSubscriptionAttributes",
+            subscriptionTopicName(subscriptionArn), () -> {
+                getClient().setSubscriptionAttributes(subscriptionArn,
+                    FILTER_POLICY_ATTR_NAME,
+                    (filterPolicy == null) ? NO_FILTER_POLICY : filterPolicy);
+                return null;
+            });
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("FilterPolicy UPDATED for Subscription[arn="
+                + subscriptionArn + "]");
+        }
+    }
+
     /**
      * @param subscriptionArn {@code String} the ARN to use to reference the
      *        subscription mapping between the topic and the queue
@@ -292,7 +492,11 @@ public class SNSClient implements ISNSClient {
             return;
         }
 
-        getClient().unsubscribe(subscriptionArn);
+        METRICS.time("unsubscribe", subscriptionTopicName(subscriptionArn),
+            () -> {
+                getClient().unsubscribe(subscriptionArn);
+                return null;
+            });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("UNSUBSCRIBE request COMPLETE for Subscription[arn="
@@ -314,8 +518,12 @@ public class SNSClient implements ISNSClient {
             LOGGER.trace("enableEnvelope(" + subscriptionArn + ")");
         }
 
-        getClient().setSubscriptionAttributes(subscriptionArn,
-            RAW_MESSAGE_ATRR_NAME, RAW_MESSAGE_INDICATOR_OFF);
+        METRICS.time("setSubscriptionAttributes",
+            subscriptionTopicName(subscriptionArn), () -> {
+                getClient().setSubscriptionAttributes(subscriptionArn,
+                    RAW_MESSAGE_ATRR_NAME, RAW_MESSAGE_INDICATOR_OFF);
+                return null;
+            });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("RawMessageDelivery is ENABLED for Subscription[arn="
@@ -337,8 +545,12 @@ public class SNSClient implements ISNSClient {
             LOGGER.trace("disableEnvelope(" + subscriptionArn + ")");
         }
 
-        getClient().setSubscriptionAttributes(subscriptionArn,
-            RAW_MESSAGE_ATRR_NAME, RAW_MESSAGE_INDICATOR_ON);
+        METRICS.time("setSubscriptionAttributes",
+            subscriptionTopicName(subscriptionArn), () -> {
+                getClient().setSubscriptionAttributes(subscriptionArn,
+                    RAW_MESSAGE_ATRR_NAME, RAW_MESSAGE_INDICATOR_ON);
+                return null;
+            });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("RawMessageDelivery is DISABLED for Subscription[arn="
@@ -346,6 +558,145 @@ public class SNSClient implements ISNSClient {
         }
     }
 
+    /**
+     * Lists the ARNs of every SNS Topic in the AWS account/region, following
+     * the listing pages.
+     *
+     * @return {@code List<String>} the Topic ARNs
+     */
+    public List<String> listTopicArns() {
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("listTopicArns()");
+        }
+
+        List<String> topicArns = new ArrayList<String>();
+        String nextToken = null;
+        do {
+            final String token = nextToken;
+            ListTopicsResult result = METRICS.time("listTopics", null,
+                () -> getClient().listTopics(token));
+            for (Topic topic : result.getTopics()) {
+                topicArns.add(topic.getTopicArn());
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Found " + topicArns.size() + " Topics");
+        }
+
+        return topicArns;
+    }
+
+    /**
+     * @param topicArn {@code String} the arn returned by the Topic creation
+     *        that resolves to the Topic instance in the AWS space.
+     *
+     * @return {@code List<Subscription>} every subscription of the Topic,
+     *         following the listing pages
+     */
+    public List<Subscription> listSubscriptions(final String topicArn) {
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("listSubscriptions(" + topicArn + ")");
+        }
+
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        String nextToken = null;
+        do {
+            final String token = nextToken;
+            ListSubscriptionsByTopicResult result =
+                METRICS.time("listSubscriptionsByTopic", topicName(topicArn),
+                    () -> getClient().listSubscriptionsByTopic(topicArn, token));
+            subscriptions.addAll(result.getSubscriptions());
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+
+        return subscriptions;
+    }
+
+    /**
+     * @param subscriptionArn {@code String} the ARN to use to reference the
+     *        subscription mapping between the topic and the queue
+     *
+     * @return {@code Map<String, String>} the current attributes of the
+     *         subscription, e.g. {@code RawMessageDelivery} and
+     *         {@code FilterPolicy}
+     */
+    public Map<String, String> getSubscriptionAttributes(
+        final String subscriptionArn) {
+
+        GetSubscriptionAttributesResult result =
+            METRICS.time("getSubscriptionAttributes",
+                subscriptionTopicName(subscriptionArn),
+                () -> getClient().getSubscriptionAttributes(subscriptionArn));
+        Map<String, String> attrs =
+            (result == null) ? null : result.getAttributes();
+
+        return (attrs == null) ? new HashMap<String, String>() : attrs;
+    }
+
+    /**
+     * @param subscriptionArn {@code String} the ARN to use to reference the
+     *        subscription mapping between the topic and the queue
+     *
+     * @return {@code boolean} true if the subscription delivers the raw
+     *         message, i.e. the SNS JSON envelope is disabled
+     */
+    public boolean isRawDelivery(final String subscriptionArn) {
+
+        return isRawDelivery(getSubscriptionAttributes(subscriptionArn));
+    }
+
+    /**
+     * @param attributes {@code Map<String, String>} subscription attributes
+     *        from {@link #getSubscriptionAttributes(String)}
+     *
+     * @return {@code boolean} true if the attributes enable raw delivery
+     */
+    public static boolean isRawDelivery(final Map<String, String> attributes) {
+
+        return RAW_MESSAGE_INDICATOR_ON.equals(attributes
+            .get(RAW_MESSAGE_ATRR_NAME));
+    }
+
+    /**
+     * @param attributes {@code Map<String, String>} subscription attributes
+     *        from {@link #getSubscriptionAttributes(String)}
+     *
+     * @return {@code String} the filter policy, null if there is none
+     */
+    public static String getFilterPolicy(final Map<String, String> attributes) {
+
+        return attributes.get(FILTER_POLICY_ATTR_NAME);
+    }
+
+    /**
+     * SNS stores filter policies normalized, they are compared as JSON
+     * trees. No policy, an empty one and an empty object are the same.
+     *
+     * @return {@code boolean} true if both filter policies match the same
+     *         messages
+     */
+    public static boolean isSameFilterPolicy(final String left,
+                                             final String right) {
+
+        try {
+            return filterPolicyTree(left).equals(filterPolicyTree(right));
+        } catch (IOException e) {
+            // not JSON, SNS will reject it if it is the desired one
+            return false;
+        }
+    }
+
+    private static JsonNode filterPolicyTree(final String filterPolicy)
+        throws IOException {
+
+        return ((filterPolicy == null) || filterPolicy.trim().isEmpty())
+            ? JSON.createObjectNode() : JSON.readTree(filterPolicy);
+    }
+
     /**
      * Builder class for constructing an instance of {@link SNSClient}
      */
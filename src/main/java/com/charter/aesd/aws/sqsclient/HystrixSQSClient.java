@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.sqsclient;
+
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.charter.aesd.aws.util.AWSCommand;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>
+ * {@link ISQSClient} decorator that runs every call of the wrapped client in
+ * an {@link AWSCommand}. Sends, receives, deletes and Queue administration use
+ * separate thread pools ({@code SQS-send}, {@code SQS-receive},
+ * {@code SQS-delete}, {@code SQS-admin}) and each Queue has its own command
+ * keys, so a slow or failing Queue opens its own circuit without affecting
+ * the others.
+ * <p/>
+ * When {@code aws.sqsClient.collapseSends} is true, concurrent
+ * {@link #sendMessage(String, String)} calls to the same Queue are collapsed
+ * into {@code SendMessageBatch} requests of up to 10 messages / 256 KB,
+ * waiting at most {@code aws.sqsClient.collapseSends.delayMillis} (10 ms) for
+ * a batch to fill.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class HystrixSQSClient implements ISQSClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HystrixSQSClient.class);
+
+    private static final String SERVICE = "SQS";
+
+    /**
+     * Limits of a single SendMessageBatch request
+     */
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private static final DynamicBooleanProperty COLLAPSE_SENDS =
+        DynamicPropertyFactory.getInstance().getBooleanProperty("aws.sqsClient.collapseSends", false);
+    private static final DynamicIntProperty COLLAPSE_DELAY_MILLIS =
+        DynamicPropertyFactory.getInstance().getIntProperty("aws.sqsClient.collapseSends.delayMillis", 10);
+
+    /**
+     * The bulkheads, with their default size and command timeout. Receives
+     * may long poll for up to 20 seconds.
+     */
+    private enum Pool {
+
+        ADMIN("admin", 4, 10000),
+        SEND("send", 10, 5000),
+        RECEIVE("receive", 10, 30000),
+        DELETE("delete", 10, 5000);
+
+        private final String name;
+        private final int size;
+        private final int timeoutMillis;
+
+        Pool(final String name, final int size, final int timeoutMillis) {
+
+            this.name = name;
+            this.size = size;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    // numbers the instances, their sends are collapsed apart
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final ISQSClient delegate;
+    private final int instance = INSTANCES.incrementAndGet();
+
+    /**
+     * @param delegate {@link ISQSClient} the client making the AWS calls
+     */
+    public HystrixSQSClient(final ISQSClient delegate) {
+
+        this.delegate = Preconditions.checkNotNull(delegate, "delegate cannot be null");
+    }
+
+    /**
+     * @return {@link ISQSClient} the wrapped client
+     */
+    public ISQSClient getDelegate() {
+
+        return delegate;
+    }
+
+    @Override
+    public boolean isQueueExists(final String queueName) {
+
+        return AWSCommand.executeUnchecked(command(Pool.ADMIN, "isQueueExists", queueName,
+            () -> delegate.isQueueExists(queueName)));
+    }
+
+    @Override
+    public String resolveQueueUrl(final String queueName) {
+
+        return AWSCommand.executeUnchecked(command(Pool.ADMIN, "resolveQueueUrl", queueName,
+            () -> delegate.resolveQueueUrl(queueName)));
+    }
+
+    @Override
+    public String createQueue(final String queueName) throws IOException {
+
+        return AWSCommand.execute(command(Pool.ADMIN, "createQueue", queueName,
+            () -> delegate.createQueue(queueName)));
+    }
+
+    @Override
+    public void deleteQueue(final String queueUrl) throws IOException {
+
+        AWSCommand.execute(command(Pool.ADMIN, "deleteQueue", queueName(queueUrl), () -> {
+            delegate.deleteQueue(queueUrl);
+            return null;
+        }));
+    }
+
+    @Override
+    public void allowTopic(final String queueUrl, final String topicArn) {
+
+        AWSCommand.executeUnchecked(command(Pool.ADMIN, "allowTopic", queueName(queueUrl), () -> {
+            delegate.allowTopic(queueUrl, topicArn);
+            return null;
+        }));
+    }
+
+    @Override
+    public boolean hasPendingMessages(final String queueUrl) {
+
+        return AWSCommand.executeUnchecked(command(Pool.RECEIVE, "hasPendingMessages", queueName(queueUrl),
+            () -> delegate.hasPendingMessages(queueUrl)));
+    }
+
+    @Override
+    public int getPendingMessageCount(final String queueUrl) {
+
+        return AWSCommand.executeUnchecked(command(Pool.RECEIVE, "getPendingMessageCount", queueName(queueUrl),
+            () -> delegate.getPendingMessageCount(queueUrl)));
+    }
+
+    @Override
+    public SendMessageResult sendMessage(final String queueUrl, final String content) throws IOException {
+
+        if (COLLAPSE_SENDS.get()) {
+            return AWSCommand.execute(new SendCollapser(delegate, instance, queueUrl, content));
+        }
+
+        return AWSCommand.execute(command(Pool.SEND, "sendMessage", queueName(queueUrl),
+            () -> delegate.sendMessage(queueUrl, content)));
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessages(final String queueUrl, final List<String> content) {
+
+        return AWSCommand.executeUnchecked(command(Pool.SEND, "sendMessages", queueName(queueUrl),
+            () -> delegate.sendMessages(queueUrl, content)));
+    }
+
+    @Override
+    public Optional<Message> receiveMessage(final String queueUrl) throws IOException {
+
+        return AWSCommand.execute(command(Pool.RECEIVE, "receiveMessage", queueName(queueUrl),
+            () -> delegate.receiveMessage(queueUrl)));
+    }
+
+    @Override
+    public List<Message> receiveMessage(final ReceiveMessageRequest request) throws IOException {
+
+        return AWSCommand.execute(command(Pool.RECEIVE, "receiveMessage", queueName(request.getQueueUrl()),
+            () -> delegate.receiveMessage(request)));
+    }
+
+    @Override
+    public List<Message> receiveMessages(final String queueUrl) throws IOException {
+
+        return AWSCommand.execute(command(Pool.RECEIVE, "receiveMessages", queueName(queueUrl),
+            () -> delegate.receiveMessages(queueUrl)));
+    }
+
+    @Override
+    public void deleteMessage(final String queueUrl, final String receiptHandle) {
+
+        AWSCommand.executeUnchecked(command(Pool.DELETE, "deleteMessage", queueName(queueUrl), () -> {
+            delegate.deleteMessage(queueUrl, receiptHandle);
+            return null;
+        }));
+    }
+
+    @Override
+    public void deleteMessages(final String queueUrl, final Map<String, String> content) {
+
+        AWSCommand.executeUnchecked(command(Pool.DELETE, "deleteMessages", queueName(queueUrl), () -> {
+            delegate.deleteMessages(queueUrl, content);
+            return null;
+        }));
+    }
+
+    private static <R> AWSCommand<R> command(final Pool pool, final String operation, final String queueName,
+                                             final Callable<R> function) {
+
+        return new AWSCommand<R>(SERVICE, pool.name, pool.size, operation, queueName, pool.timeoutMillis,
+            function);
+    }
+
+    private static String queueName(final String queueUrl) {
+
+        return SQSClient.queueName(queueUrl);
+    }
+
+    /**
+     * Collapses the single message sends to one Queue into SendMessageBatch
+     * requests. Global scope, the batches span every calling thread. Hystrix
+     * keeps the first collapser of a key and sends through its delegate, so
+     * the key is the full Queue url (the same name may exist in other
+     * accounts and regions) and the client instance.
+     */
+    private static class SendCollapser extends HystrixCollapser<SendMessageBatchResult, SendMessageResult, String> {
+
+        private final ISQSClient delegate;
+        private final String queueUrl;
+        private final String content;
+
+        SendCollapser(final ISQSClient delegate, final int instance, final String queueUrl, final String content) {
+
+            super(HystrixCollapser.Setter
+                .withCollapserKey(HystrixCollapserKey.Factory.asKey(SERVICE + ".sendMessage." + instance + "."
+                    + queueUrl))
+                .andScope(Scope.GLOBAL)
+                .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter()
+                    .withMaxRequestsInBatch(MAX_BATCH_ENTRIES)
+                    .withTimerDelayInMilliseconds(COLLAPSE_DELAY_MILLIS.get())
+                    .withRequestCacheEnabled(false)));
+            this.delegate = delegate;
+            this.queueUrl = queueUrl;
+            this.content = content;
+        }
+
+        @Override
+        public String getRequestArgument() {
+
+            return content;
+        }
+
+        /**
+         * Splits the collapsed requests so no batch exceeds the SQS entry
+         * count or payload size limits.
+         */
+        @Override
+        protected Collection<Collection<CollapsedRequest<SendMessageResult, String>>> shardRequests(
+            final Collection<CollapsedRequest<SendMessageResult, String>> requests) {
+
+            Collection<Collection<CollapsedRequest<SendMessageResult, String>>> shards =
+                new ArrayList<Collection<CollapsedRequest<SendMessageResult, String>>>();
+            List<CollapsedRequest<SendMessageResult, String>> shard =
+                new ArrayList<CollapsedRequest<SendMessageResult, String>>();
+            int shardBytes = 0;
+            for (CollapsedRequest<SendMessageResult, String> request : requests) {
+                int bytes = request.getArgument().getBytes(StandardCharsets.UTF_8).length;
+                if (!shard.isEmpty()
+                    && ((shard.size() == MAX_BATCH_ENTRIES) || (shardBytes + bytes > MAX_BATCH_BYTES))) {
+                    shards.add(shard);
+                    shard = new ArrayList<CollapsedRequest<SendMessageResult, String>>();
+                    shardBytes = 0;
+                }
+                shard.add(request);
+                shardBytes += bytes;
+            }
+            if (!shard.isEmpty()) {
+                shards.add(shard);
+            }
+
+            return shards;
+        }
+
+        @Override
+        protected HystrixCommand<SendMessageBatchResult> createCommand(
+            final Collection<CollapsedRequest<SendMessageResult, String>> requests) {
+
+            List<String> batch = new ArrayList<String>(requests.size());
+            for (CollapsedRequest<SendMessageResult, String> request : requests) {
+                batch.add(request.getArgument());
+            }
+
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Collapsed " + batch.size() + " messages for " + queueUrl);
+            }
+
+            return command(Pool.SEND, "sendMessages", queueName(queueUrl),
+                () -> delegate.sendMessages(queueUrl, batch));
+        }
+
+        /**
+         * The batch entry Ids are the positions of the messages in the batch,
+         * see {@link ISQSClient#sendMessages(String, List)}.
+         */
+        @Override
+        protected void mapResponseToRequests(final SendMessageBatchResult batchResponse,
+                                             final Collection<CollapsedRequest<SendMessageResult, String>> requests) {
+
+            List<CollapsedRequest<SendMessageResult, String>> ordered =
+                new ArrayList<CollapsedRequest<SendMessageResult, String>>(requests);
+            for (SendMessageBatchResultEntry entry : batchResponse.getSuccessful()) {
+                ordered.get(Integer.parseInt(entry.getId())).setResponse(new SendMessageResult()
+                    .withMessageId(entry.getMessageId())
+                    .withMD5OfMessageBody(entry.getMD5OfMessageBody()));
+            }
+            for (BatchResultErrorEntry entry : batchResponse.getFailed()) {
+                ordered.get(Integer.parseInt(entry.getId())).setException(new IOException("Message not sent to "
+                    + queueUrl + ": " + entry.getCode() + " " + entry.getMessage()));
+            }
+        }
+    }
+} // HystrixSQSClient
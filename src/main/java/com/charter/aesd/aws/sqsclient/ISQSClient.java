@@ -100,6 +100,16 @@ public interface ISQSClient extends ISNSTopicListener {
     SendMessageResult sendMessage(String queueUrl, String content)
         throws IOException;
 
+    /**
+     * @param queueUrl {@code String} the url returned by the Queue creation
+     *        that resolves to the Queue instance in the Service Provider space.
+     * @param content {@code List<String>} the bodies of the messages to send
+     *        in a single batch.
+     *
+     * @return {@code SendMessageBatchResult} the successful and failed
+     *         entries. The Id of each entry is the index of its message in
+     *         {@code content}.
+     */
     SendMessageBatchResult sendMessages(String queueUrl, List<String> content);
 
     /**
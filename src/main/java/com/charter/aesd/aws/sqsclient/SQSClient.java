@@ -1,5 +1,6 @@
 package com.charter.aesd.aws.sqsclient;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.RegionUtils;
@@ -10,6 +11,7 @@ import com.amazonaws.services.sqs.model.CreateQueueResult;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
@@ -19,10 +21,19 @@ import com.amazonaws.services.sqs.model.SendMessageBatchResult;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.charter.aesd.aws.enums.AWSAuthType;
+import com.charter.aesd.aws.metrics.ClientMetrics;
+import com.charter.aesd.aws.metrics.MetricsRegistry;
 import com.charter.aesd.aws.sqsclient.util.DefaultSNSSQSPolicy;
+import com.charter.aesd.aws.sqsclient.util.MultiTopicSNSSQSPolicy;
 import com.charter.aesd.aws.util.AbstractAWSClientBuilder;
+import com.charter.aesd.aws.util.RateLimiterRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.netflix.config.DynamicIntProperty;
 import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.config.DynamicStringProperty;
@@ -31,10 +42,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -72,6 +85,8 @@ public class SQSClient implements ISQSClient {
 
     private final static String QUEUE_SNS_ATTR_NAME = "Policy";
 
+    private static final ObjectMapper JSON = new ObjectMapper();
+
     private static final DynamicIntProperty MAX_NUM_MESSAGES_CHUNK =
         DynamicPropertyFactory.getInstance().getIntProperty(
             "aws.sqsClient.maxNumberMessagesChunk", 10); // Max
@@ -85,6 +100,17 @@ public class SQSClient implements ISQSClient {
             "com.charter.aesd.aws.sqsClient.defaultSnsPublishPolicyName",
             "DefaultSNSPolicy");
 
+    /**
+     * Archaius scope of the send rate limits, see {@link RateLimiterRegistry}
+     */
+    private final static String RATE_LIMIT_SCOPE = "sqsClient";
+
+    /**
+     * Latency/error/byte counters per operation and Queue name
+     */
+    private static final ClientMetrics METRICS = MetricsRegistry
+        .getInstance().forService("SQS");
+
     /**
      * local ref to the AWS SQS API
      */
@@ -109,6 +135,16 @@ public class SQSClient implements ISQSClient {
         return new DefaultSNSSQSPolicy(name, queueArn, topicArn);
     }
 
+    /**
+     *
+     */
+    protected ISQSPolicy allocateSQSTopicsPolicy(final String name,
+                                                 final String queueArn,
+                                                 final Collection<String> topicArns) {
+
+        return new MultiTopicSNSSQSPolicy(name, queueArn, topicArns);
+    }
+
     /**
      * @return {@link AmazonSQS} local and derived class handle to the AWS API
      */
@@ -117,6 +153,38 @@ public class SQSClient implements ISQSClient {
         return awsSQSClient;
     }
 
+    /**
+     * Waits for a send permit of the Queue so bursts are smoothed out before
+     * they reach the SQS throttling limits.
+     *
+     * @param queueUrl {@code String} the url of the Queue being sent to
+     */
+    protected void throttle(final String queueUrl) {
+
+        long waited =
+            RateLimiterRegistry.getInstance().acquire(RATE_LIMIT_SCOPE,
+                queueName(queueUrl));
+
+        if ((waited > 0) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Send to Queue[url=" + queueUrl + "] throttled for "
+                + waited + "ns");
+        }
+    }
+
+    /**
+     * @param queueUrl {@code String} the url of a Queue
+     *
+     * @return {@code String} the Queue name, i.e. the last segment of the url
+     */
+    static String queueName(final String queueUrl) {
+
+        if (queueUrl == null) {
+            return null;
+        }
+
+        return queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+    }
+
     /**
      * @param queueName {@code String} the name used by the Queue creation that
      *        resolves to the Queue instance in the Service Provider space.
@@ -135,7 +203,9 @@ public class SQSClient implements ISQSClient {
         boolean bFound = true;
 
         try {
-            GetQueueUrlResult result = getClient().getQueueUrl(queueName);
+            GetQueueUrlResult result =
+                METRICS.time("getQueueUrl", queueName,
+                    () -> getClient().getQueueUrl(queueName));
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Queue " + queueName + " EXISTS, url="
@@ -172,7 +242,9 @@ public class SQSClient implements ISQSClient {
 
         String qUrl = null;
         try {
-            GetQueueUrlResult qResult = getClient().getQueueUrl(queueName);
+            GetQueueUrlResult qResult =
+                METRICS.time("getQueueUrl", queueName,
+                    () -> getClient().getQueueUrl(queueName));
             qUrl = (qResult == null) ? null : qResult.getQueueUrl();
 
             if (LOGGER.isDebugEnabled()) {
@@ -210,7 +282,8 @@ public class SQSClient implements ISQSClient {
         attrs.add(QUEUE_ARN_ATTR_NAME);
 
         GetQueueAttributesResult result =
-            getClient().getQueueAttributes(queueUrl, attrs);
+            METRICS.time("getQueueAttributes", queueName(queueUrl),
+                () -> getClient().getQueueAttributes(queueUrl, attrs));
 
         java.util.Map<String, String> attrMap = null;
         if ((result != null) && ((attrMap = result.getAttributes()) != null)) {
@@ -262,7 +335,10 @@ public class SQSClient implements ISQSClient {
             QUEUE_SNS_ATTR_NAME,
             allocateSQSTopicPolicy(DEFAULT_SNS_PUBLISH_POLICY_NAME.get(),
                 resolveQueueARN(queueUrl), topicArn).toJson());
-        getClient().setQueueAttributes(queueUrl, attrs);
+        METRICS.time("setQueueAttributes", queueName(queueUrl), () -> {
+            getClient().setQueueAttributes(queueUrl, attrs);
+            return null;
+        });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Topic[arn=" + topicArn
@@ -270,6 +346,181 @@ public class SQSClient implements ISQSClient {
         }
     }
 
+    /**
+     * @param queueUrl {@code String} the AWS url returned by the Queue creation
+     *        that resolves to the Queue instance in the proper AWS space.
+     * @param topicArns {@code Collection<String>} the arns of every Topic that
+     *        is to publish to the Queue.
+     *
+     *        Merges a statement allowing all of the specified SNS Topics to
+     *        publish to the Queue into the policy of the SQS instance in AWS.
+     *        The other statements of the policy are kept, and so are the
+     *        Topics the statement already allowed. The policy is only written
+     *        when it changes. {@link #allowTopic(String, String)} only allows
+     *        a single Topic, so a Queue subscribed to several Topics needs
+     *        this variant.
+     *
+     * @return {@code boolean} true if the policy was written
+     */
+    public boolean allowTopics(final String queueUrl,
+                               final Collection<String> topicArns) {
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("allowTopics(" + queueUrl + ", " + topicArns + ")");
+        }
+
+        List<String> names = new ArrayList<String>();
+        names.add(QUEUE_ARN_ATTR_NAME);
+        names.add(QUEUE_SNS_ATTR_NAME);
+        GetQueueAttributesResult result =
+            METRICS.time("getQueueAttributes", queueName(queueUrl),
+                () -> getClient().getQueueAttributes(queueUrl, names));
+        Map<String, String> current = ((result == null) || (result.getAttributes() == null))
+            ? new HashMap<String, String>() : result.getAttributes();
+
+        String policy = mergePolicy(current.get(QUEUE_SNS_ATTR_NAME),
+            allocateSQSTopicsPolicy(DEFAULT_SNS_PUBLISH_POLICY_NAME.get(),
+                current.get(QUEUE_ARN_ATTR_NAME), topicArns).toJson());
+        if (policy == null) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Topics" + topicArns
+                    + " already ALLOWED to publish to Queue[url=" + queueUrl + "]");
+            }
+            return false;
+        }
+
+        Map<String, String> attrs = new HashMap<String, String>();
+        attrs.put(QUEUE_SNS_ATTR_NAME, policy);
+        METRICS.time("setQueueAttributes", queueName(queueUrl), () -> {
+            getClient().setQueueAttributes(queueUrl, attrs);
+            return null;
+        });
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Topics" + topicArns
+                + " ALLOWED to publish to Queue[url=" + queueUrl + "]");
+        }
+        return true;
+    }
+
+    /**
+     * Merges the statements of a policy into the current one. A statement
+     * with the Sid of a current one replaces it, the {@code aws:SourceArn}
+     * values of both are kept; the other statements are added.
+     *
+     * @param current {@code String} the JSON of the current policy, null if
+     *        the Queue has none
+     * @param required {@code String} the JSON of the policy to merge
+     *
+     * @return {@code String} the JSON of the merged policy, null if the
+     *         current policy already has the required statements
+     */
+    static String mergePolicy(final String current, final String required) {
+
+        try {
+            ObjectNode wanted = (ObjectNode) JSON.readTree(required);
+            if (Strings.isNullOrEmpty(current)) {
+                return JSON.writeValueAsString(wanted);
+            }
+
+            ObjectNode policy = (ObjectNode) JSON.readTree(current);
+            ArrayNode statements = statements(policy);
+            boolean changed = false;
+            for (JsonNode statement : statements(wanted)) {
+                int index = indexOf(statements, statement.path("Sid").asText());
+                if (index < 0) {
+                    statements.add(statement);
+                    changed = true;
+                    continue;
+                }
+
+                Set<String> sourceArns = new LinkedHashSet<String>(sourceArns(statements.get(index)));
+                sourceArns.addAll(sourceArns(statement));
+                ObjectNode merged = statement.deepCopy();
+                JsonNode arnEquals = merged.path("Condition").path("ArnEquals");
+                if (arnEquals.isObject()) {
+                    ArrayNode arns = ((ObjectNode) arnEquals).putArray("aws:SourceArn");
+                    sourceArns.forEach(arns::add);
+                }
+                if (!merged.equals(statements.get(index))) {
+                    statements.set(index, merged);
+                    changed = true;
+                }
+            }
+
+            return changed ? JSON.writeValueAsString(policy) : null;
+        } catch (IOException | ClassCastException e) {
+            throw new AmazonClientException("Unable to merge the Queue policy " + current, e);
+        }
+    }
+
+    // a single statement may be given without its array
+    private static ArrayNode statements(final ObjectNode policy) {
+
+        JsonNode statements = policy.path("Statement");
+        if (statements.isArray()) {
+            return (ArrayNode) statements;
+        }
+
+        ArrayNode array = policy.putArray("Statement");
+        if (statements.isObject()) {
+            array.add(statements);
+        }
+        return array;
+    }
+
+    private static int indexOf(final ArrayNode statements, final String sid) {
+
+        for (int i = 0; i < statements.size(); i++) {
+            if (sid.equals(statements.get(i).path("Sid").asText())) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static List<String> sourceArns(final JsonNode statement) {
+
+        List<String> arns = new ArrayList<String>();
+        JsonNode sourceArn = statement.path("Condition").path("ArnEquals").path("aws:SourceArn");
+        if (sourceArn.isArray()) {
+            sourceArn.forEach(arn -> arns.add(arn.asText()));
+        } else if (sourceArn.isTextual()) {
+            arns.add(sourceArn.asText());
+        }
+
+        return arns;
+    }
+
+    /**
+     * @param queueNamePrefix {@code String} only Queues whose name begins with
+     *        the prefix are returned, may be null
+     *
+     * @return {@code List<String>} the urls of the matching Queues. NOTE: SQS
+     *         returns at most 1000 urls per call.
+     */
+    public List<String> listQueueUrls(final String queueNamePrefix) {
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("listQueueUrls(" + queueNamePrefix + ")");
+        }
+
+        ListQueuesResult result =
+            METRICS.time("listQueues", null,
+                () -> (queueNamePrefix == null) ? getClient().listQueues()
+                    : getClient().listQueues(queueNamePrefix));
+        List<String> qUrls =
+            ((result == null) || (result.getQueueUrls() == null))
+                ? new ArrayList<String>() : result.getQueueUrls();
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Found " + qUrls.size() + " Queues");
+        }
+
+        return qUrls;
+    }
+
     /**
      * Create a new Message Queue in the attached AWS Account.
      *
@@ -289,8 +540,9 @@ public class SQSClient implements ISQSClient {
         }
 
         CreateQueueResult result =
-            getClient().createQueue(
-                new CreateQueueRequest().withQueueName(queueName));
+            METRICS.time("createQueue", queueName,
+                () -> getClient().createQueue(
+                    new CreateQueueRequest().withQueueName(queueName)));
         String qUrl = result.getQueueUrl();
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Queue[name=" + queueName + ", url=" + qUrl
@@ -313,7 +565,10 @@ public class SQSClient implements ISQSClient {
             LOGGER.trace("deleteQueue(" + queueUrl + ")");
         }
 
-        getClient().deleteQueue(queueUrl);
+        METRICS.time("deleteQueue", queueName(queueUrl), () -> {
+            getClient().deleteQueue(queueUrl);
+            return null;
+        });
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Queue[url=" + queueUrl + "] DELETED");
@@ -352,7 +607,8 @@ public class SQSClient implements ISQSClient {
         attrs.add(QUEUE_DEPTH_ATTR_NAME);
 
         GetQueueAttributesResult result =
-            getClient().getQueueAttributes(queueUrl, attrs);
+            METRICS.time("getQueueAttributes", queueName(queueUrl),
+                () -> getClient().getQueueAttributes(queueUrl, attrs));
 
         int msgCnt = 0;
         String val = result.getAttributes().get(QUEUE_DEPTH_ATTR_NAME);
@@ -396,8 +652,13 @@ public class SQSClient implements ISQSClient {
                 + ")");
         }
 
+        throttle(queueUrl);
         SendMessageResult result =
-            getClient().sendMessage(new SendMessageRequest(queueUrl, content));
+            METRICS.time("sendMessage", queueName(queueUrl),
+                () -> getClient().sendMessage(
+                    new SendMessageRequest(queueUrl, content)));
+        METRICS.addBytes("sendMessage", queueName(queueUrl),
+            ClientMetrics.utf8Length(content));
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Message " + result.getMessageId() + " SENT");
@@ -409,19 +670,31 @@ public class SQSClient implements ISQSClient {
     public SendMessageBatchResult sendMessages(final String queueUrl,
                                                final List<String> content) {
 
+        // the entry Id is the position in the content List so callers can
+        // match the successful/failed result entries back to their messages
         List<SendMessageBatchRequestEntry> entries =
-            content
-                .stream()
-                .map(
-                    row -> {
-                        SendMessageBatchRequestEntry entry =
-                            new SendMessageBatchRequestEntry();
-                        entry.setId(UUID.randomUUID().toString());
-                        entry.setMessageBody(row);
-                        return entry;
-                    }).collect(Collectors.toList());
+            new ArrayList<SendMessageBatchRequestEntry>(content.size());
+        for (int i = 0; i < content.size(); i++) {
+            SendMessageBatchRequestEntry entry =
+                new SendMessageBatchRequestEntry();
+            entry.setId(String.valueOf(i));
+            entry.setMessageBody(content.get(i));
+            entries.add(entry);
+        }
 
-        return getClient().sendMessageBatch(queueUrl, entries);
+        throttle(queueUrl);
+        SendMessageBatchResult result =
+            METRICS.time("sendMessageBatch", queueName(queueUrl),
+                () -> getClient().sendMessageBatch(queueUrl, entries));
+        if (METRICS.isEnabled()) {
+            long bytes = 0;
+            for (String body : content) {
+                bytes += ClientMetrics.utf8Length(body);
+            }
+            METRICS.addBytes("sendMessageBatch", queueName(queueUrl), bytes);
+        }
+
+        return result;
     }
 
     /**
@@ -445,7 +718,8 @@ public class SQSClient implements ISQSClient {
             LOGGER.trace("receiveMessage(" + queueUrl + ")");
         }
 
-        ReceiveMessageResult result = getClient().receiveMessage(queueUrl);
+        ReceiveMessageResult result = receive(queueName(queueUrl),
+            () -> getClient().receiveMessage(queueUrl));
 
         java.util.List<Message> msgs = null;
         if ((result == null) || ((msgs = result.getMessages()) == null)
@@ -493,7 +767,8 @@ public class SQSClient implements ISQSClient {
             ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl);
             request.setMaxNumberOfMessages(MAX_NUM_MESSAGES_CHUNK.get());
 
-            ReceiveMessageResult result = getClient().receiveMessage(request);
+            ReceiveMessageResult result = receive(queueName(queueUrl),
+                () -> getClient().receiveMessage(request));
 
             java.util.List<Message> msgs = null;
             if ((result == null) || ((msgs = result.getMessages()) == null)
@@ -547,7 +822,9 @@ public class SQSClient implements ISQSClient {
         List<Message> contentMsgs = new ArrayList<Message>();
         while (getPendingMessageCount(request.getQueueUrl()) > 0) {
 
-            ReceiveMessageResult result = getClient().receiveMessage(request);
+            ReceiveMessageResult result =
+                receive(queueName(request.getQueueUrl()),
+                    () -> getClient().receiveMessage(request));
 
             java.util.List<Message> msgs = result.getMessages();
             if ((msgs == null) || msgs.isEmpty()) {
@@ -580,7 +857,10 @@ public class SQSClient implements ISQSClient {
         LOGGER.info("Deleting message with receiptHandle = [" + receiptHandle
             + "] from queue = [" + queueUrl + "]");
 
-        getClient().deleteMessage(queueUrl, receiptHandle);
+        METRICS.time("deleteMessage", queueName(queueUrl), () -> {
+            getClient().deleteMessage(queueUrl, receiptHandle);
+            return null;
+        });
 
     }
 
@@ -612,8 +892,31 @@ public class SQSClient implements ISQSClient {
                             row.getValue());
                     }).collect(Collectors.toList());
 
-        getClient().deleteMessageBatch(queueUrl, entries);
+        METRICS.time("deleteMessageBatch", queueName(queueUrl), () -> {
+            getClient().deleteMessageBatch(queueUrl, entries);
+            return null;
+        });
+
+    }
 
+    /**
+     * Times a ReceiveMessage call and counts the size of the received bodies
+     */
+    private static ReceiveMessageResult receive(final String queueName,
+        final ClientMetrics.Call<ReceiveMessageResult, RuntimeException> call) {
+
+        ReceiveMessageResult result =
+            METRICS.time("receiveMessage", queueName, call);
+        if (METRICS.isEnabled() && (result != null)
+            && (result.getMessages() != null)) {
+            long bytes = 0;
+            for (Message msg : result.getMessages()) {
+                bytes += ClientMetrics.utf8Length(msg.getBody());
+            }
+            METRICS.addBytes("receiveMessage", queueName, bytes);
+        }
+
+        return result;
     }
 
     /**
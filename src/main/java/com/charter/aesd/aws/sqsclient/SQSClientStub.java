@@ -122,9 +122,11 @@ public class SQSClientStub implements ISQSClient {
         SendMessageBatchResult result = new SendMessageBatchResult();
         List<SendMessageBatchResultEntry> entries = new ArrayList<>();
 
-        for (String messageContent : content) {
+        for (int i = 0; i < content.size(); i++) {
+            String messageContent = content.get(i);
             SendMessageBatchResultEntry entry =
                 new SendMessageBatchResultEntry();
+            entry.setId(String.valueOf(i));
 
             try {
                 SendMessageResult sendMessageResult =
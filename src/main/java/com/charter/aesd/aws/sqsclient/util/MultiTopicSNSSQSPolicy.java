@@ -0,0 +1,66 @@
+package com.charter.aesd.aws.sqsclient.util;
+
+import com.charter.aesd.aws.sqsclient.ISQSPolicy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Variant of {@link DefaultSNSSQSPolicy} that allows several SNS Topics to
+ * publish to the same Queue.
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class MultiTopicSNSSQSPolicy implements ISQSPolicy {
+
+    /**
+     *
+     */
+    private final static String ALLOW_SNS_PUBLISH_POLICY = "{\n"
+        + "\"Version\":\"2012-10-17\",\n" + "\"Statement\": [\n" + "  {\n"
+        + "    \"Sid\": \"{SQS_POLICY_NAME}\",\n"
+        + "    \"Effect\": \"Allow\",\n" + "    \"Principal\": {\n"
+        + "      \"AWS\": \"*\"\n" + "    },\n"
+        + "    \"Action\": \"sqs:SendMessage\",\n"
+        + "    \"Resource\": \"{SQS_QUEUE_ARN}\",\n" + "    \"Condition\": {\n"
+        + "      \"ArnEquals\": {\n"
+        + "        \"aws:SourceArn\": [{SNS_TOPIC_ARNS}]\n" + "      }\n"
+        + "    }\n" + "  }\n" + "]\n" + "}";
+
+    private final String policyName;
+    private final String queueArn;
+    private final List<String> topicArns;
+
+    /**
+     *
+     */
+    public MultiTopicSNSSQSPolicy(final String policyName,
+        final String queueArn, final Collection<String> topicArns) {
+
+        this.policyName = policyName;
+        this.queueArn = queueArn;
+        this.topicArns = new ArrayList<String>(topicArns);
+    }
+
+    /**
+     *
+     */
+    public String toJson() {
+
+        StringBuilder arns = new StringBuilder();
+        for (String topicArn : topicArns) {
+            if (arns.length() > 0) {
+                arns.append(", ");
+            }
+            arns.append('"').append(topicArn).append('"');
+        }
+
+        return ALLOW_SNS_PUBLISH_POLICY
+            .replace("{SQS_POLICY_NAME}", policyName)
+            .replace("{SQS_QUEUE_ARN}", queueArn)
+            .replace("{SNS_TOPIC_ARNS}", arns.toString());
+    }
+} // MultiTopicSNSSQSPolicy
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.util;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixExecutable;
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p/>
+ * Generic class for wrapping AWS SNS/SQS calls in Hystrix. Every command runs
+ * in the thread pool {@code {service}-{pool}}, so that one kind of operation
+ * (e.g. long polling receives) cannot starve another (e.g. sends), and is
+ * keyed {@code {service}.{operation}.{resource}} so that each Queue/Topic
+ * gets its own circuit breaker and metrics. The defaults given here can be
+ * overridden with the usual {@code hystrix.command.*} and
+ * {@code hystrix.threadpool.*} Archaius properties.
+ * <p/>
+ * Request caching and logging are disabled, the commands are used outside of
+ * a {@code HystrixRequestContext}.
+ * <p/>
+ *
+ * @param <R>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class AWSCommand<R> extends HystrixCommand<R> {
+
+    public static final String GROUP_KEY = "AwsLib";
+
+    private final Callable<R> function;
+
+    /**
+     * @param service {@code String} e.g. {@code SQS}
+     * @param pool {@code String} the operation type, names the thread pool
+     * @param poolSize {@code int} default core size of the thread pool
+     * @param operation {@code String} the client method
+     * @param resource {@code String} the Queue/Topic name, may be null
+     * @param timeoutMillis {@code int} default execution timeout
+     * @param function {@code Callable} the AWS call
+     */
+    public AWSCommand(final String service, final String pool, final int poolSize, final String operation,
+                      final String resource, final int timeoutMillis, final Callable<R> function) {
+
+        super(setter(service, pool, poolSize, operation, resource, timeoutMillis));
+        this.function = function;
+    }
+
+    /**
+     * @return {@code HystrixCommand.Setter} the keys and property defaults
+     *         shared by every {@link AWSCommand} with the same arguments
+     */
+    public static HystrixCommand.Setter setter(final String service, final String pool, final int poolSize,
+                                               final String operation, final String resource,
+                                               final int timeoutMillis) {
+
+        String commandKey = service + "." + operation + ((resource != null) ? "." + resource : "");
+        return HystrixCommand.Setter
+            .withGroupKey(HystrixCommandGroupKey.Factory.asKey(GROUP_KEY))
+            .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey))
+            .andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey(service + "-" + pool))
+            .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+                .withExecutionTimeoutInMilliseconds(timeoutMillis)
+                .withRequestCacheEnabled(false)
+                .withRequestLogEnabled(false))
+            .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter()
+                .withCoreSize(poolSize));
+    }
+
+    @Override
+    protected R run() throws Exception {
+
+        return function.call();
+    }
+
+    /**
+     * Executes a command or collapser, rethrowing the exception raised by the
+     * AWS call itself rather than the Hystrix wrapper. Timeouts, open circuits
+     * and rejections surface as {@link HystrixRuntimeException}.
+     *
+     * @param executable {@code HystrixExecutable} the command to run
+     *
+     * @return {@code R} the result of the command
+     *
+     * @throws IOException
+     */
+    public static <R> R execute(final HystrixExecutable<R> executable) throws IOException {
+
+        try {
+            return executable.queue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the AWS call");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (HystrixRuntimeException e) {
+            // queue() fails fast when the command is rejected or short-circuited
+            throw rethrow(e);
+        }
+    }
+
+    private static IOException rethrow(final Throwable failure) throws IOException {
+
+        Throwable cause = failure;
+        if ((cause instanceof HystrixRuntimeException)
+            && (((HystrixRuntimeException) cause).getFailureType()
+                == HystrixRuntimeException.FailureType.COMMAND_EXCEPTION)
+            && (cause.getCause() != null)) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Same as {@link #execute(HystrixExecutable)} for the calls that do not
+     * declare {@code IOException}.
+     */
+    public static <R> R executeUnchecked(final HystrixExecutable<R> executable) {
+
+        try {
+            return execute(executable);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+} // AWSCommand
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.util;
+
+import com.netflix.config.DynamicDoubleProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p/>
+ * Process wide set of {@link TokenBucketRateLimiter}s shared by every client
+ * instance, since the AWS quotas they protect are per account rather than per
+ * client. Limits are configured through Archaius:
+ *
+ * <pre>
+ * aws.{scope}.rateLimit.permitsPerSecond          shared limit for the scope
+ * aws.{scope}.rateLimit.burst
+ * aws.{scope}.rateLimit.{name}.permitsPerSecond   dedicated limit for one topic/queue
+ * aws.{scope}.rateLimit.{name}.burst
+ * </pre>
+ *
+ * A resource without its own rate draws from the shared limiter of its scope.
+ * Rates default to 0 (unlimited) and bursts to 1, i.e. strict pacing.
+ * <p/>
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class RateLimiterRegistry {
+
+    private static final RateLimiterRegistry INSTANCE = new RateLimiterRegistry();
+
+    private final ConcurrentMap<String, TokenBucketRateLimiter> limiters =
+        new ConcurrentHashMap<String, TokenBucketRateLimiter>();
+
+    /**
+     * @return {@link RateLimiterRegistry} the shared registry
+     */
+    public static RateLimiterRegistry getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Blocks until the limiter for the given resource grants a permit.
+     *
+     * @param scope {@code String} the client scope, e.g. {@code snsClient}
+     * @param name {@code String} the topic or queue name, may be null
+     *
+     * @return {@code long} the number of nanoseconds spent waiting
+     */
+    public long acquire(final String scope, final String name) {
+
+        return getLimiter(scope, name).acquire();
+    }
+
+    /**
+     * @param scope {@code String} the client scope, e.g. {@code sqsClient}
+     * @param name {@code String} the topic or queue name, may be null
+     *
+     * @return {@link TokenBucketRateLimiter} the dedicated limiter of the
+     *         resource when one is configured, otherwise the shared limiter of
+     *         the scope
+     */
+    public TokenBucketRateLimiter getLimiter(final String scope, final String name) {
+
+        if (name != null) {
+            TokenBucketRateLimiter limiter = lookup("aws." + scope + ".rateLimit." + name);
+            if (limiter.isEnabled()) {
+                return limiter;
+            }
+        }
+
+        return lookup("aws." + scope + ".rateLimit");
+    }
+
+    private TokenBucketRateLimiter lookup(final String prefix) {
+
+        TokenBucketRateLimiter limiter = limiters.get(prefix);
+        if (limiter == null) {
+            final DynamicDoubleProperty rate =
+                DynamicPropertyFactory.getInstance().getDoubleProperty(prefix + ".permitsPerSecond", 0);
+            final DynamicIntProperty burst =
+                DynamicPropertyFactory.getInstance().getIntProperty(prefix + ".burst", 1);
+
+            limiter = new TokenBucketRateLimiter(rate::get, burst::get);
+            TokenBucketRateLimiter existing = limiters.putIfAbsent(prefix, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+
+        return limiter;
+    }
+} // RateLimiterRegistry
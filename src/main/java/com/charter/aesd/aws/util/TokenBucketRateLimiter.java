@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015, Charter Communications, All rights reserved.
+ */
+package com.charter.aesd.aws.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * <p/>
+ * Lock-free token bucket used to keep callers below a service side request
+ * quota. The bucket is tracked as a single "theoretical arrival time" (the
+ * generic cell rate algorithm), so a permit is reserved with one CAS and the
+ * caller then sleeps outside of any lock until its slot comes up.
+ * <p/>
+ * The rate and burst are read through suppliers on every call so they can be
+ * backed by dynamic (Archaius) properties. A rate of zero or less disables
+ * the limiter.
+ *
+ * @author $Author: $
+ * @version $Rev: $
+ * @since ${date}
+ */
+public class TokenBucketRateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final DoubleSupplier permitsPerSecond;
+    private final IntSupplier burst;
+
+    /**
+     * {@link System#nanoTime()} at which the bucket will be full again
+     */
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param permitsPerSecond {@code DoubleSupplier} the sustained rate; a
+     *        value of zero or less means unlimited
+     * @param burst {@code IntSupplier} the number of permits that may be
+     *        taken back to back when the bucket is full
+     */
+    public TokenBucketRateLimiter(final DoubleSupplier permitsPerSecond,
+                                  final IntSupplier burst) {
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * @return {@code boolean} true if a rate is currently configured
+     */
+    public boolean isEnabled() {
+
+        return permitsPerSecond.getAsDouble() > 0;
+    }
+
+    /**
+     * Blocks until a single permit is available.
+     *
+     * @return {@code long} the number of nanoseconds spent waiting
+     */
+    public long acquire() {
+
+        return acquire(1);
+    }
+
+    /**
+     * Blocks until the requested number of permits is available.
+     *
+     * @param permits {@code int} the number of permits to take
+     *
+     * @return {@code long} the number of nanoseconds spent waiting
+     */
+    public long acquire(final int permits) {
+
+        final long wait = reserve(permits, Long.MAX_VALUE);
+        if (wait > 0) {
+            Uninterruptibles.sleepUninterruptibly(wait, TimeUnit.NANOSECONDS);
+        }
+
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * Takes a single permit only if it is available immediately.
+     *
+     * @return {@code boolean} true if the permit was taken
+     */
+    public boolean tryAcquire() {
+
+        return reserve(1, 0) <= 0;
+    }
+
+    /**
+     * Reserves permits if the resulting wait would not exceed the given
+     * bound.
+     *
+     * @return {@code long} the nanoseconds to wait for the reservation, or
+     *         {@code Long.MAX_VALUE} if nothing was reserved
+     */
+    private long reserve(final int permits, final long maxWaitNanos) {
+
+        final double rate = permitsPerSecond.getAsDouble();
+        if (rate <= 0) {
+            return 0;
+        }
+
+        final long interval = Math.max(1L, (long) (NANOS_PER_SECOND / rate));
+        final long tolerance = interval * Math.max(1, burst.getAsInt());
+
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = theoreticalArrival.get();
+            final long next = Math.max(current, now) + (interval * permits);
+            final long wait = next - tolerance - now;
+
+            if (wait > maxWaitNanos) {
+                return Long.MAX_VALUE;
+            }
+
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+} // TokenBucketRateLimiter
@@ -0,0 +1,57 @@
+package com.charter.aesd.aws.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(LatencyHistogram.lowerBoundOf(index) <= value);
+            Assert.assertTrue(LatencyHistogram.lowerBoundOf(index + 1) > value);
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000, snapshot.getMax());
+        Assert.assertEquals(500500, snapshot.getMean(), 0.001);
+        assertWithin(500000, snapshot.getValueAtPercentile(50));
+        assertWithin(990000, snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSnapshotReset() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+
+        Assert.assertEquals(2, histogram.snapshot(true).getCount());
+        LatencyHistogram.Snapshot empty = histogram.snapshot(true);
+        Assert.assertEquals(0, empty.getCount());
+        Assert.assertEquals(0, empty.getMax());
+        Assert.assertEquals(0, empty.getValueAtPercentile(99));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+
+        Assert.assertTrue("expected ~" + expected + " but was " + actual,
+            Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,213 @@
+package com.charter.aesd.aws.provisioning;
+
+import com.amazonaws.services.sns.model.Subscription;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.amazonaws.services.sqs.model.SetQueueAttributesResult;
+import com.charter.aesd.aws.snsclient.SNSClient;
+import com.charter.aesd.aws.sqsclient.SQSClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TopologyProvisionerTest {
+
+    private static final String TOPIC_ARN = "arn:aws:sns:us-west-2:123456789012:orders";
+    private static final String QUEUE_URL = "https://sqs.us-west-2.amazonaws.com/123456789012/billing";
+    private static final String QUEUE_ARN = "arn:aws:sqs:us-west-2:123456789012:billing";
+    private static final String SUBSCRIPTION_ARN = TOPIC_ARN + ":0b3c5e2a";
+
+    private static final String OTHER_STATEMENT = "{\"Sid\":\"Admin\",\"Effect\":\"Allow\","
+        + "\"Principal\":{\"AWS\":\"arn:aws:iam::123456789012:root\"},\"Action\":\"sqs:*\","
+        + "\"Resource\":\"" + QUEUE_ARN + "\"}";
+
+    private final FakeSQS sqs = new FakeSQS();
+    private final FakeSNS sns = new FakeSNS();
+
+    @Test
+    public void testQueuePolicyKeepsOtherStatements() {
+
+        sqs.policy = "{\"Version\":\"2012-10-17\",\"Statement\":[" + OTHER_STATEMENT + "]}";
+
+        ProvisioningResult result = provision(null);
+        Assert.assertTrue(result.toString(), result.isSuccessful());
+        Assert.assertEquals(1, sqs.policyWrites.get());
+        Assert.assertTrue(sqs.policy, sqs.policy.contains("\"Sid\":\"Admin\""));
+        Assert.assertTrue(sqs.policy, sqs.policy.contains(TOPIC_ARN));
+        Assert.assertTrue(result.getChanges().contains("UPDATED policy of Queue " + QUEUE_URL));
+
+        // nothing changed, nothing written
+        result = provision(null);
+        Assert.assertTrue(result.toString(), result.isSuccessful());
+        Assert.assertEquals(1, sqs.policyWrites.get());
+        Assert.assertTrue(result.getChanges().isEmpty());
+    }
+
+    @Test
+    public void testQueuePolicyKeepsAllowedTopics() {
+
+        String otherTopic = "arn:aws:sns:us-west-2:123456789012:refunds";
+        sqs.policy = "{\"Version\":\"2012-10-17\",\"Statement\":{\"Sid\":\"DefaultSNSPolicy\",\"Effect\":\"Allow\","
+            + "\"Principal\":{\"AWS\":\"*\"},\"Action\":\"sqs:SendMessage\",\"Resource\":\"" + QUEUE_ARN + "\","
+            + "\"Condition\":{\"ArnEquals\":{\"aws:SourceArn\":\"" + otherTopic + "\"}}}}";
+
+        provision(null);
+        Assert.assertEquals(1, sqs.policyWrites.get());
+        Assert.assertTrue(sqs.policy, sqs.policy.contains(otherTopic));
+        Assert.assertTrue(sqs.policy, sqs.policy.contains(TOPIC_ARN));
+        // one statement per Sid
+        Assert.assertEquals(sqs.policy.indexOf("DefaultSNSPolicy"), sqs.policy.lastIndexOf("DefaultSNSPolicy"));
+    }
+
+    @Test
+    public void testQueueWithoutPolicy() {
+
+        provision(null);
+        Assert.assertEquals(1, sqs.policyWrites.get());
+        Assert.assertTrue(sqs.policy, sqs.policy.contains(TOPIC_ARN));
+
+        provision(null);
+        Assert.assertEquals(1, sqs.policyWrites.get());
+    }
+
+    @Test
+    public void testFilterPolicyIsComparedAsJson() {
+
+        // as SNS returns it
+        sns.attributes.put("FilterPolicy", "{\"store\":[\"example_corp\"],\"price\":[{\"numeric\":[\">\",10]}]}");
+
+        ProvisioningResult result = provision("{\n  \"price\": [ {\"numeric\": [\">\", 10]} ],\n"
+            + "  \"store\": [ \"example_corp\" ]\n}");
+        Assert.assertTrue(result.toString(), result.isSuccessful());
+        Assert.assertTrue(sns.filterPolicyWrites.isEmpty());
+
+        result = provision("{\"store\":[\"other_corp\"]}");
+        Assert.assertEquals(Collections.singletonList("{\"store\":[\"other_corp\"]}"), sns.filterPolicyWrites);
+        Assert.assertTrue(result.getChanges().contains("UPDATED filter policy of " + subscription("x")));
+    }
+
+    @Test
+    public void testFilterPolicyIsRemoved() {
+
+        sns.attributes.put("FilterPolicy", "{\"store\":[\"example_corp\"]}");
+
+        ProvisioningResult result = provision(null);
+        Assert.assertTrue(result.toString(), result.isSuccessful());
+        Assert.assertEquals(Collections.singletonList((String) null), sns.filterPolicyWrites);
+        Assert.assertTrue(result.getChanges().contains("REMOVED filter policy of " + subscription(null)));
+
+        provision(null);
+        Assert.assertEquals(1, sns.filterPolicyWrites.size());
+    }
+
+    private static Topology.Subscription subscription(final String filterPolicy) {
+
+        return new Topology.Subscription("orders", "billing", false, filterPolicy);
+    }
+
+    private ProvisioningResult provision(final String filterPolicy) {
+
+        Topology topology = new Topology.Builder().addTopic("orders").addQueue("billing")
+            .addSubscription("orders", "billing", false, filterPolicy).build();
+
+        return new TopologyProvisioner(sns, new SQSClient(sqs) { }, 2).provision(topology);
+    }
+
+    /**
+     * One Queue and its attributes
+     */
+    private static class FakeSQS extends AbstractAmazonSQS {
+
+        private volatile String policy;
+        private final AtomicInteger policyWrites = new AtomicInteger();
+
+        @Override
+        public ListQueuesResult listQueues(final String queueNamePrefix) {
+
+            return new ListQueuesResult().withQueueUrls(QUEUE_URL);
+        }
+
+        @Override
+        public ListQueuesResult listQueues() {
+
+            return listQueues((String) null);
+        }
+
+        @Override
+        public GetQueueAttributesResult getQueueAttributes(final String queueUrl, final List<String> names) {
+
+            Map<String, String> attributes = new HashMap<String, String>();
+            attributes.put("QueueArn", QUEUE_ARN);
+            if (policy != null) {
+                attributes.put("Policy", policy);
+            }
+            return new GetQueueAttributesResult().withAttributes(attributes);
+        }
+
+        @Override
+        public SetQueueAttributesResult setQueueAttributes(final String queueUrl,
+                                                           final Map<String, String> attributes) {
+
+            policy = attributes.get("Policy");
+            policyWrites.incrementAndGet();
+            return new SetQueueAttributesResult();
+        }
+    }
+
+    /**
+     * One Topic, the Queue is subscribed to it
+     */
+    private static class FakeSNS extends SNSClient {
+
+        private final Map<String, String> attributes = new ConcurrentHashMap<String, String>();
+        private final List<String> filterPolicyWrites = Collections.synchronizedList(new ArrayList<String>());
+
+        FakeSNS() {
+
+            super(null);
+            attributes.put("RawMessageDelivery", "false");
+        }
+
+        @Override
+        public List<String> listTopicArns() {
+
+            return Collections.singletonList(TOPIC_ARN);
+        }
+
+        @Override
+        public List<Subscription> listSubscriptions(final String topicArn) {
+
+            return Collections.singletonList(new Subscription().withProtocol("sqs").withEndpoint(QUEUE_ARN)
+                .withSubscriptionArn(SUBSCRIPTION_ARN).withTopicArn(TOPIC_ARN));
+        }
+
+        @Override
+        public Map<String, String> getSubscriptionAttributes(final String subscriptionArn) {
+
+            return new HashMap<String, String>(attributes);
+        }
+
+        @Override
+        public void setFilterPolicy(final String subscriptionArn, final String filterPolicy) {
+
+            filterPolicyWrites.add(filterPolicy);
+            if (filterPolicy == null) {
+                attributes.remove("FilterPolicy");
+            } else {
+                attributes.put("FilterPolicy", filterPolicy);
+            }
+        }
+    }
+}
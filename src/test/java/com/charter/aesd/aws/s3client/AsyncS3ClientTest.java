@@ -0,0 +1,87 @@
+package com.charter.aesd.aws.s3client;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class AsyncS3ClientTest {
+
+    private static final String BUCKET_NAME = ".";
+    private static final String DIRECTORY = "target/async-test/";
+
+    @Test
+    public void testOperationsCompose() throws Exception {
+
+        final IAsyncS3Client client = new FileS3Client().async();
+
+        List<CompletableFuture<Void>> puts = IntStream.range(0, 20)
+            .mapToObj(i -> client.put(BUCKET_NAME, DIRECTORY + i, 1, new ByteArrayInputStream(new byte[] {(byte) i})))
+            .collect(Collectors.toList());
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture[puts.size()])).get();
+
+        try {
+            Assert.assertEquals(20, client.listFiles(BUCKET_NAME, DIRECTORY, false).get().size());
+            Assert.assertTrue(client.exists(BUCKET_NAME, DIRECTORY + "7").get());
+
+            byte[] content = client.get(BUCKET_NAME, DIRECTORY + "7").thenApply(AsyncS3ClientTest::read).get();
+            Assert.assertArrayEquals(new byte[] {7}, content);
+
+            client.delete(BUCKET_NAME, DIRECTORY + "7")
+                .thenCompose(done -> client.exists(BUCKET_NAME, DIRECTORY + "7"))
+                .thenAccept(Assert::assertFalse).get();
+        } finally {
+            Assert.assertTrue(client.deleteAll(BUCKET_NAME,
+                IntStream.range(0, 20).mapToObj(i -> DIRECTORY + i).collect(Collectors.toList())).get().isSuccessful());
+        }
+    }
+
+    @Test
+    public void testFailureCompletesExceptionally() throws InterruptedException {
+
+        CompletableFuture<InputStream> missing = new FileS3Client().async().get(BUCKET_NAME, DIRECTORY + "missing");
+        try {
+            missing.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+    }
+
+    @Test
+    public void testCallsRunOnTheGivenExecutor() throws Exception {
+
+        final String[] thread = new String[1];
+        IAsyncS3Client client = new AsyncS3Client(new FileS3Client(), command -> {
+            thread[0] = Thread.currentThread().getName();
+            command.run();
+        });
+
+        Assert.assertFalse(client.exists(BUCKET_NAME, DIRECTORY + "missing").get());
+        Assert.assertEquals(Thread.currentThread().getName(), thread[0]);
+        Assert.assertEquals(Arrays.asList(), client.listFiles(BUCKET_NAME, "src/test/resources/file1", true).get());
+    }
+
+    private static byte[] read(final InputStream in) {
+
+        try (InputStream stream = in) {
+            return ByteStreams.toByteArray(stream);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.charter.aesd.aws.s3client;
+
+import com.charter.aesd.aws.metrics.MetricsRegistry;
+import com.charter.aesd.aws.metrics.MetricsSnapshot;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BufferPoolTest {
+
+    private static final String MAX_BYTES = "aws.s3Client.bufferPool.maxBytes";
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty(MAX_BYTES);
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+
+        ByteBuffer buffer = BufferPool.acquire(1001);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(1001, buffer.remaining());
+        buffer.put((byte) 1);
+        BufferPool.release(buffer);
+
+        ByteBuffer again = BufferPool.acquire(1001);
+        Assert.assertSame(buffer, again);
+        // handed out cleared
+        Assert.assertEquals(0, again.position());
+        Assert.assertEquals(1001, again.limit());
+        BufferPool.release(again);
+    }
+
+    @Test
+    public void testSecondReleaseIsIgnored() {
+
+        long inUse = BufferPool.getInUseBytes();
+        ByteBuffer buffer = BufferPool.acquire(1005);
+        BufferPool.release(buffer);
+        BufferPool.release(buffer);
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+
+        // queued once, not handed to two transfers
+        ByteBuffer first = BufferPool.acquire(1005);
+        ByteBuffer second = BufferPool.acquire(1005);
+        Assert.assertFalse(first == second);
+        BufferPool.release(first);
+        BufferPool.release(second);
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+
+    @Test
+    public void testInUseBytes() {
+
+        long inUse = BufferPool.getInUseBytes();
+        ByteBuffer buffer = BufferPool.acquire(1002);
+        Assert.assertEquals(inUse + 1002, BufferPool.getInUseBytes());
+        Assert.assertTrue(BufferPool.getAllocatedBytes() >= BufferPool.getInUseBytes());
+
+        BufferPool.release(buffer);
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+
+    @Test
+    public void testPoolIsReportedWithTheMetrics() {
+
+        ByteBuffer buffer = BufferPool.acquire(1004);
+        try {
+            MetricsSnapshot snapshot = MetricsRegistry.getInstance().forService("S3").get("bufferPool", null)
+                .snapshot(false);
+            Assert.assertEquals(BufferPool.getInUseBytes(), snapshot.getInUseBytes());
+            Assert.assertEquals(BufferPool.getAllocatedBytes(), snapshot.getAllocatedBytes());
+            Assert.assertEquals(0, snapshot.getErrors());
+            Assert.assertTrue(snapshot.toString(), snapshot.toString().contains(" inUse="));
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    @Test
+    public void testExhaustedPoolFallsBackToHeap() {
+
+        ConfigurationManager.getConfigInstance().setProperty(MAX_BYTES, 0);
+        long inUse = BufferPool.getInUseBytes();
+
+        ByteBuffer buffer = BufferPool.acquire(1003);
+        Assert.assertFalse(buffer.isDirect());
+        Assert.assertEquals(1003, buffer.capacity());
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+
+        // left to the garbage collector
+        BufferPool.release(buffer);
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+
+    @Test
+    public void testFreeBuffersOfOtherCapacitiesAreDropped() {
+
+        BufferPool.release(BufferPool.acquire(2000));
+        // room for the free buffer only
+        ConfigurationManager.getConfigInstance().setProperty(MAX_BYTES, BufferPool.getAllocatedBytes());
+
+        ByteBuffer buffer = BufferPool.acquire(1500);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertTrue(BufferPool.getAllocatedBytes() <= BufferPool.getMaxBytes());
+        BufferPool.release(buffer);
+    }
+
+    @Test
+    public void testInputStreamSupportsReset() throws IOException {
+
+        ByteBuffer content = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+        content.position(1);
+
+        InputStream in = BufferPool.inputStream(content);
+        Assert.assertTrue(in.markSupported());
+        Assert.assertEquals(2, in.read());
+        Assert.assertEquals(3, in.available());
+
+        // the SDK resets the stream to resend a request
+        in.reset();
+        Assert.assertArrayEquals(new byte[] {2, 3, 4, 5}, ByteStreams.toByteArray(in));
+        Assert.assertEquals(-1, in.read());
+        // the buffer itself is not moved
+        Assert.assertEquals(1, content.position());
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+
+        byte[] content = new byte[3 * BufferPool.COPY_BUFFER_SIZE + 17];
+        new Random(50).nextBytes(content);
+        long inUse = BufferPool.getInUseBytes();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long copied = BufferPool.copy(new ByteArrayInputStream(content), Channels.newChannel(out));
+
+        Assert.assertEquals(content.length, copied);
+        Assert.assertArrayEquals(content, out.toByteArray());
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+}
@@ -0,0 +1,238 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class CachingS3ClientTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    private File directory;
+    private VersionedBucket s3;
+    private S3Client client;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("s3-cache").toFile();
+        s3 = new VersionedBucket();
+        client = new S3Client.Builder(s3).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testUnchangedFileIsServedFromDisk() throws IOException {
+
+        s3.objects.put("a", "first".getBytes());
+        CachingS3Client cache = new CachingS3Client(client, directory, 1000);
+
+        Assert.assertEquals("first", read(cache.get(BUCKET, "a")));
+        Assert.assertEquals("first", read(cache.get(BUCKET, "a")));
+        Assert.assertEquals(2, s3.requests.get());
+        Assert.assertEquals(1, s3.bodies.get());
+        Assert.assertEquals(5, cache.getCachedBytes());
+
+        s3.objects.put("a", "second".getBytes());
+        Assert.assertEquals("second", read(cache.get(BUCKET, "a")));
+        Assert.assertEquals(2, s3.bodies.get());
+        Assert.assertEquals(6, cache.getCachedBytes());
+        Assert.assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void testCacheSurvivesRestart() throws IOException {
+
+        s3.objects.put("a", "content".getBytes());
+        read(new CachingS3Client(client, directory, 1000).get(BUCKET, "a"));
+
+        CachingS3Client restarted = new CachingS3Client(client, directory, 1000);
+        Assert.assertEquals(7, restarted.getCachedBytes());
+        File target = new File(directory.getParentFile(), directory.getName() + ".out");
+        try {
+            restarted.download(BUCKET, "a", target);
+            Assert.assertEquals("content", new String(Files.readAllBytes(target.toPath())));
+        } finally {
+            target.delete();
+        }
+        Assert.assertEquals(1, s3.bodies.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreEvicted() throws IOException {
+
+        s3.objects.put("a", new byte[40]);
+        s3.objects.put("b", new byte[40]);
+        s3.objects.put("c", new byte[40]);
+        s3.objects.put("large", new byte[101]);
+        CachingS3Client cache = new CachingS3Client(client, directory, 100);
+
+        read(cache.get(BUCKET, "a"));
+        read(cache.get(BUCKET, "b"));
+        read(cache.get(BUCKET, "a"));
+        read(cache.get(BUCKET, "c"));
+        Assert.assertEquals(80, cache.getCachedBytes());
+
+        // b was evicted, a was not
+        read(cache.get(BUCKET, "a"));
+        Assert.assertEquals(3, s3.bodies.get());
+        read(cache.get(BUCKET, "b"));
+        Assert.assertEquals(4, s3.bodies.get());
+
+        Assert.assertEquals(101, read(cache.get(BUCKET, "large")).length());
+        Assert.assertEquals(80, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testDeletedFileIsDropped() throws IOException {
+
+        s3.objects.put("a", "first".getBytes());
+        CachingS3Client cache = new CachingS3Client(client, directory, 1000);
+        read(cache.get(BUCKET, "a"));
+
+        s3.objects.remove("a");
+        try {
+            cache.get(BUCKET, "a");
+            Assert.fail();
+        } catch (AmazonS3Exception e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+        Assert.assertEquals(0, cache.getCachedBytes());
+        Assert.assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testTransferToAndGetByteBuffer() throws IOException {
+
+        s3.objects.put("a", "cached".getBytes());
+        s3.objects.put("large", "not cached".getBytes());
+        CachingS3Client cache = new CachingS3Client(client, directory, 8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(6, cache.transferTo(BUCKET, "a", Channels.newChannel(out)));
+        Assert.assertEquals("cached", out.toString());
+        Assert.assertEquals("cached", read(cache.getByteBuffer(BUCKET, "a")));
+        Assert.assertEquals(1, s3.bodies.get());
+
+        out.reset();
+        Assert.assertEquals(10, cache.transferTo(BUCKET, "large", Channels.newChannel(out)));
+        Assert.assertEquals("not cached", out.toString());
+        Assert.assertEquals("not cached", read(cache.getByteBuffer(BUCKET, "large")));
+        Assert.assertEquals(6, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testTruncatedFillIsNotCached() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        try {
+            s3.objects.put("a", "content".getBytes());
+            s3.truncated = true;
+            CachingS3Client cache = new CachingS3Client(client, directory, 1000);
+            try {
+                cache.get(BUCKET, "a");
+                Assert.fail("the truncated content was cached");
+            } catch (IOException e) {
+                Assert.assertEquals(0, cache.getCachedBytes());
+                Assert.assertEquals(0, directory.list().length);
+            }
+
+            // verified as it is read outside of the cache too
+            try {
+                client.getByteBuffer(BUCKET, "a");
+                Assert.fail("the truncated content was read");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+            }
+
+            s3.truncated = false;
+            Assert.assertEquals("content", read(cache.get(BUCKET, "a")));
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+        }
+    }
+
+    private static String read(final ByteBuffer buffer) {
+
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return new String(content);
+    }
+
+    private static String read(final InputStream in) throws IOException {
+
+        try (InputStream stream = in) {
+            return new String(ByteStreams.toByteArray(stream));
+        }
+    }
+
+    /**
+     * Answers GETs with the ETag of the current content, null when it
+     * matches If-None-Match like the SDK does on a 304
+     */
+    static class VersionedBucket extends AmazonS3Client {
+
+        final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger bodies = new AtomicInteger();
+        volatile boolean truncated;
+
+        @Override
+        public S3Object getObject(final GetObjectRequest request) {
+
+            requests.incrementAndGet();
+            byte[] content = objects.get(request.getKey());
+            if (content == null) {
+                AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                e.setStatusCode(404);
+                throw e;
+            }
+
+            String eTag = Integer.toHexString(Arrays.hashCode(content)) + content.length;
+            if (request.getNonmatchingETagConstraints().contains(eTag)) {
+                return null;
+            }
+
+            bodies.incrementAndGet();
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            object.setBucketName(request.getBucketName());
+            object.getObjectMetadata().setContentLength(content.length);
+            object.getObjectMetadata().setHeader("ETag", eTag);
+            // a connection dropped before the end of the content
+            int length = truncated ? (content.length - 1) : content.length;
+            object.setObjectContent(new ByteArrayInputStream(content, 0, length));
+            return object;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.compression.codec");
+        ConfigurationManager.getConfigInstance().clearProperty("aws.lib.compression.codec");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+
+        final byte[] content = logLines(1000);
+        for (Compression compression : Compression.values()) {
+            for (int level = 1; level <= 9; level += 4) {
+                byte[] compressed = ByteStreams.toByteArray(compression.compress(new ByteArrayInputStream(content),
+                    level));
+                if (compression != Compression.NONE) {
+                    Assert.assertTrue(compression + " " + compressed.length, compressed.length < content.length / 5);
+                }
+                Assert.assertArrayEquals(content,
+                    ByteStreams.toByteArray(compression.decompress(new ByteArrayInputStream(compressed))));
+            }
+        }
+
+        Assert.assertEquals(Compression.GZIP, Compression.forContentEncoding("GZIP"));
+        Assert.assertEquals(Compression.NONE, Compression.forContentEncoding("br"));
+        Assert.assertEquals(Compression.NONE, Compression.forName("zstd"));
+    }
+
+    @Test
+    public void testS3ClientCompressesPuts() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.compression.codec", "gzip");
+        final StoringBucket s3 = new StoringBucket();
+        final S3Client client = new S3Client.Builder(s3).build();
+        final byte[] content = logLines(1000);
+
+        client.put(BUCKET, "log", content.length, new ByteArrayInputStream(content));
+
+        Assert.assertEquals("gzip", s3.metadata.get("log").getContentEncoding());
+        Assert.assertEquals(String.valueOf(content.length),
+            s3.metadata.get("log").getUserMetaDataOf(Compression.UNCOMPRESSED_LENGTH));
+        Assert.assertTrue(s3.objects.get("log").length < content.length / 5);
+        try (InputStream in = client.get(BUCKET, "log")) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        }
+
+        final S3Object object = client.getS3Object(BUCKET, "log");
+        Assert.assertEquals(content.length, object.getObjectMetadata().getContentLength());
+        try (InputStream in = object.getObjectContent()) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        }
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.compression.codec");
+        final ByteBuffer buffer = client.getByteBuffer(BUCKET, "log");
+        Assert.assertEquals(content.length, buffer.remaining());
+
+        // already encoded by the caller
+        final ObjectMetadata encoded = new ObjectMetadata();
+        encoded.setContentEncoding("br");
+        encoded.setContentLength(3);
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.compression.codec", "deflate");
+        client.put(BUCKET, "encoded", encoded, new ByteArrayInputStream(new byte[3]));
+        Assert.assertEquals(3, s3.objects.get("encoded").length);
+    }
+
+    @Test
+    public void testOnlyOwnObjectsAreDecompressed() throws IOException {
+
+        final StoringBucket s3 = new StoringBucket();
+        final S3Client client = new S3Client.Builder(s3).build();
+        final byte[] content = logLines(100);
+
+        // gzip served as it is by another writer, a .gz archive for instance
+        final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(content);
+        }
+        final ObjectMetadata foreign = new ObjectMetadata();
+        foreign.setContentEncoding("gzip");
+        foreign.setContentLength(gzip.size());
+        s3.putObject(new PutObjectRequest(BUCKET, "archive.gz", new ByteArrayInputStream(gzip.toByteArray()),
+            foreign));
+        try (InputStream in = client.get(BUCKET, "archive.gz")) {
+            Assert.assertArrayEquals(gzip.toByteArray(), ByteStreams.toByteArray(in));
+        }
+        Assert.assertEquals(gzip.size(), client.getByteBuffer(BUCKET, "archive.gz").remaining());
+
+        // the MD5 of the content is checked on the way, S3 only sees the compressed bytes
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.compression.codec", "gzip");
+        final ObjectMetadata withMd5 = new ObjectMetadata();
+        withMd5.setContentLength(content.length);
+        withMd5.setContentMD5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes()));
+        client.put(BUCKET, "log", withMd5, new ByteArrayInputStream(content));
+        Assert.assertNull(s3.metadata.get("log").getContentMD5());
+        Assert.assertEquals("gzip", s3.metadata.get("log").getUserMetaDataOf(Compression.CODEC));
+        try (InputStream in = client.get(BUCKET, "log")) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        }
+
+        withMd5.setContentMD5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(new byte[1]).asBytes()));
+        try {
+            client.put(BUCKET, "damaged", withMd5, new ByteArrayInputStream(content));
+            Assert.fail("not the content of the MD5");
+        } catch (AmazonClientException e) {
+            Assert.assertFalse(s3.objects.containsKey("damaged"));
+        }
+
+        // compared with the local files by the transfers, stored as it is
+        client.putUncompressed(BUCKET, "dir/log", content.length, new ByteArrayInputStream(content));
+        Assert.assertArrayEquals(content, s3.objects.get("dir/log"));
+    }
+
+    @Test
+    public void testFileS3ClientCompressesFiles() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.lib.compression.codec", "deflate");
+        final IS3Client s3Client = new FileS3Client();
+        final byte[] content = logLines(1000);
+        final File file = new File("target/compression-test/log");
+        try {
+            s3Client.put(".", file.getPath(), content.length, new ByteArrayInputStream(content));
+            // a file system without user attributes keeps the file as it is
+            Assert.assertTrue(file.length() < content.length / 5 || file.length() == content.length);
+
+            ConfigurationManager.getConfigInstance().clearProperty("aws.lib.compression.codec");
+            try (InputStream in = s3Client.get(".", file.getPath())) {
+                Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+            }
+            Assert.assertEquals(content.length, s3Client.getByteBuffer(".", file.getPath()).remaining());
+
+            final File copy = new File("target/compression-test/copy");
+            s3Client.download(".", file.getPath(), copy);
+            Assert.assertArrayEquals(content, Files.readAllBytes(copy.toPath()));
+        } finally {
+            s3Client.deletePrefix(".", "target/compression-test/");
+        }
+    }
+
+    private static byte[] logLines(final int count) {
+
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("2015-06-01T12:00:").append(i % 60).append(" INFO request ").append(i).append(" served\n");
+        }
+        return lines.toString().getBytes();
+    }
+
+    /**
+     * Keeps the objects put with their metadata
+     */
+    private static class StoringBucket extends AmazonS3Client {
+
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+        private final Map<String, ObjectMetadata> metadata = new ConcurrentHashMap<String, ObjectMetadata>();
+
+        @Override
+        public PutObjectResult putObject(final PutObjectRequest request) {
+
+            try {
+                objects.put(request.getKey(), ByteStreams.toByteArray(request.getInputStream()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            metadata.put(request.getKey(), request.getMetadata().clone());
+            return new PutObjectResult();
+        }
+
+        @Override
+        public S3Object getObject(final GetObjectRequest request) {
+
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            ObjectMetadata objectMetadata = metadata.get(request.getKey()).clone();
+            objectMetadata.setContentLength(objects.get(request.getKey()).length);
+            object.setObjectMetadata(objectMetadata);
+            object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(objects.get(request.getKey())),
+                null));
+            return object;
+        }
+    }
+}
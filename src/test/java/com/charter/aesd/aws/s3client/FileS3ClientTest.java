@@ -1,22 +1,34 @@
 package com.charter.aesd.aws.s3client;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
 import com.charter.aesd.aws.s3client.object.S3FileObject;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.netflix.config.ConfigurationManager;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FileS3ClientTest {
 
@@ -103,4 +115,173 @@ public class FileS3ClientTest {
         }
     }
 
+    @Test
+    public void testDeleteAllAndDeletePrefix() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        for (int i = 0; i < 10; i++) {
+            s3Client.put(BUCKET_NAME, "target/delete-test/a/" + i, 0L, new ByteArrayInputStream(new byte[1]));
+            s3Client.put(BUCKET_NAME, "target/delete-test/b/" + i, 0L, new ByteArrayInputStream(new byte[1]));
+        }
+
+        S3DeleteResult result = s3Client.deleteAll(BUCKET_NAME,
+            Lists.newArrayList("target/delete-test/a/0", "target/delete-test/a/1", "target/delete-test/a/missing"));
+        assertTrue(result.isSuccessful());
+        assertEquals(3, result.getDeletedCount());
+        assertFalse(new File("target/delete-test/a/0").exists());
+
+        result = s3Client.deletePrefix(BUCKET_NAME, "target/delete-test/");
+        assertTrue(result.isSuccessful());
+        assertEquals(18, result.getDeletedCount());
+        assertFalse(new File("target/delete-test").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeletePrefixRejectsEmptyPrefix() throws IOException {
+
+        new FileS3Client().deletePrefix(BUCKET_NAME, "");
+    }
+
+    @Test
+    public void testDeletePrefixWithAbsolutePath() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final String directory = new File("target/delete-absolute-test").getAbsolutePath();
+        s3Client.put(BUCKET_NAME, directory + "/a/1", 0L, new ByteArrayInputStream(new byte[1]));
+        s3Client.put(BUCKET_NAME, directory + "/a1", 0L, new ByteArrayInputStream(new byte[1]));
+        s3Client.put(BUCKET_NAME, directory + "/b", 0L, new ByteArrayInputStream(new byte[1]));
+
+        S3DeleteResult result = s3Client.deletePrefix(BUCKET_NAME, directory + "/a");
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.getDeletedCount());
+        assertFalse(s3Client.exists(BUCKET_NAME, directory + "/a"));
+        assertTrue(s3Client.exists(BUCKET_NAME, directory + "/b"));
+
+        result = s3Client.deletePrefix(BUCKET_NAME, directory + "/");
+        assertEquals(1, result.getDeletedCount());
+        assertFalse(s3Client.exists(BUCKET_NAME, directory));
+    }
+
+    @Test
+    public void testPutReplacesFileWithoutTempFiles() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final byte[] content = new byte[1024 * 1024];
+        content[content.length - 1] = 1;
+
+        s3Client.put(BUCKET_NAME, "target/put-test/file", 0L, new ByteArrayInputStream("old".getBytes()));
+        s3Client.put(BUCKET_NAME, "target/put-test/file", 0L, new ByteArrayInputStream(content));
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(Paths.get("target/put-test/file"))));
+        assertEquals(1, new File("target/put-test").list().length);
+        s3Client.deletePrefix(BUCKET_NAME, "target/put-test/");
+    }
+
+    @Test
+    public void testTransferToAndGetByteBuffer() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(6, s3Client.transferTo(BUCKET_NAME, "src/test/resources/file1", Channels.newChannel(out)));
+        assertEquals("Test 1", out.toString());
+
+        final ByteBuffer buffer = s3Client.getByteBuffer(BUCKET_NAME, "src/test/resources/file1");
+        final byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        assertEquals("Test 1", new String(content));
+    }
+
+    @Test
+    public void testVerifyChecksums() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        final IS3Client s3Client = new FileS3Client();
+        final byte[] content = "checksummed".getBytes();
+        final File file = new File("target/checksum-test/file");
+        try {
+            final ObjectMetadata wrong = new ObjectMetadata();
+            wrong.setContentMD5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(new byte[1]).asBytes()));
+            try {
+                s3Client.put(BUCKET_NAME, file.getPath(), wrong, new ByteArrayInputStream(content));
+                fail("a put with another Content-MD5 fails");
+            } catch (IOException e) {
+                assertFalse(file.exists());
+            }
+
+            final ObjectMetadata right = new ObjectMetadata();
+            right.setContentMD5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes()));
+            s3Client.put(BUCKET_NAME, file.getPath(), right, new ByteArrayInputStream(content));
+            assertEquals(Hashing.md5().hashBytes(content).toString(), S3FileObject.getCachedETag(file));
+            try (InputStream in = s3Client.get(BUCKET_NAME, file.getPath())) {
+                assertEquals("checksummed", IOUtils.toString(in));
+            }
+
+            // same size and modification time, other content
+            final long lastModified = file.lastModified();
+            Files.write(file.toPath(), "CHECKSUMMED".getBytes());
+            assertTrue(file.setLastModified(lastModified));
+            try (InputStream in = s3Client.get(BUCKET_NAME, file.getPath())) {
+                IOUtils.toString(in);
+                fail("a file that is not the one written fails the read");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+            }
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+            s3Client.deletePrefix(BUCKET_NAME, "target/checksum-test/");
+        }
+    }
+
+    @Test
+    public void testRecursiveListing() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 10; j++) {
+                s3Client.put(BUCKET_NAME, "target/walk-test/" + i + "/" + (j % 3) + "/file" + j, 0L,
+                    new ByteArrayInputStream(new byte[1]));
+            }
+        }
+        s3Client.put(BUCKET_NAME, "target/walk-test/top", 0L, new ByteArrayInputStream(new byte[1]));
+
+        try {
+            final List<S3FileObject> files = s3Client.listFiles(BUCKET_NAME, "target/walk-test", true);
+            assertEquals(51, files.size());
+            for (S3FileObject file : files) {
+                assertFalse(file.getAbsolutePath(), new File(file.getAbsolutePath()).isDirectory());
+            }
+            assertEquals(6, s3Client.listFiles(BUCKET_NAME, "target/walk-test", false).size());
+
+            try (Stream<S3FileObject> stream = s3Client.streamFiles(BUCKET_NAME, "target/walk-test", true)) {
+                assertEquals(3, stream.limit(3).count());
+            }
+        } finally {
+            s3Client.deletePrefix(BUCKET_NAME, "target/walk-test/");
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testAbandonedStreamsDoNotStallLaterWalks() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        for (int i = 0; i < 20; i++) {
+            s3Client.put(BUCKET_NAME, "target/abandon-test/" + (i % 4) + "/file" + i, 0L,
+                new ByteArrayInputStream(new byte[1]));
+        }
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.lib.fileWalk.queueSize", 1);
+        try {
+            // partly read and never closed, their walking threads wait for room in the queue
+            for (int i = 0; i < 4 * Runtime.getRuntime().availableProcessors(); i++) {
+                assertTrue(s3Client.streamFiles(BUCKET_NAME, "target/abandon-test", true).iterator().hasNext());
+            }
+
+            assertEquals(20, s3Client.listFiles(BUCKET_NAME, "target/abandon-test", true).size());
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.lib.fileWalk.queueSize");
+            s3Client.deletePrefix(BUCKET_NAME, "target/abandon-test/");
+        }
+    }
+
 }
\ No newline at end of file
@@ -56,4 +56,10 @@ public class FileS3ClientWithBucketNameAsPathTest extends FileS3ClientTest {
             assertTrue("invalid path: " + path, expectedPaths.contains(path));
         }
     }
+
+    @Test
+    @Override
+    public void testDeletePrefixWithAbsolutePath() throws IOException {
+        // below a bucket directory an absolute path is a relative one, covered by testDeleteAllAndDeletePrefix
+    }
 }
\ No newline at end of file
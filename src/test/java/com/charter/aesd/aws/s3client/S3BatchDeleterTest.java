@@ -0,0 +1,128 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.charter.aesd.aws.s3client.object.S3DeleteResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3BatchDeleterTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    @Test
+    public void testKeysAreDeletedInBatchesWithPerKeyFailures() throws IOException {
+
+        NavigableSet<String> keys = new ConcurrentSkipListSet<String>();
+        IntStream.range(0, 2500).forEach(i -> keys.add(String.format("key-%04d", i)));
+        keys.add("locked");
+        DeletingBucket s3 = new DeletingBucket(keys);
+
+        S3DeleteResult result = new S3Client.Builder(s3).build().deleteAll(BUCKET, new ArrayList<String>(keys));
+
+        Assert.assertEquals(2500, result.getDeletedCount());
+        Assert.assertEquals(Collections.singleton("locked"), result.getFailures().keySet());
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(Collections.singleton("locked"), keys);
+        Assert.assertEquals(3, s3.batchSizes.size());
+        Assert.assertEquals(1000, (int) Collections.max(s3.batchSizes));
+    }
+
+    @Test
+    public void testFailedRequestFailsItsKeys() throws IOException {
+
+        NavigableSet<String> keys = new ConcurrentSkipListSet<String>();
+        DeletingBucket s3 = new DeletingBucket(keys);
+        s3.failRequests = true;
+
+        S3DeleteResult result = new S3Client.Builder(s3).build()
+            .deleteAll(BUCKET, IntStream.range(0, 1500).mapToObj(i -> "key-" + i));
+
+        Assert.assertEquals(0, result.getDeletedCount());
+        Assert.assertEquals(1500, result.getFailures().size());
+    }
+
+    @Test
+    public void testDeletePrefix() throws IOException {
+
+        NavigableSet<String> keys = new ConcurrentSkipListSet<String>();
+        IntStream.range(0, 30).forEach(i -> {
+            keys.add("logs/" + i + ".log");
+            keys.add("data/" + i);
+        });
+
+        S3DeleteResult result = new S3Client.Builder(new DeletingBucket(keys)).build().deletePrefix(BUCKET, "logs/");
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(30, result.getDeletedCount());
+        Assert.assertEquals(IntStream.range(0, 30).mapToObj(i -> "data/" + i).collect(Collectors.toSet()), keys);
+    }
+
+    /**
+     * Removes the requested keys from the set, a key named "locked" is
+     * access denied
+     */
+    static class DeletingBucket extends S3ParallelListerTest.MemoryBucket {
+
+        private final NavigableSet<String> keys;
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile boolean failRequests;
+
+        DeletingBucket(final NavigableSet<String> keys) {
+
+            super(keys, 7);
+            this.keys = keys;
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+
+            batchSizes.add(request.getKeys().size());
+            if (failRequests) {
+                AmazonServiceException e = new AmazonServiceException("Service Unavailable");
+                e.setStatusCode(503);
+                throw e;
+            }
+
+            List<DeletedObject> deleted = new ArrayList<DeletedObject>();
+            List<DeleteError> errors = new ArrayList<DeleteError>();
+            for (KeyVersion key : request.getKeys()) {
+                if (key.getKey().equals("locked")) {
+                    DeleteError error = new DeleteError();
+                    error.setKey(key.getKey());
+                    error.setCode("AccessDenied");
+                    error.setMessage("Access Denied");
+                    errors.add(error);
+                } else {
+                    keys.remove(key.getKey());
+                    DeletedObject object = new DeletedObject();
+                    object.setKey(key.getKey());
+                    deleted.add(object);
+                }
+            }
+
+            if (!errors.isEmpty()) {
+                throw new MultiObjectDeleteException(errors, deleted);
+            }
+            return new DeleteObjectsResult(request.getQuiet() ? Collections.<DeletedObject>emptyList() : deleted);
+        }
+    }
+}
@@ -121,9 +121,16 @@ public class S3ClientTest {
         client.put("s3client-test", "testfiles2/subfolder/" + KEY + "1", bytes.length, new ByteArrayInputStream(bytes));
         client.put("s3client-test", "testfiles2/" + KEY + "2", bytes.length, new ByteArrayInputStream(bytes));
 
+        // the subfolder is listed as a directory, not its content
         final List<S3FileObject> files = client.listFiles("s3client-test", "testfiles2/", false);
-        Assert.assertEquals(1, files.size());
-        Assert.assertEquals("testfiles2/teststring2", files.get(0).getAbsolutePath());
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals("testfiles2/subfolder/", files.get(0).getAbsolutePath());
+        Assert.assertTrue(files.get(0).isDirectory());
+        Assert.assertEquals("testfiles2/teststring2", files.get(1).getAbsolutePath());
+
+        final List<S3FileObject> file = client.listFiles("s3client-test", "testfiles2/" + KEY + "2", false);
+        Assert.assertEquals(1, file.size());
+        Assert.assertEquals("testfiles2/teststring2", file.get(0).getAbsolutePath());
 
         final List<S3FileObject> files2 = client.listFiles("s3client-test", "testfiles2/", true);
         Assert.assertEquals(2, files2.size());
@@ -0,0 +1,96 @@
+package com.charter.aesd.aws.s3client;
+
+import com.charter.aesd.aws.s3client.object.S3TransferResult;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class S3DirectoryTransferTest {
+
+    private static final String BUCKET_NAME = ".";
+
+    @Test
+    public void testUploadAndDownload() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final S3DirectoryTransfer transfer = new S3DirectoryTransfer(s3Client);
+        for (int i = 0; i < 20; i++) {
+            s3Client.put(BUCKET_NAME, "target/transfer-test/src/" + (i % 4) + "/file" + i, 0L,
+                new ByteArrayInputStream(("content " + i).getBytes()));
+        }
+
+        try {
+            final Set<String> paths = ConcurrentHashMap.newKeySet();
+            S3TransferResult result = transfer.upload(new File("target/transfer-test/src"), BUCKET_NAME,
+                "target/transfer-test/bucket/", (path, bytes, skipped) -> paths.add(path));
+            assertTrue(result.isSuccessful());
+            assertEquals(20, result.getTransferredFiles());
+            assertEquals(0, result.getSkippedFiles());
+            assertTrue(paths.contains("3/file7"));
+            assertEquals("content 7",
+                new String(Files.readAllBytes(new File("target/transfer-test/bucket/3/file7").toPath())));
+
+            s3Client.put(BUCKET_NAME, "target/transfer-test/src/0/file0", 0L,
+                new ByteArrayInputStream("changed".getBytes()));
+            result = transfer.upload(new File("target/transfer-test/src"), BUCKET_NAME, "target/transfer-test/bucket");
+            assertEquals(1, result.getTransferredFiles());
+            assertEquals(19, result.getSkippedFiles());
+            assertEquals("changed".length(), result.getTransferredBytes());
+
+            result = transfer.download(BUCKET_NAME, "target/transfer-test/bucket/", new File("target/transfer-test/dst"));
+            assertTrue(result.isSuccessful());
+            assertEquals(20, result.getTransferredFiles());
+            assertEquals("changed",
+                new String(Files.readAllBytes(new File("target/transfer-test/dst/0/file0").toPath())));
+
+            result = transfer.download(BUCKET_NAME, "target/transfer-test/bucket/", new File("target/transfer-test/dst"));
+            assertEquals(0, result.getTransferredFiles());
+            assertEquals(20, result.getSkippedFiles());
+        } finally {
+            s3Client.deletePrefix(BUCKET_NAME, "target/transfer-test/");
+        }
+    }
+
+    @Test
+    public void testLocalStaysInTheDirectory() throws IOException {
+
+        final File directory = new File("target/transfer-test/dst");
+        assertEquals(new File(directory, "a/b").getAbsoluteFile(), S3DirectoryTransfer.local(directory, "a/b"));
+        assertEquals(new File(directory, "b").getAbsoluteFile(), S3DirectoryTransfer.local(directory, "a/../b"));
+
+        for (String path : new String[] {"../../.bashrc", "a/../../b", "/etc/passwd", ""}) {
+            try {
+                S3DirectoryTransfer.local(directory, path);
+                fail(path + " is outside of " + directory);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("outside"));
+            }
+        }
+    }
+
+    @Test
+    public void testRelative() {
+
+        assertEquals("a/b", S3DirectoryTransfer.relative("dir/", "dir/a/b"));
+        assertEquals("a/b", S3DirectoryTransfer.relative("dir", "dir/a/b"));
+        assertEquals("dir/a", S3DirectoryTransfer.relative("", "dir/a"));
+        // a sibling prefix is not below the prefix
+        assertNull(S3DirectoryTransfer.relative("dir", "dir2/a"));
+        assertNull(S3DirectoryTransfer.relative("dir", "other/a"));
+
+        // FileS3Client lists absolute paths
+        final String root = new File("").getAbsolutePath();
+        assertEquals("a/b", S3DirectoryTransfer.relative("dir", new File(root, "dir/a/b").getPath()));
+        assertNull(S3DirectoryTransfer.relative("dir", new File(root, "dir2/a").getPath()));
+    }
+}
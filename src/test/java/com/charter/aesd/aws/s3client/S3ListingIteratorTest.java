@@ -0,0 +1,153 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3ListingIteratorTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    @Test
+    public void testPagesAreFetchedLazily() {
+
+        PagedBucket s3 = new PagedBucket(5, 10);
+        try (S3ListingIterator listing =
+                 new S3ListingIterator(s3, new ListObjectsRequest().withBucketName(BUCKET), false)) {
+            Assert.assertEquals(1, s3.requests.get());
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("dir/key-0-" + i, listing.next().getKey());
+            }
+            Assert.assertEquals(1, s3.requests.get());
+
+            Assert.assertTrue(listing.hasNext());
+            Assert.assertEquals(2, s3.requests.get());
+        }
+    }
+
+    @Test
+    public void testStreamWithPrefetch() {
+
+        PagedBucket s3 = new PagedBucket(5, 10);
+        S3Client client = new S3Client.Builder(s3).build();
+        try (Stream<S3FileObject> files = client.streamFiles(BUCKET, "dir/", true)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(50, paths.size());
+            Assert.assertEquals("dir/key-4-9", paths.get(49));
+        }
+        Assert.assertEquals(5, s3.requests.get());
+    }
+
+    @Test
+    public void testCommonPrefixesAreDirectories() {
+
+        AmazonS3Client s3 = new PagedBucket(1, 2) {
+
+            @Override
+            public ObjectListing listObjects(final ListObjectsRequest request) {
+
+                ObjectListing listing = super.listObjects(request);
+                listing.getCommonPrefixes().add("dir/a/");
+                listing.getCommonPrefixes().add("dir/z/");
+                return listing;
+            }
+        };
+
+        try (Stream<S3FileObject> files = new S3Client.Builder(s3).build().streamFiles(BUCKET, "dir", false)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(Arrays.asList("dir/a/", "dir/key-0-0", "dir/key-0-1", "dir/z/"), paths);
+        }
+    }
+
+    @Test
+    public void testFullBucketListingIsNotTruncated() {
+
+        AtomicInteger requests = new AtomicInteger();
+        AmazonS3Client s3 = new AmazonS3Client() {
+
+            @Override
+            public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+
+                requests.incrementAndGet();
+                int start = (request.getContinuationToken() == null) ? 0
+                    : Integer.parseInt(request.getContinuationToken());
+                int end = Math.min(start + request.getMaxKeys(), 2500);
+
+                ListObjectsV2Result result = new ListObjectsV2Result();
+                for (int i = start; i < end; i++) {
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setKey(String.format("key-%04d", i));
+                    result.getObjectSummaries().add(summary);
+                }
+                result.setTruncated(end < 2500);
+                result.setNextContinuationToken(String.valueOf(end));
+                return result;
+            }
+        };
+
+        List<S3FileObject> files = new S3Client.Builder(s3).build().listFiles(BUCKET);
+        Assert.assertEquals(2500, files.size());
+        Assert.assertEquals("key-2499", files.get(2499).getAbsolutePath());
+        Assert.assertEquals(3, requests.get());
+    }
+
+    /**
+     * A bucket listed in {@code pages} pages of {@code pageSize} keys
+     */
+    private static class PagedBucket extends AmazonS3Client {
+
+        private final int pages;
+        private final int pageSize;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        PagedBucket(final int pages, final int pageSize) {
+
+            this.pages = pages;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public ObjectListing listObjects(final ListObjectsRequest request) {
+
+            return page(0);
+        }
+
+        @Override
+        public ObjectListing listNextBatchOfObjects(final ObjectListing previous) {
+
+            return page(Integer.parseInt(previous.getNextMarker()));
+        }
+
+        private ObjectListing page(final int index) {
+
+            requests.incrementAndGet();
+            ObjectListing listing = new ObjectListing();
+            listing.setBucketName(BUCKET);
+            for (int i = 0; i < pageSize; i++) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setBucketName(BUCKET);
+                summary.setKey("dir/key-" + index + "-" + i);
+                listing.getObjectSummaries().add(summary);
+            }
+            listing.setTruncated(index < pages - 1);
+            listing.setNextMarker(String.valueOf(index + 1));
+            return listing;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3MetadataCacheTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.metadataCache.enabled");
+    }
+
+    @Test
+    public void testHeadsAreCachedUntilWritten() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.metadataCache.enabled", true);
+        HeadCountingBucket s3 = new HeadCountingBucket();
+        S3Client client = new S3Client.Builder(s3).build();
+
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+        Assert.assertEquals(1, s3.heads.get());
+
+        client.put(BUCKET, "a", 3, new ByteArrayInputStream(new byte[3]));
+        Assert.assertTrue(client.exists(BUCKET, "a"));
+        S3FileObject file = client.getFileObject(BUCKET, "a");
+        Assert.assertEquals(3, file.getObjectSummary().getSize());
+        Assert.assertEquals("etag-a", file.getObjectSummary().getETag());
+        Assert.assertEquals(2, s3.heads.get());
+
+        client.delete(BUCKET, "a");
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+        Assert.assertEquals(3, s3.heads.get());
+    }
+
+    @Test
+    public void testListingFillsTheCache() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.metadataCache.enabled", true);
+        HeadCountingBucket s3 = new HeadCountingBucket();
+        s3.keys.add("dir/a");
+        s3.keys.add("dir/b");
+        S3Client client = new S3Client.Builder(s3).build();
+
+        Assert.assertEquals(2, client.listFiles(BUCKET, "dir", true).size());
+        Assert.assertTrue(client.exists(BUCKET, "dir/a"));
+        Assert.assertTrue(client.exists(BUCKET, "dir/b"));
+        Assert.assertEquals(0, s3.heads.get());
+    }
+
+    @Test
+    public void testHeadInFlightDuringWriteIsNotCached() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.metadataCache.enabled", true);
+        HeadCountingBucket s3 = new HeadCountingBucket();
+        S3Client client = new S3Client.Builder(s3).build();
+
+        // the object is written while the HEAD that missed it is on its way back
+        s3.duringHead = () -> client.put(BUCKET, "a", 3, new ByteArrayInputStream(new byte[3]));
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+
+        s3.duringHead = null;
+        Assert.assertTrue(client.exists(BUCKET, "a"));
+        Assert.assertEquals(2, s3.heads.get());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+
+        HeadCountingBucket s3 = new HeadCountingBucket();
+        S3Client client = new S3Client.Builder(s3).build();
+
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+        Assert.assertFalse(client.exists(BUCKET, "a"));
+        Assert.assertEquals(2, s3.heads.get());
+    }
+
+    /**
+     * Counts the HEAD requests, answers them from the key set
+     */
+    static class HeadCountingBucket extends S3ParallelListerTest.MemoryBucket {
+
+        final NavigableSet<String> keys;
+        final AtomicInteger heads = new AtomicInteger();
+        volatile Runnable duringHead;
+
+        HeadCountingBucket() {
+
+            this(new ConcurrentSkipListSet<String>());
+        }
+
+        private HeadCountingBucket(final NavigableSet<String> keys) {
+
+            super(keys, 100);
+            this.keys = keys;
+        }
+
+        @Override
+        public ObjectMetadata getObjectMetadata(final String bucketName, final String key) {
+
+            heads.incrementAndGet();
+            boolean found = keys.contains(key);
+            Runnable write = duringHead;
+            if (write != null) {
+                duringHead = null;
+                write.run();
+            }
+            if (!found) {
+                AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                e.setStatusCode(404);
+                throw e;
+            }
+
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(3);
+            metadata.setHeader("ETag", "etag-" + key);
+            metadata.setLastModified(new Date());
+            return metadata;
+        }
+
+        @Override
+        public PutObjectResult putObject(final PutObjectRequest request) {
+
+            keys.add(request.getKey());
+            return new PutObjectResult();
+        }
+
+        @Override
+        public void deleteObject(final DeleteObjectRequest request) {
+
+            keys.remove(request.getKey());
+        }
+    }
+}
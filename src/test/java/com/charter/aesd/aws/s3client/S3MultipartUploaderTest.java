@@ -0,0 +1,263 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3MultipartUploaderTest {
+
+    private static final String BUCKET = "s3client-test";
+    private static final String KEY = "multipart";
+
+    @Before
+    public void setUp() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.multipart.thresholdBytes", 4096);
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.multipart.partSizeBytes", 1024);
+    }
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.multipart.thresholdBytes");
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.multipart.partSizeBytes");
+    }
+
+    @Test
+    public void testLargeObjectIsUploadedInParts() throws IOException {
+
+        byte[] content = content(10000);
+        PartRecorder s3 = new PartRecorder(0);
+        long inUse = BufferPool.getInUseBytes();
+
+        S3Client client = new S3Client.Builder(s3).build();
+        client.put(BUCKET, KEY, content.length, new ByteArrayInputStream(content));
+
+        Assert.assertEquals(10, s3.parts.size());
+        Assert.assertArrayEquals(content, s3.completed());
+        Assert.assertFalse(s3.aborted.get());
+        // the buffers of the parts are back in the pool
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+
+    @Test
+    public void testFailedPartIsRetried() throws IOException {
+
+        byte[] content = content(5000);
+        PartRecorder s3 = new PartRecorder(500);
+
+        S3Client client = new S3Client.Builder(s3).build();
+        client.put(BUCKET, KEY, content.length, new ByteArrayInputStream(content));
+
+        Assert.assertEquals(2, s3.part2Attempts.get());
+        Assert.assertArrayEquals(content, s3.completed());
+    }
+
+    @Test
+    public void testUploadIsAbortedWhenPartFails() throws IOException {
+
+        byte[] content = content(5000);
+        PartRecorder s3 = new PartRecorder(403);
+
+        S3Client client = new S3Client.Builder(s3).build();
+        try {
+            client.put(BUCKET, KEY, content.length, new ByteArrayInputStream(content));
+            Assert.fail("a rejected part fails the upload");
+        } catch (AmazonClientException e) {
+            Assert.assertTrue(s3.aborted.get());
+            Assert.assertNull(s3.completedParts);
+        }
+    }
+
+    @Test
+    public void testVerifiedUploadChecksTheCompletedETag() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        try {
+            byte[] content = content(5000);
+            PartRecorder s3 = new PartRecorder(0);
+            S3Client client = new S3Client.Builder(s3).build();
+            client.put(BUCKET, KEY, content.length, new ByteArrayInputStream(content));
+            Assert.assertArrayEquals(content, s3.completed());
+            Assert.assertEquals(5, s3.digests.size());
+
+            s3 = new PartRecorder(0);
+            s3.corruptStored = true;
+            client = new S3Client.Builder(s3).build();
+            try {
+                client.put(BUCKET, KEY, content.length, new ByteArrayInputStream(content));
+                Assert.fail("a stored object with another checksum fails the upload");
+            } catch (AmazonClientException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+                Assert.assertTrue(s3.deleted.get());
+            }
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+        }
+    }
+
+    @Test
+    public void testShortStreamLeavesTheMetadataAsGiven() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        try {
+            byte[] content = content(500);
+            PartRecorder s3 = new PartRecorder(0);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(5000);
+
+            S3Client client = new S3Client.Builder(s3).build();
+            client.put(BUCKET, KEY, metadata, new ByteArrayInputStream(content));
+
+            Assert.assertEquals(500, s3.put.getContentLength());
+            Assert.assertNotNull(s3.put.getContentMD5());
+            Assert.assertEquals(5000, metadata.getContentLength());
+            Assert.assertNull(metadata.getContentMD5());
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+        }
+    }
+
+    private static byte[] content(final int size) {
+
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Keeps the uploaded parts, part 2 fails once with {@code failStatus}, a
+     * 4xx status fails every attempt
+     */
+    private static class PartRecorder extends AmazonS3Client {
+
+        private final int failStatus;
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+        private final AtomicInteger part2Attempts = new AtomicInteger();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final AtomicBoolean deleted = new AtomicBoolean();
+        private final Map<Integer, String> digests = new ConcurrentHashMap<Integer, String>();
+        private volatile boolean corruptStored;
+        private volatile List<PartETag> completedParts;
+        private volatile ObjectMetadata put;
+
+        PartRecorder(final int failStatus) {
+
+            this.failStatus = failStatus;
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId("upload-1");
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(final UploadPartRequest request) {
+
+            if ((request.getPartNumber() == 2) && (failStatus > 0)
+                && ((part2Attempts.getAndIncrement() == 0) || (failStatus < 500))) {
+                AmazonServiceException e = new AmazonServiceException("part failed");
+                e.setStatusCode(failStatus);
+                throw e;
+            }
+
+            try {
+                parts.put(request.getPartNumber(), ByteStreams.toByteArray(request.getInputStream()));
+            } catch (IOException e) {
+                throw new AmazonClientException(e);
+            }
+            if (request.getMd5Digest() != null) {
+                digests.put(request.getPartNumber(), request.getMd5Digest());
+            }
+
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        }
+
+        @Override
+        public PutObjectResult putObject(final PutObjectRequest request) {
+
+            put = request.getMetadata();
+            return new PutObjectResult();
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+
+            completedParts = request.getPartETags();
+
+            // the ETag S3 computes from what it stored
+            Hasher hasher = Hashing.md5().newHasher();
+            for (PartETag part : completedParts) {
+                byte[] stored = parts.get(part.getPartNumber()).clone();
+                if (corruptStored && (part.getPartNumber() == 1)) {
+                    stored[0]++;
+                }
+                hasher.putBytes(Hashing.md5().hashBytes(stored).asBytes());
+            }
+            CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+            result.setETag(hasher.hash() + "-" + completedParts.size());
+            return result;
+        }
+
+        @Override
+        public void deleteObject(final String bucketName, final String key) {
+
+            deleted.set(true);
+        }
+
+        @Override
+        public void abortMultipartUpload(final AbortMultipartUploadRequest request) {
+
+            aborted.set(true);
+        }
+
+        byte[] completed() throws IOException {
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < completedParts.size(); i++) {
+                Assert.assertEquals(i + 1, completedParts.get(i).getPartNumber());
+                out.write(parts.get(completedParts.get(i).getPartNumber()));
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.object.S3FileObject;
+import com.netflix.config.ConfigurationManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3ParallelListerTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    private final NavigableSet<String> keys = new TreeSet<String>();
+    private S3Client client;
+
+    @Before
+    public void setUp() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.parallelList.maxDirectKeys", 5);
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.parallelList.pagesAhead", 1);
+
+        keys.add("a.txt");
+        keys.add("logs/");
+        for (int i = 0; i < 20; i++) {
+            keys.add("logs/2015/" + i + ".log");
+            keys.add("logs/2016/" + i + ".log");
+            keys.add("logs/archive-" + i + ".gz");
+            keys.add("data/part-" + (char) ('a' + i) + "/x");
+        }
+        keys.add("data/readme");
+        keys.add("z");
+
+        client = new S3Client.Builder(new MemoryBucket(keys, 7)).build();
+    }
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.parallelList.maxDirectKeys");
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.parallelList.pagesAhead");
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.parallelList.targetShards");
+    }
+
+    @Test
+    public void testSortedListing() {
+
+        try (Stream<S3FileObject> files = new S3ParallelLister(client).list(BUCKET, "", true)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(new ArrayList<String>(keys), paths);
+        }
+    }
+
+    @Test
+    public void testUnsortedListingOfPrefix() {
+
+        try (Stream<S3FileObject> files = new S3ParallelLister(client).list(BUCKET, "logs/", false)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(61, paths.size());
+            Assert.assertEquals(keys.subSet("logs/", "logs0"), new HashSet<String>(paths));
+        }
+    }
+
+    @Test
+    public void testWideLevelIsListedInRanges() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.parallelList.maxDirectKeys", 1000);
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.parallelList.targetShards", 4);
+
+        NavigableSet<String> wide = new TreeSet<String>();
+        for (int i = 0; i < 200; i++) {
+            wide.add(String.format("d%03d/x", i));
+            wide.add(String.format("d%03d.txt", i));
+        }
+        MemoryBucket bucket = new MemoryBucket(wide, 100);
+
+        try (Stream<S3FileObject> files = new S3ParallelLister(new S3Client.Builder(bucket).build())
+            .list(BUCKET, "", true)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(new ArrayList<String>(wide), paths);
+        }
+        // 4 pages to expand the root, about one page per range, not one listing per directory
+        Assert.assertTrue(String.valueOf(bucket.requests.get()), bucket.requests.get() <= 12);
+    }
+
+    @Test
+    public void testRestOfLargeLevelIsOneShard() {
+
+        NavigableSet<String> wide = new TreeSet<String>();
+        for (int i = 0; i < 30; i++) {
+            wide.add(String.format("d%02d/x", i));
+            wide.add(String.format("d%02d/y", i));
+        }
+        wide.add("d07.txt");
+
+        try (Stream<S3FileObject> files = new S3ParallelLister(new S3Client.Builder(new MemoryBucket(wide, 4))
+            .build()).list(BUCKET, "", true)) {
+            List<String> paths = files.map(S3FileObject::getAbsolutePath).collect(Collectors.toList());
+            Assert.assertEquals(new ArrayList<String>(wide), paths);
+        }
+    }
+
+    /**
+     * Lists a set of keys, {@code pageSize} keys or common prefixes per page
+     */
+    static class MemoryBucket extends AmazonS3Client {
+
+        private final NavigableSet<String> keys;
+        private final int pageSize;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        MemoryBucket(final NavigableSet<String> keys, final int pageSize) {
+
+            this.keys = keys;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public ObjectListing listObjects(final ListObjectsRequest request) {
+
+            requests.incrementAndGet();
+            return page(request.getPrefix(), request.getDelimiter(), request.getMarker());
+        }
+
+        @Override
+        public ObjectListing listNextBatchOfObjects(final ObjectListing previous) {
+
+            requests.incrementAndGet();
+            return page(previous.getPrefix(), previous.getDelimiter(), previous.getNextMarker());
+        }
+
+        private ObjectListing page(final String prefix, final String delimiter, final String marker) {
+
+            String from = (prefix == null) ? "" : prefix;
+            ObjectListing listing = new ObjectListing();
+            listing.setBucketName(BUCKET);
+            listing.setPrefix(prefix);
+            listing.setDelimiter(delimiter);
+            listing.setMarker(marker);
+
+            int count = 0;
+            String last = null;
+            for (String key : (marker == null) ? keys.tailSet(from, true) : keys.tailSet(marker, false)) {
+                if (!key.startsWith(from)) {
+                    break;
+                }
+
+                int index = (delimiter == null) ? -1 : key.indexOf(delimiter, from.length());
+                if (index >= 0) {
+                    String common = key.substring(0, index + 1);
+                    if (common.equals(last)) {
+                        continue;
+                    }
+                    if (count == pageSize) {
+                        listing.setTruncated(true);
+                        break;
+                    }
+                    listing.getCommonPrefixes().add(common);
+                    last = common;
+                } else {
+                    if (count == pageSize) {
+                        listing.setTruncated(true);
+                        break;
+                    }
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setBucketName(BUCKET);
+                    summary.setKey(key);
+                    summary.setETag("etag-" + key);
+                    listing.getObjectSummaries().add(summary);
+                    last = key;
+                }
+                count++;
+            }
+
+            if (listing.isTruncated()) {
+                // the next page starts after the last key or common prefix
+                listing.setNextMarker(last.endsWith("/") && (delimiter != null) ? last + Character.MAX_VALUE : last);
+            }
+            return listing;
+        }
+    }
+}
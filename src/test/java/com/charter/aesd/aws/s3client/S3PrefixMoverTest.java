@@ -0,0 +1,280 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.charter.aesd.aws.s3client.object.S3MoveResult;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3PrefixMoverTest {
+
+    private static final String BUCKET = "s3client-test";
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.move.multipartCopyThresholdBytes");
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.move.copyPartSizeBytes");
+    }
+
+    @Test
+    public void testPrefixIsMoved() throws IOException {
+
+        CopyingBucket s3 = new CopyingBucket();
+        for (int i = 0; i < 2500; i++) {
+            s3.add(String.format("src/%04d", i), i);
+        }
+        s3.add("other", 1);
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(2500, result.getMovedCount());
+        Assert.assertEquals(2500, s3.copies.get());
+        Assert.assertTrue(s3.objects.subMap("src/", "src0").isEmpty());
+        Assert.assertEquals(2500, s3.objects.subMap("dst/", "dst0").size());
+        Assert.assertEquals(1234, s3.objects.get("dst/1234").getSize());
+        Assert.assertTrue(s3.objects.containsKey("other"));
+    }
+
+    @Test
+    public void testInterruptedMoveIsResumedWithoutCopyingAgain() throws IOException {
+
+        CopyingBucket s3 = new CopyingBucket();
+        for (int i = 0; i < 100; i++) {
+            s3.add(String.format("src/%03d", i), 10);
+        }
+        // copied by the first run but not deleted yet, two copies are stale, one of them has the same size
+        for (int i = 0; i < 40; i++) {
+            String etag = s3.objects.get(String.format("src/%03d", i)).getETag();
+            s3.add(String.format("dst/%03d", i), (i == 7) ? 5 : 10, (i == 8) ? "older" : etag);
+        }
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(100, result.getMovedCount());
+        Assert.assertEquals(62, s3.copies.get());
+        Assert.assertEquals(10, s3.objects.get("dst/007").getSize());
+        Assert.assertEquals("src/00810", s3.objects.get("dst/008").getETag());
+        Assert.assertEquals(100, s3.objects.size());
+    }
+
+    @Test
+    public void testFailedCopyKeepsSource() throws IOException {
+
+        CopyingBucket s3 = new CopyingBucket();
+        s3.add("src/a", 1);
+        s3.add("src/denied", 1);
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertEquals(1, result.getMovedCount());
+        Assert.assertEquals(Collections.singleton("src/denied"), result.getFailures().keySet());
+        Assert.assertTrue(s3.objects.containsKey("src/denied"));
+        Assert.assertFalse(s3.objects.containsKey("src/a"));
+    }
+
+    @Test
+    public void testLargeObjectIsCopiedInParts() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.move.multipartCopyThresholdBytes", 1000);
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.move.copyPartSizeBytes", 300);
+        CopyingBucket s3 = new CopyingBucket();
+        s3.add("src/large", 1000);
+        s3.add("src/small", 999);
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(2, result.getMovedCount());
+        Assert.assertEquals(4, s3.parts.get());
+        Assert.assertEquals(1, s3.copies.get());
+        Assert.assertEquals(1000, s3.objects.get("dst/large").getSize());
+        Assert.assertEquals("src/large1000", s3.metadata.get("dst/large").getUserMetaDataOf("source-etag"));
+    }
+
+    @Test
+    public void testSourceChangedDuringPartCopyFails() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.move.multipartCopyThresholdBytes", 1000);
+        CopyingBucket s3 = new CopyingBucket();
+        s3.add("src/changed", 1000);
+        s3.add("src/small", 999);
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertEquals(1, result.getMovedCount());
+        Assert.assertTrue(result.getFailures().get("src/changed").contains("changed during copy"));
+        Assert.assertTrue(s3.objects.containsKey("src/changed"));
+        Assert.assertFalse(s3.objects.containsKey("dst/changed"));
+    }
+
+    @Test
+    public void testInterruptedMoveKeepsCopiesInParts() throws IOException {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.move.multipartCopyThresholdBytes", 1000);
+        CopyingBucket s3 = new CopyingBucket();
+        s3.add("src/copied", 1000);
+        s3.add("src/stale", 1000);
+        s3.add("dst/copied", 1000, "copied-4");
+        s3.metadata.put("dst/copied", new ObjectMetadata());
+        s3.metadata.get("dst/copied").addUserMetadata("source-etag", "src/copied1000");
+        s3.add("dst/stale", 1000, "stale-4");
+
+        S3MoveResult result = new S3Client.Builder(s3).build().movePrefix(BUCKET, "src/", "dst/");
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(2, result.getMovedCount());
+        Assert.assertEquals("copied-4", s3.objects.get("dst/copied").getETag());
+        Assert.assertEquals("src/stale1000", s3.metadata.get("dst/stale").getUserMetaDataOf("source-etag"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlappingPrefixesAreRejected() throws IOException {
+
+        new S3Client.Builder(new CopyingBucket()).build().movePrefix(BUCKET, "src/", "src/old/");
+    }
+
+    /**
+     * Keeps the summaries of the objects, lists them 100 per page
+     */
+    static class CopyingBucket extends AmazonS3Client {
+
+        final NavigableMap<String, S3ObjectSummary> objects = new ConcurrentSkipListMap<String, S3ObjectSummary>();
+        final AtomicInteger copies = new AtomicInteger();
+        final AtomicInteger parts = new AtomicInteger();
+        final Map<String, ObjectMetadata> metadata = new ConcurrentHashMap<String, ObjectMetadata>();
+        private final NavigableMap<String, Long> uploads = new ConcurrentSkipListMap<String, Long>();
+
+        void add(final String key, final long size) {
+
+            add(key, size, key + size);
+        }
+
+        void add(final String key, final long size, final String etag) {
+
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(BUCKET);
+            summary.setKey(key);
+            summary.setSize(size);
+            summary.setETag(etag);
+            objects.put(key, summary);
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            String token = request.getContinuationToken();
+            for (S3ObjectSummary summary : objects.tailMap((token == null) ? request.getPrefix() : token,
+                token == null).values()) {
+                if (!summary.getKey().startsWith(request.getPrefix())) {
+                    break;
+                }
+                if (result.getObjectSummaries().size() == 100) {
+                    result.setTruncated(true);
+                    result.setNextContinuationToken(result.getObjectSummaries().get(99).getKey());
+                    break;
+                }
+                result.getObjectSummaries().add(summary);
+            }
+            return result;
+        }
+
+        @Override
+        public CopyObjectResult copyObject(final CopyObjectRequest request) {
+
+            if (request.getSourceKey().endsWith("denied")) {
+                AmazonServiceException e = new AmazonServiceException("Access Denied");
+                e.setStatusCode(403);
+                throw e;
+            }
+            copies.incrementAndGet();
+            // the ETag of a single part object is the MD5 of its content
+            S3ObjectSummary source = objects.get(request.getSourceKey());
+            add(request.getDestinationKey(), source.getSize(), source.getETag());
+            return new CopyObjectResult();
+        }
+
+        @Override
+        public ObjectMetadata getObjectMetadata(final String bucketName, final String key) {
+
+            return metadata.getOrDefault(key, new ObjectMetadata());
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+
+            uploads.put(request.getKey(), 0L);
+            metadata.put(request.getKey(), request.getObjectMetadata());
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId(request.getKey());
+            return result;
+        }
+
+        @Override
+        public CopyPartResult copyPart(final CopyPartRequest request) {
+
+            Assert.assertEquals(objects.get(request.getSourceKey()).getETag(),
+                request.getMatchingETagConstraints().get(0));
+            if (request.getSourceKey().endsWith("changed")) {
+                // the SDK answers a failed ETag constraint with null
+                return null;
+            }
+            parts.incrementAndGet();
+            uploads.merge(request.getUploadId(), request.getLastByte() - request.getFirstByte() + 1, Long::sum);
+            CopyPartResult result = new CopyPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("part" + request.getPartNumber());
+            return result;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+
+            add(request.getKey(), uploads.remove(request.getUploadId()),
+                request.getKey() + "-" + request.getPartETags().size());
+            return new CompleteMultipartUploadResult();
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+
+            for (KeyVersion key : request.getKeys()) {
+                objects.remove(key.getKey());
+            }
+            return new DeleteObjectsResult(Collections.<DeletedObject>emptyList());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.charter.aesd.aws.s3client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3RangedDownloaderTest {
+
+    private static final String BUCKET = "s3client-test";
+    private static final String KEY = "ranged";
+
+    @Before
+    public void setUp() {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.rangedGet.rangeSizeBytes", 1000);
+    }
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.rangedGet.rangeSizeBytes");
+    }
+
+    @Test
+    public void testStreamReassemblesRanges() throws IOException {
+
+        byte[] content = content(10500);
+        RangeServer s3 = new RangeServer(content, 0);
+
+        S3Client client = new S3Client.Builder(s3).build();
+        try (InputStream in = client.getParallel(BUCKET, KEY)) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        }
+        Assert.assertEquals(11, s3.requests.get());
+    }
+
+    @Test
+    public void testSmallObjectIsOneRequest() throws IOException {
+
+        byte[] content = content(200);
+        RangeServer s3 = new RangeServer(content, 0);
+
+        S3Client client = new S3Client.Builder(s3).build();
+        try (InputStream in = client.getParallel(BUCKET, KEY)) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        }
+        Assert.assertEquals(1, s3.requests.get());
+    }
+
+    @Test
+    public void testDownloadRetriesFailedRange() throws IOException {
+
+        byte[] content = content(7777);
+        RangeServer s3 = new RangeServer(content, 3000);
+
+        File file = File.createTempFile("ranged", ".bin");
+        try {
+            new S3Client.Builder(s3).build().download(BUCKET, KEY, file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals(9, s3.requests.get());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRangeBuffersGoBackToThePool() throws Exception {
+
+        byte[] content = content(10500);
+        S3Client client = new S3Client.Builder(new RangeServer(content, 0)).build();
+        long inUse = BufferPool.getInUseBytes();
+
+        try (InputStream in = client.getParallel(BUCKET, KEY)) {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+            Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+        }
+
+        // closed with ranges read ahead, downloading or not started
+        InputStream in = client.getParallel(BUCKET, KEY);
+        Assert.assertEquals(content[0], (byte) in.read());
+        in.close();
+        for (int i = 0; (i < 100) && (BufferPool.getInUseBytes() != inUse); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(inUse, BufferPool.getInUseBytes());
+    }
+
+    @Test
+    public void testVerifiedDownloadRetriesShortRange() throws IOException {
+
+        byte[] content = content(7777);
+        RangeServer s3 = new RangeServer(content, 0);
+        s3.shortStart = 5000;
+        s3.etag = Hashing.md5().hashBytes(content).toString();
+
+        File file = File.createTempFile("ranged", ".bin");
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        try {
+            new S3Client.Builder(s3).build().download(BUCKET, KEY, file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals(9, s3.requests.get());
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testVerifiedStreamChecksETag() throws IOException {
+
+        byte[] content = content(4321);
+        RangeServer s3 = new RangeServer(content, 0);
+        s3.etag = Hashing.md5().hashBytes(content(10)).toString();
+
+        S3Client client = new S3Client.Builder(s3).build();
+        ConfigurationManager.getConfigInstance().setProperty("aws.s3Client.verifyChecksums", true);
+        try (InputStream in = client.getParallel(BUCKET, KEY)) {
+            ByteStreams.toByteArray(in);
+            Assert.fail("another object than the one of the ETag");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+        } finally {
+            ConfigurationManager.getConfigInstance().clearProperty("aws.s3Client.verifyChecksums");
+        }
+    }
+
+    private static byte[] content(final int size) {
+
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Serves ranges of {@code content}, the range starting at
+     * {@code failStart} fails once with a 503, the one starting at
+     * {@code shortStart} is served a byte short once
+     */
+    private static class RangeServer extends AmazonS3Client {
+
+        private final byte[] content;
+        private final long failStart;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long shortStart;
+        private volatile String etag = "etag-1";
+
+        RangeServer(final byte[] content, final long failStart) {
+
+            this.content = content;
+            this.failStart = failStart;
+        }
+
+        @Override
+        public S3Object getObject(final GetObjectRequest request) {
+
+            requests.incrementAndGet();
+            long[] range = request.getRange();
+            if ((failStart > 0) && (range[0] == failStart) && (failures.getAndIncrement() == 0)) {
+                AmazonServiceException e = new AmazonServiceException("slow down");
+                e.setStatusCode(503);
+                throw e;
+            }
+
+            int start = (int) range[0];
+            int end = (int) Math.min(range[1], content.length - 1);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(end - start + 1);
+            metadata.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            metadata.setHeader("ETag", etag);
+
+            int length = end - start + 1;
+            if ((shortStart > 0) && (range[0] == shortStart) && (failures.getAndIncrement() == 0)) {
+                length--;
+            }
+            S3Object object = new S3Object();
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new ByteArrayInputStream(content, start, length));
+            return object;
+        }
+    }
+}
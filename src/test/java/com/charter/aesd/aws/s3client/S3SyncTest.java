@@ -0,0 +1,106 @@
+package com.charter.aesd.aws.s3client;
+
+import com.charter.aesd.aws.s3client.object.S3SyncResult;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class S3SyncTest {
+
+    private static final String BUCKET_NAME = ".";
+
+    @Test
+    public void testUploadAndDownloadChanges() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final S3Sync sync = new S3Sync(s3Client);
+        final File source = new File("target/sync-test/src");
+        final File destination = new File("target/sync-test/dst");
+        final File uploadManifest = new File("target/sync-test/upload.manifest");
+        final File downloadManifest = new File("target/sync-test/download.manifest");
+        for (int i = 0; i < 20; i++) {
+            s3Client.put(BUCKET_NAME, "target/sync-test/src/" + (i % 4) + "/file" + i, 0L,
+                new ByteArrayInputStream(("content " + i).getBytes()));
+        }
+
+        try {
+            S3SyncResult result = sync.upload(source, BUCKET_NAME, "target/sync-test/bucket/", uploadManifest);
+            assertTrue(result.isSuccessful());
+            assertEquals(20, result.getTransferResult().getTransferredFiles());
+            assertEquals(20, Files.readAllLines(uploadManifest.toPath()).size());
+
+            result = sync.download(BUCKET_NAME, "target/sync-test/bucket/", destination, downloadManifest);
+            assertEquals(20, result.getTransferResult().getTransferredFiles());
+
+            s3Client.put(BUCKET_NAME, "target/sync-test/src/0/file0", 0L,
+                new ByteArrayInputStream("changed".getBytes()));
+            assertTrue(new File(source, "1/file1").setLastModified(0));
+            Files.delete(new File(source, "2/file2").toPath());
+
+            result = sync.upload(source, BUCKET_NAME, "target/sync-test/bucket/", uploadManifest);
+            assertTrue(result.isSuccessful());
+            assertEquals(1, result.getTransferResult().getTransferredFiles());
+            assertEquals(18, result.getTransferResult().getSkippedFiles());
+            assertEquals(1, result.getDeleteResult().getDeletedCount());
+            assertFalse(new File("target/sync-test/bucket/2/file2").exists());
+            assertEquals(19, Files.readAllLines(uploadManifest.toPath()).size());
+
+            result = sync.download(BUCKET_NAME, "target/sync-test/bucket/", destination, downloadManifest);
+            assertTrue(result.isSuccessful());
+            assertEquals(19, result.getTransferResult().getSkippedFiles() + result.getTransferResult()
+                .getTransferredFiles());
+            assertEquals(1, result.getDeleteResult().getDeletedCount());
+            assertEquals("changed", new String(Files.readAllBytes(new File(destination, "0/file0").toPath())));
+            assertFalse(new File(destination, "2/file2").exists());
+        } finally {
+            s3Client.deletePrefix(BUCKET_NAME, "target/sync-test/");
+        }
+    }
+
+    @Test
+    public void testManifestPathOutsideIsNotDeleted() throws IOException {
+
+        final IS3Client s3Client = new FileS3Client();
+        final File victim = new File("target/sync-escape-test/victim");
+        final File manifest = new File("target/sync-escape-test/download.manifest");
+        s3Client.put(BUCKET_NAME, victim.getPath(), 0L, new ByteArrayInputStream("keep".getBytes()));
+        s3Client.put(BUCKET_NAME, "target/sync-escape-test/bucket/file", 0L,
+            new ByteArrayInputStream("content".getBytes()));
+
+        try {
+            final NavigableMap<String, Optional<S3SyncManifest.Entry>> forged =
+                new TreeMap<String, Optional<S3SyncManifest.Entry>>(S3SyncManifest.KEY_ORDER);
+            forged.put("../victim", Optional.of(new S3SyncManifest.Entry("../victim", 4, "etag", 0)));
+            S3SyncManifest.update(manifest, forged);
+
+            S3SyncResult result = new S3Sync(s3Client).download(BUCKET_NAME, "target/sync-escape-test/bucket/",
+                new File("target/sync-escape-test/dst"), manifest);
+            assertEquals(1, result.getTransferResult().getTransferredFiles());
+            assertEquals(0, result.getDeleteResult().getDeletedCount());
+            assertTrue(result.getDeleteResult().getFailures().containsKey("../victim"));
+            assertTrue(victim.exists());
+        } finally {
+            s3Client.deletePrefix(BUCKET_NAME, "target/sync-escape-test/");
+        }
+    }
+
+    @Test
+    public void testKeyOrder() {
+
+        assertTrue(S3SyncManifest.KEY_ORDER.compare("a", "b") < 0);
+        assertTrue(S3SyncManifest.KEY_ORDER.compare("a", "a/b") < 0);
+        assertEquals(0, S3SyncManifest.KEY_ORDER.compare("a/b", "a/b"));
+        // a supplementary character sorts after U+FFFD in UTF-8, before it in UTF-16
+        assertTrue(S3SyncManifest.KEY_ORDER.compare("�", "😀") < 0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.charter.aesd.aws.s3client.object;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class S3FileObjectTest {
+
+    @Test
+    public void testETagIsHexMd5() throws IOException {
+
+        S3FileObject file = S3FileObject.fromFile(new File("src/test/resources/file1"));
+
+        Assert.assertEquals(Hashing.md5().hashString("Test 1", Charsets.UTF_8).toString(),
+            file.getObjectSummary().getETag());
+        Assert.assertNull(S3FileObject.fromFile(new File("src/test/resources")).getObjectSummary().getETag());
+    }
+
+    @Test
+    public void testETagFollowsChanges() throws IOException {
+
+        File file = Files.createTempFile("s3-file-object", ".txt").toFile();
+        try {
+            Files.write(file.toPath(), "first".getBytes());
+            file.setLastModified(1000000L);
+            String first = S3FileObject.fromFile(file).getObjectSummary().getETag();
+            Assert.assertEquals(first, S3FileObject.fromFile(file).getObjectSummary().getETag());
+
+            Files.write(file.toPath(), "second".getBytes());
+            file.setLastModified(2000000L);
+            Assert.assertEquals(Hashing.md5().hashString("second", Charsets.UTF_8).toString(),
+                S3FileObject.fromFile(file).getObjectSummary().getETag());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.charter.aesd.aws.sqsclient.SQSClient;
 import com.google.common.base.Optional;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.UUID;
 
 import junit.framework.Assert;
@@ -247,4 +248,44 @@ public class SNSClientTest {
 
         sqsClient.deleteQueue(url);
     }
+
+    @Test
+    public void testFilteredReceive() throws IOException {
+
+        ISNSClient client = getClient();
+        String topicARN = getTopicARN();
+
+        SQSClient sqsClient =
+            Boolean.getBoolean("use.iam.role") ? new SQSClient.Builder(AWSAuthType.INSTANCE_ROLE).build()
+                : new SQSClient.Builder(AWSAuthType.PROFILE).build();
+        String url = sqsClient.createQueue(TEST_CONSUMER_QUEUE_NAME + "-" + System.currentTimeMillis() + "-" + randomKey);
+
+        sqsClient.allowTopic(url, topicARN);
+        String subscriptionArn =
+            client.subscribeToTopic(topicARN, sqsClient.resolveQueueARN(url), "{\"type\": [\"wanted\"]}");
+        client.disableEnvelope(subscriptionArn);
+
+        // Only the second message matches the filter policy
+        client.publishMessage(topicARN, "unwanted", Collections.singletonMap("type", "unwanted"));
+        client.publishMessage(topicARN, TEST_MSG_CONTENT, Collections.singletonMap("type", "wanted"));
+
+        // Wait for the message
+        while(sqsClient.getPendingMessageCount(url) == 0) {
+            try {
+                Thread.sleep(100);
+            } catch(Exception e) {
+
+            }
+        }
+
+        Optional<Message> msg = sqsClient.receiveMessage(url);
+
+        if (msg.isPresent()) {
+            Assert.assertEquals(TEST_MSG_CONTENT, msg.get().getBody());
+        } else {
+            Assert.fail("FAILED to receive original message on SQS Queue");
+        }
+
+        sqsClient.deleteQueue(url);
+    }
 }
\ No newline at end of file
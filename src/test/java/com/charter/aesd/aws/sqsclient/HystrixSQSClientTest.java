@@ -0,0 +1,137 @@
+package com.charter.aesd.aws.sqsclient;
+
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.netflix.config.ConfigurationManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class HystrixSQSClientTest {
+
+    private static final String QUEUE_URL = "https://sqs.us-west-2.amazonaws.com/123456789012/hystrix-test";
+
+    @After
+    public void tearDown() {
+
+        ConfigurationManager.getConfigInstance().clearProperty("aws.sqsClient.collapseSends");
+    }
+
+    @Test
+    public void testSendsAreCollapsed() throws Exception {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.sqsClient.collapseSends", true);
+        final AtomicInteger batches = new AtomicInteger();
+        final HystrixSQSClient client = new HystrixSQSClient(new SQSClientStub() {
+
+            @Override
+            public synchronized SendMessageBatchResult sendMessages(final String queueUrl,
+                                                                   final List<String> content) {
+
+                batches.incrementAndGet();
+                Assert.assertTrue(content.size() <= 10);
+                return super.sendMessages(queueUrl, content);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SendMessageResult>> results = new ArrayList<Future<SendMessageResult>>();
+            for (int i = 0; i < 40; i++) {
+                final String content = "message " + i;
+                results.add(executor.submit(() -> client.sendMessage(QUEUE_URL, content)));
+            }
+
+            Set<String> messageIds = new HashSet<String>();
+            for (Future<SendMessageResult> result : results) {
+                messageIds.add(result.get().getMessageId());
+            }
+            Assert.assertEquals(40, messageIds.size());
+            Assert.assertTrue(batches.get() < 40);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSendsAreCollapsedPerClientAndQueueUrl() throws Exception {
+
+        ConfigurationManager.getConfigInstance().setProperty("aws.sqsClient.collapseSends", true);
+        // the same Queue name in another account
+        final String otherQueueUrl = "https://sqs.us-east-1.amazonaws.com/210987654321/hystrix-test";
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        final HystrixSQSClient[] clients = new HystrixSQSClient[2];
+        for (int i = 0; i < clients.length; i++) {
+            final String name = "client" + i;
+            clients[i] = new HystrixSQSClient(new SQSClientStub() {
+
+                @Override
+                public synchronized SendMessageBatchResult sendMessages(final String queueUrl,
+                                                                       final List<String> content) {
+
+                    for (String message : content) {
+                        sent.add(name + " " + queueUrl + " " + message);
+                    }
+                    return super.sendMessages(queueUrl, content);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SendMessageResult>> results = new ArrayList<Future<SendMessageResult>>();
+            for (int i = 0; i < 40; i++) {
+                final HystrixSQSClient client = clients[i % 2];
+                final String queueUrl = ((i / 2) % 2 == 0) ? QUEUE_URL : otherQueueUrl;
+                final String content = "message " + i;
+                results.add(executor.submit(() -> client.sendMessage(queueUrl, content)));
+            }
+            for (Future<SendMessageResult> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(40, sent.size());
+        for (int i = 0; i < 40; i++) {
+            String queueUrl = ((i / 2) % 2 == 0) ? QUEUE_URL : otherQueueUrl;
+            Assert.assertTrue(sent.contains("client" + (i % 2) + " " + queueUrl + " message " + i));
+        }
+    }
+
+    @Test
+    public void testClientExceptionIsRethrown() {
+
+        HystrixSQSClient client = new HystrixSQSClient(new SQSClientStub() {
+
+            @Override
+            public void deleteQueue(final String queueUrl) throws IOException {
+
+                throw new IOException("delete failed");
+            }
+        });
+
+        try {
+            client.deleteQueue(QUEUE_URL);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            Assert.assertEquals("delete failed", e.getMessage());
+        }
+    }
+}
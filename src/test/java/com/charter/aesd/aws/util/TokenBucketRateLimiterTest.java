@@ -0,0 +1,49 @@
+package com.charter.aesd.aws.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    public void testDisabledNeverWaits() {
+
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(() -> 0, () -> 1);
+
+        Assert.assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(0, limiter.acquire());
+        }
+    }
+
+    @Test
+    public void testBurstIsGrantedImmediately() {
+
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(() -> 1, () -> 5);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+        }
+        Assert.assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testSustainedRate() {
+
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(() -> 100, () -> 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 21; i++) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // first permit is free, the next 20 are paced at 10ms each
+        Assert.assertTrue("elapsed " + elapsed + "ms", elapsed >= 190);
+    }
+}